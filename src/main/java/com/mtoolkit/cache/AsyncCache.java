@@ -0,0 +1,98 @@
+package com.mtoolkit.cache;
+
+import java.util.Map;
+
+/**
+ * A cache with composable asynchronous operations, their results are
+ * returned as {@link CacheFuture}s, which the cache completes from its own
+ * I/O callbacks where its client supports it, or from its async thread pool
+ * otherwise. None of these methods blocks the caller on the operation.
+ * 
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ * 
+ * @see		com.mtoolkit.cache.Cache
+ * @see		com.mtoolkit.cache.CacheFuture
+ */
+public interface AsyncCache extends Cache {
+
+	/**
+	 * Gets the value of the specified cache key.
+	 * 
+	 * @param key cache key.
+	 * 
+	 * @return future of the cache value, or null if missed.
+	 * 
+	 * @throws NullPointerException  if the <code>key</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public <T> CacheFuture<T> getAsync(String key);
+
+	/**
+	 * Gets the values of the specified cache keys.
+	 * 
+	 * @param keys cache keys.
+	 * 
+	 * @return future of the hit values by key.
+	 * 
+	 * @throws NullPointerException  if the <code>keys</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public <T> CacheFuture<Map<String, T>> getAsync(String[] keys);
+
+	/**
+	 * Puts or updates the value into cache with the specified cache key.
+	 * 
+	 * @param key		  cache key.
+	 * @param value		  cache value.
+	 * @param expiredTime expired time, in milliseconds.
+	 * 
+	 * @return future of the put result.
+	 * 
+	 * @throws NullPointerException  if the <code>key</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime);
+
+	/**
+	 * Puts or updates the value into cache with the specified cache key, by
+	 * the CAS operation if the key exists.
+	 * 
+	 * @param key		  cache key.
+	 * @param value		  cache value.
+	 * @param expiredTime expired time, in milliseconds.
+	 * @param operation	  CAS operation.
+	 * 
+	 * @return future of the put result.
+	 * 
+	 * @throws NullPointerException  if the <code>key</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation);
+
+	/**
+	 * Increases the number of the specified cache key.
+	 * 
+	 * @param key   cache key.
+	 * @param value increment.
+	 * 
+	 * @return future of the increased number.
+	 * 
+	 * @throws NullPointerException  if the <code>key</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public CacheFuture<Long> increaseAsync(String key, long value);
+
+	/**
+	 * Decreases the number of the specified cache key.
+	 * 
+	 * @param key   cache key.
+	 * @param value decrement.
+	 * 
+	 * @return future of the decreased number.
+	 * 
+	 * @throws NullPointerException  if the <code>key</code> is null.
+	 * @throws IllegalStateException if current cache engine is not started.
+	 */
+	public CacheFuture<Long> decreaseAsync(String key, long value);
+
+}
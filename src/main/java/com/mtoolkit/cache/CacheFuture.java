@@ -0,0 +1,30 @@
+package com.mtoolkit.cache;
+
+import java.util.concurrent.Future;
+
+/**
+ * A future of an asynchronous cache operation, which notifies listeners when
+ * it completes, so callers compose operations without parking a thread.
+ * 
+ * @param	T result type.
+ * 
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ * 
+ * @see		com.mtoolkit.cache.AsyncCache
+ */
+public interface CacheFuture<T> extends Future<T> {
+
+	/**
+	 * Adds a listener which is notified once when this future completes, by
+	 * the thread completing it, or at once by the caller if it has completed.
+	 * Listeners should be short and must not block.
+	 * 
+	 * @param listener completion listener.
+	 * 
+	 * @return this future.
+	 * 
+	 * @throws NullPointerException if the <code>listener</code> is null.
+	 */
+	public CacheFuture<T> addListener(CacheFutureListener<? super T> listener);
+
+}
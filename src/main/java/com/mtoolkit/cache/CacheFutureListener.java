@@ -0,0 +1,26 @@
+package com.mtoolkit.cache;
+
+/**
+ * Listener of a {@link CacheFuture}, exactly one of its methods is called.
+ * 
+ * @param	T result type.
+ * 
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public interface CacheFutureListener<T> {
+
+	/**
+	 * Called when the operation succeeds.
+	 * 
+	 * @param value operation result.
+	 */
+	public void onSuccess(T value);
+
+	/**
+	 * Called when the operation fails.
+	 * 
+	 * @param cause failure cause.
+	 */
+	public void onFailure(Throwable cause);
+
+}
@@ -1,22 +1,58 @@
 package com.mtoolkit.cache.callback;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.mlogger.Loggers;
 
 import com.mtoolkit.cache.Cache;
 import com.mtoolkit.cache.CasOperation;
 import com.mtoolkit.cache.decorator.CacheDecorator;
+import com.mtoolkit.cache.decorator.DecorateCacheException;
 import com.mtoolkit.cache.support.AbstractCache.SucceedFuture;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 public class CallbackCache extends CacheDecorator {
 
 	private String _version;
+	/** whether concurrent misses of a key share one load */
+	private volatile boolean _coalescing;
+	/** max time to wait for a shared load in milliseconds, non-positive waits forever */
+	private volatile long _coalescingTimeout;
+	/** in-flight loads by cache key */
+	private final ConcurrentHashMap<String, FutureTask<Object>> _loadings =
+	    new ConcurrentHashMap<String, FutureTask<Object>>();
+	/** fraction of the expired time after which values are refreshed ahead, zero disables */
+	private volatile double _refreshRatio;
+	/** refresh thread number */
+	private int _refreshThreads = DEFAULT_REFRESH_THREADS;
+	/** max queued refreshes, more refreshes are dropped */
+	private int _refreshQueueSize = DEFAULT_REFRESH_QUEUE_SIZE;
+	/** refresh executor, created on the first refresh */
+	private volatile ThreadPoolExecutor _refreshExecutor;
+	/** keys being refreshed */
+	private final ConcurrentHashMap<String, Boolean> _refreshings =
+	    new ConcurrentHashMap<String, Boolean>();
 
 	public static final String DEFAULT_CACHE_VERSION = "1.0";
+	public static final int DEFAULT_REFRESH_THREADS = 2;
+	public static final int DEFAULT_REFRESH_QUEUE_SIZE = 1000;
+	
+	private static final Loggers LOGGER = Loggers.getLoggers(CallbackCache.class);
 	
 	// ---- constructors
     public CallbackCache() {
@@ -31,6 +67,88 @@ public class CallbackCache extends CacheDecorator {
 	    _version = version;
 	}
 
+	public boolean isCoalescing() {
+	    return _coalescing;
+	}
+	
+	/**
+	 * Sets the coalescing mode. When it is enabled, concurrent misses of the
+	 * same cache key in the <code>get</code> methods with a {@link ValueLoader}
+	 * share one in-flight load, instead of every caller loading the value.
+	 * 
+	 * @param coalescing whether enables the coalescing mode.
+	 */
+	public void setCoalescing(boolean coalescing) {
+	    _coalescing = coalescing;
+	}
+	
+	public long getCoalescingTimeout() {
+	    return _coalescingTimeout;
+	}
+	
+	/**
+	 * Sets the max time to wait for a shared load, a caller which waited
+	 * longer loads the value by itself. Non-positive waits forever.
+	 * 
+	 * @param coalescingTimeout wait timeout, in milliseconds.
+	 */
+	public void setCoalescingTimeout(long coalescingTimeout) {
+	    _coalescingTimeout = coalescingTimeout;
+	}
+	
+	public double getRefreshRatio() {
+	    return _refreshRatio;
+	}
+	
+	/**
+	 * Sets the refresh-ahead ratio. When it is positive, values loaded by the
+	 * <code>get</code> methods with a {@link ValueLoader} and an expired time are
+	 * stored with soft and hard expired times. Once a value passed the ratio of
+	 * its expired time, callers still get it while one asynchronous refresh per
+	 * key reloads it, so hot values do not fall off a latency cliff at expiry.
+	 * 
+	 * @param refreshRatio refresh ratio in [0, 1), zero disables refresh-ahead.
+	 */
+	public void setRefreshRatio(double refreshRatio) {
+	    if (refreshRatio < 0D || refreshRatio >= 1D) {
+	        throw new IllegalArgumentException("Refresh ratio must be in [0, 1): " + refreshRatio);
+	    }
+	    _refreshRatio = refreshRatio;
+	}
+	
+	public int getRefreshThreads() {
+	    return _refreshThreads;
+	}
+	
+	public void setRefreshThreads(int refreshThreads) {
+	    if (refreshThreads <= 0) {
+	        throw new IllegalArgumentException("Refresh threads must be a positive number: " + refreshThreads);
+	    }
+	    _refreshThreads = refreshThreads;
+	}
+	
+	public int getRefreshQueueSize() {
+	    return _refreshQueueSize;
+	}
+	
+	public void setRefreshQueueSize(int refreshQueueSize) {
+	    if (refreshQueueSize <= 0) {
+	        throw new IllegalArgumentException("Refresh queue size must be a positive number: " + refreshQueueSize);
+	    }
+	    _refreshQueueSize = refreshQueueSize;
+	}
+	
+	@Override
+	public void shutdown() {
+	    synchronized (_refreshings) {
+	        if (_refreshExecutor != null) {
+	            _refreshExecutor.shutdownNow();
+	            _refreshExecutor = null;
+	        }
+	    }
+	    super.shutdown();
+	}
+	
 	// ---- put methods
 	public boolean put(KeyGenerator key, Object value) {
 	    return put(generateKey(key), value);
@@ -97,48 +215,75 @@ public class CallbackCache extends CacheDecorator {
 	}
 
 	// ---- get methods
+	@Override
+	public <T> T get(String key) {
+	    return unwrap(super.get(key));
+	}
+	
+	@Override
+	public <T> Map<String, T> get(String[] keys) {
+	    Map<String, T> values = super.get(keys);
+	    if (values == null || !containsRefreshEntry(values)) {
+	        return values;
+	    }
+	    
+	    // the decorated cache may return an unmodifiable map.
+	    Map<String, T> resultMap = new HashMap<String, T>(values.size() * 2);
+	    for (Entry<String, T> entry : values.entrySet()) {
+	        T value = this.<T>unwrap(entry.getValue());
+	        if (value != null) {
+	            resultMap.put(entry.getKey(), value); // drops the hard expired values.
+	        }
+	    }
+	    return resultMap;
+	}
+	
 	public <V> V get(KeyGenerator key) {
 		return get(generateKey(key));
 	}
 	
 	public <V> V get(KeyGenerator key, ValueLoader<V> value) {
-		String cacheKey = generateKey(key);
-		V cacheValue = get(cacheKey);
-		if (cacheValue == null) {
-			cacheValue = loadValue(value);
-			asyncPut(cacheKey, cacheValue);
-		}
-		return cacheValue;
-	}
-	
-	public <V> V get(KeyGenerator key, ValueLoader<V> value, long expiredTime) {
-		String cacheKey = generateKey(key);
-		V cacheValue = get(cacheKey);
-		if (cacheValue == null) {
-			cacheValue = loadValue(value);
-			asyncPut(cacheKey, cacheValue, expiredTime);
-		}
-		return cacheValue;
-	}
-	
-	public <V> V get(KeyGenerator key, ValueLoader<V> value, CasOperation<Object> operation) {
-		String cacheKey = generateKey(key);
-		V cacheValue = get(cacheKey);
-		if (cacheValue == null) {
-			cacheValue = loadValue(value);
-			asyncPut(cacheKey, cacheValue, operation);
-		}
-		return cacheValue;
-	}
-	
-	public <V> V get(KeyGenerator key, ValueLoader<V> value, long expiredTime, CasOperation<Object> operation) {
-		String cacheKey = generateKey(key);
-		V cacheValue = get(cacheKey);
-		if (cacheValue == null) {
-			cacheValue = loadValue(value);
-			asyncPut(cacheKey, cacheValue, expiredTime, operation);
-		}
-		return cacheValue;
+		return getOrLoad(generateKey(key), value, 0L, new ValueStorer() {
+		    
+		    @Override
+		    public void store(String cacheKey, Object cacheValue) {
+		        asyncPut(cacheKey, cacheValue);
+		    }
+		    
+		});
+	}
+	
+	public <V> V get(KeyGenerator key, ValueLoader<V> value, final long expiredTime) {
+		return getOrLoad(generateKey(key), value, expiredTime, new ValueStorer() {
+		    
+		    @Override
+		    public void store(String cacheKey, Object cacheValue) {
+		        asyncPut(cacheKey, cacheValue, expiredTime);
+		    }
+		    
+		});
+	}
+	
+	public <V> V get(KeyGenerator key, ValueLoader<V> value, final CasOperation<Object> operation) {
+		return getOrLoad(generateKey(key), value, 0L, new ValueStorer() {
+		    
+		    @Override
+		    public void store(String cacheKey, Object cacheValue) {
+		        asyncPut(cacheKey, cacheValue, wrap(operation, cacheValue));
+		    }
+		    
+		});
+	}
+	
+	public <V> V get(KeyGenerator key, ValueLoader<V> value, final long expiredTime, final CasOperation<Object> operation) {
+		return getOrLoad(generateKey(key), value, expiredTime, new ValueStorer() {
+		    
+		    @Override
+		    public void store(String cacheKey, Object cacheValue) {
+		        asyncPut(cacheKey, cacheValue, expiredTime, wrap(operation, cacheValue));
+		    }
+		    
+		});
 	}
 	
 	public <K, V> Map<K, V> gets(K[] params, KeyBatchGenerator<K> key, ValueBatchLoader<K, V> value) {
@@ -280,6 +425,9 @@ public class CallbackCache extends CacheDecorator {
 	}
 	
 	private String buildVersionCacheKey(String key) {
+	    if (_version == null || _version.isEmpty()) {
+	        return key; // no version, keeps keys such as numeric ids as they are.
+	    }
 	    return _version + "-" + key;
 	}
 	
@@ -287,4 +435,209 @@ public class CallbackCache extends CacheDecorator {
 	    return value.loadValue();
 	}
 	
+	@SuppressWarnings("unchecked")
+	private <V> V getOrLoad(final String cacheKey, final ValueLoader<V> value,
+	        final long expiredTime, final ValueStorer storer) {
+	    Object cacheValue = super.get(cacheKey);
+	    if (cacheValue instanceof RefreshEntry) {
+	        RefreshEntry entry = (RefreshEntry) cacheValue;
+	        long now = System.currentTimeMillis();
+	        if (now < entry._hardExpiredAt) {
+	            if (now >= entry._softExpiredAt && expiredTime > 0) {
+	                refresh(cacheKey, value, expiredTime, storer);
+	            }
+	            return (V) entry._value;
+	        }
+	    } else if (cacheValue != null) {
+	        return (V) cacheValue;
+	    }
+	    
+	    if (!_coalescing) {
+	        return loadAndStore(cacheKey, value, expiredTime, storer);
+	    }
+	    
+	    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+	        
+	        @Override
+	        public Object call() throws Exception {
+	            return loadAndStore(cacheKey, value, expiredTime, storer);
+	        }
+	        
+	    });
+	    
+	    FutureTask<Object> loading = _loadings.putIfAbsent(cacheKey, task);
+	    if (loading == null) {
+	        try {
+	            task.run();
+	        } finally {
+	            _loadings.remove(cacheKey, task);
+	        }
+	        loading = task;
+	    }
+	    
+	    return waitLoading(loading, value);
+	}
+	
+	private <V> V loadAndStore(String cacheKey, ValueLoader<V> value, long expiredTime, ValueStorer storer) {
+	    V loadedValue = loadValue(value);
+	    double refreshRatio = _refreshRatio;
+	    if (loadedValue != null && expiredTime > 0 && refreshRatio > 0D) {
+	        long now = System.currentTimeMillis();
+	        storer.store(cacheKey, new RefreshEntry(
+	            loadedValue, now + (long) (expiredTime * refreshRatio), now + expiredTime));
+	    } else {
+	        storer.store(cacheKey, loadedValue);
+	    }
+	    return loadedValue;
+	}
+	
+	private <V> void refresh(final String cacheKey, final ValueLoader<V> value,
+	        final long expiredTime, final ValueStorer storer) {
+	    if (_refreshings.putIfAbsent(cacheKey, Boolean.TRUE) != null) {
+	        return; // refreshing by another caller.
+	    }
+	    
+	    try {
+	        getRefreshExecutor().execute(new Runnable() {
+	            
+	            @Override
+	            public void run() {
+	                try {
+	                    loadAndStore(cacheKey, value, expiredTime, storer);
+	                } catch (RuntimeException e) {
+	                    LOGGER.warn("Refresh cache value exception: {0}", e, cacheKey);
+	                } finally {
+	                    _refreshings.remove(cacheKey);
+	                }
+	            }
+	            
+	        });
+	    } catch (RejectedExecutionException e) {
+	        _refreshings.remove(cacheKey); // queue is full, retry on a later get.
+	    }
+	}
+	
+	private ThreadPoolExecutor getRefreshExecutor() {
+	    ThreadPoolExecutor executor = _refreshExecutor;
+	    if (executor == null) {
+	        synchronized (_refreshings) {
+	            executor = _refreshExecutor;
+	            if (executor == null) {
+	                executor = new ThreadPoolExecutor(_refreshThreads, _refreshThreads,
+	                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(_refreshQueueSize),
+	                    new DaemonThreadFactory("CallbackCache-refresher"));
+	                _refreshExecutor = executor;
+	            }
+	        }
+	    }
+	    return executor;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> T unwrap(Object cacheValue) {
+	    if (cacheValue instanceof RefreshEntry) {
+	        RefreshEntry entry = (RefreshEntry) cacheValue;
+	        return System.currentTimeMillis() < entry._hardExpiredAt ? (T) entry._value : null;
+	    }
+	    return (T) cacheValue;
+	}
+	
+	private boolean containsRefreshEntry(Map<String, ?> values) {
+	    for (Object value : values.values()) {
+	        if (value instanceof RefreshEntry) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+	
+	// the operation sees and returns the values, not their refresh entries.
+	private CasOperation<Object> wrap(final CasOperation<Object> operation, Object cacheValue) {
+	    if (!(cacheValue instanceof RefreshEntry)) {
+	        return new CasOperation<Object>() {
+	            
+	            @Override
+	            public int getMaxTries() {
+	                return operation.getMaxTries();
+	            }
+	            
+	            @Override
+	            public Object getNewValue(Object currentValue) {
+	                return operation.getNewValue(unwrap(currentValue));
+	            }
+	            
+	        };
+	    }
+	    
+	    final RefreshEntry entry = (RefreshEntry) cacheValue;
+	    return new CasOperation<Object>() {
+	        
+	        @Override
+	        public int getMaxTries() {
+	            return operation.getMaxTries();
+	        }
+	        
+	        @Override
+	        public Object getNewValue(Object currentValue) {
+	            return new RefreshEntry(operation.getNewValue(unwrap(currentValue)),
+	                entry._softExpiredAt, entry._hardExpiredAt);
+	        }
+	        
+	    };
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <V> V waitLoading(FutureTask<Object> loading, ValueLoader<V> value) {
+	    long timeout = _coalescingTimeout;
+	    try {
+	        return (V) (timeout > 0 ? loading.get(timeout, TimeUnit.MILLISECONDS) : loading.get());
+	    } catch (TimeoutException e) {
+	        return loadValue(value); // the shared load is too slow, load by itself.
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        throw new DecorateCacheException("Interrupted while waiting for value loading.", e);
+	    } catch (ExecutionException e) {
+	        Throwable cause = e.getCause();
+	        if (cause instanceof RuntimeException) {
+	            throw (RuntimeException) cause;
+	        }
+	        if (cause instanceof Error) {
+	            throw (Error) cause;
+	        }
+	        throw new DecorateCacheException("Load cache value exception.", cause);
+	    }
+	}
+	
+	// ---- inner classes
+	/**
+	 * Stores a loaded value into the cache.
+	 */
+	private interface ValueStorer {
+	    
+	    public void store(String cacheKey, Object cacheValue);
+	    
+	}
+	
+	/**
+	 * A refresh-ahead value with its soft and hard expired times.
+	 */
+	private static final class RefreshEntry implements Serializable {
+	    
+	    private static final long serialVersionUID = -2853117350366530461L;
+	    
+	    /** cached value */
+	    private Object _value;
+	    /** time after which the value is refreshed ahead */
+	    private long _softExpiredAt;
+	    /** time after which the value is not served */
+	    private long _hardExpiredAt;
+	    
+	    private RefreshEntry(Object value, long softExpiredAt, long hardExpiredAt) {
+	        _value = value;
+	        _softExpiredAt = softExpiredAt;
+	        _hardExpiredAt = hardExpiredAt;
+	    }
+	    
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock striped segment of access ordered keys, shared by the concurrent
+ * LRU decorators.
+ * <p>
+ * Writes take the segment lock, reads never block: they record the key into
+ * a lossy ring buffer, and the buffer is drained in batches by whichever
+ * thread acquires the segment lock next.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.ConcurrentLruCache
+ * @see		com.mtoolkit.cache.decorator.WeightedCache
+ */
+class AccessOrderSegment<V> {
+
+    /** segment lock, guards the key map */
+    final ReentrantLock _lock = new ReentrantLock();
+    /** access ordered key map */
+    final LinkedHashMap<String, V> _keyMap = new LinkedHashMap<String, V>(16, .75F, true);
+    /** lossy buffer of recently read keys */
+    private final AtomicReferenceArray<String> _readBuffer =
+        new AtomicReferenceArray<String>(READ_BUFFER_SIZE);
+    /** total recorded reads */
+    private final AtomicLong _readCount = new AtomicLong();
+    /** recorded reads at the last drain, guarded by lock */
+    private volatile long _drainedCount;
+
+    /** max segment number */
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    /** read buffer size, must be power of two */
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    /** pending reads which trigger a drain attempt */
+    private static final int READ_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    /**
+     * Returns the spread hash of the key, String.hashCode is weak in the low bits.
+     *
+     * @param  key cache key.
+     *
+     * @return spread hash.
+     */
+    static int hash(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return hash;
+    }
+
+    void recordRead(String key) {
+        long count = _readCount.getAndIncrement();
+        _readBuffer.lazySet((int) (count & READ_BUFFER_MASK), key);
+
+        if (count - _drainedCount >= READ_DRAIN_THRESHOLD && _lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        _lock.lock();
+        try {
+            return _keyMap.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    // must hold the lock
+    void drainReads() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            String key = _readBuffer.getAndSet(i, null);
+            if (key != null) {
+                _keyMap.get(key); // moves the key to the tail if present
+            }
+        }
+        _drainedCount = _readCount.get();
+    }
+
+    // must hold the lock, drops the keys and the pending reads.
+    void clearKeys() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            _readBuffer.set(i, null);
+        }
+        _keyMap.clear();
+        _drainedCount = _readCount.get();
+    }
+
+}
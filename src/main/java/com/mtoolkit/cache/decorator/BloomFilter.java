@@ -0,0 +1,142 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, scalable bloom filter of key hashes.
+ * <p>
+ * Keys are given as two hashes and mapped to bits by double hashing,
+ * <code>h1 + i * h2</code>. When the current slice has taken its expected
+ * insertions, a slice twice as large with a tighter false positive rate is
+ * added, so the filter grows without exceeding the false positive rate it
+ * was built for. Bits are set with compare-and-set, no lock is taken.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+final class BloomFilter {
+
+    /** slices, the last one takes new keys */
+    private volatile Slice[] _slices;
+
+    /** false positive rate ratio of a slice to the previous one */
+    private static final double TIGHTENING_RATIO = 0.5D;
+
+    public BloomFilter(int expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("Expected insertions must be a positive number: " + expectedInsertions);
+        }
+        if (fpp <= 0D || fpp >= 1D) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1): " + fpp);
+        }
+        // the rates of all slices sum up to the given rate.
+        _slices = new Slice[] { new Slice(expectedInsertions, fpp * (1D - TIGHTENING_RATIO)) };
+    }
+
+    public void put(int hash1, int hash2) {
+        Slice[] slices = _slices;
+        Slice slice = slices[slices.length - 1];
+        // a key put again sets no new bit, it does not count as an insertion.
+        if (slice.put(hash1, hash2) && slice._insertions.incrementAndGet() == slice._expectedInsertions) {
+            grow(slices, slice);
+        }
+    }
+
+    public boolean mightContain(int hash1, int hash2) {
+        for (Slice slice : _slices) {
+            if (slice.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the false positive rate expected from the bits set so far.
+     *
+     * @return expected false positive rate.
+     */
+    public double expectedFpp() {
+        double negative = 1D;
+        for (Slice slice : _slices) {
+            negative *= 1D - slice.expectedFpp();
+        }
+        return 1D - negative;
+    }
+
+    // ---- private methods
+    private synchronized void grow(Slice[] slices, Slice last) {
+        if (_slices != slices) {
+            return;
+        }
+        Slice[] newSlices = new Slice[slices.length + 1];
+        System.arraycopy(slices, 0, newSlices, 0, slices.length);
+        int expectedInsertions = (int) Math.min(last._expectedInsertions * 2L, Integer.MAX_VALUE / 2);
+        newSlices[slices.length] = new Slice(expectedInsertions, last._fpp * TIGHTENING_RATIO);
+        _slices = newSlices;
+    }
+
+    // ---- inner classes
+    private static final class Slice {
+
+        private final AtomicLongArray _bits;
+        private final long _bitSize;
+        private final int _hashNumber;
+        private final int _expectedInsertions;
+        private final double _fpp;
+        private final AtomicInteger _insertions = new AtomicInteger();
+        private final AtomicLong _bitCount = new AtomicLong();
+
+        private Slice(int expectedInsertions, double fpp) {
+            // m = -n * ln(p) / ln(2)^2, k = m / n * ln(2)
+            long bitSize = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2D) * Math.log(2D)));
+            bitSize = Math.min(Math.max(bitSize, 64L), (long) Integer.MAX_VALUE * 64L);
+            _bits = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+            _bitSize = _bits.length() * 64L;
+            _hashNumber = Math.max(1, (int) Math.round((double) _bitSize / expectedInsertions * Math.log(2D)));
+            _expectedInsertions = expectedInsertions;
+            _fpp = fpp;
+        }
+
+        // returns whether a bit is newly set.
+        private boolean put(int hash1, int hash2) {
+            boolean changed = false;
+            long combined = hash1;
+            for (int i = 0; i < _hashNumber; i++) {
+                combined += hash2;
+                long bit = (combined & Long.MAX_VALUE) % _bitSize;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word = _bits.get(index);
+                while ((word & mask) == 0L) {
+                    if (_bits.compareAndSet(index, word, word | mask)) {
+                        _bitCount.incrementAndGet();
+                        changed = true;
+                        break;
+                    }
+                    word = _bits.get(index);
+                }
+            }
+            return changed;
+        }
+
+        private boolean mightContain(int hash1, int hash2) {
+            long combined = hash1;
+            for (int i = 0; i < _hashNumber; i++) {
+                combined += hash2;
+                long bit = (combined & Long.MAX_VALUE) % _bitSize;
+                if ((_bits.get((int) (bit >>> 6)) & (1L << bit)) == 0L) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double expectedFpp() {
+            return Math.pow((double) _bitCount.get() / _bitSize, _hashNumber);
+        }
+
+    }
+
+}
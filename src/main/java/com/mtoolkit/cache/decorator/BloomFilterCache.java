@@ -0,0 +1,306 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.hash.Hash;
+import com.mtoolkit.hash.support.JenkinsHash;
+import com.mtoolkit.hash.support.MurmurHash;
+import com.mtoolkit.util.CharsetUtil;
+
+/**
+ * A cache decorator which answers definite misses locally, for remote caches
+ * where most lookups are for absent keys and every miss costs a round-trip.
+ * <p>
+ * Written keys and keys found by gets are added to a bloom filter, hashed
+ * with {@link MurmurHash} and {@link JenkinsHash} for double hashing. Gets,
+ * <code>containsKey</code> and <code>getNumber</code> of keys not in the
+ * filter return a miss without calling the decorated cache. The filter is
+ * rotated every rotate interval: a new generation takes the new keys and the
+ * previous one is still consulted, so a key is kept for one to two intervals
+ * after it was last written or found. A key which is kept longer in the
+ * decorated cache is a false miss, like an eviction, so the interval should
+ * be longer than the expired time of most values. Every generation grows
+ * with its keys, and the filter is only consulted after the first rotation,
+ * when it has learned the keys in use. Keys written bypassing this decorator
+ * are not known to the filter.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class BloomFilterCache extends CacheDecorator {
+
+    /** expected keys of a generation */
+    private final int _expectedInsertions;
+    /** false positive rate of a generation */
+    private final double _fpp;
+    /** rotate interval, in milliseconds */
+    private final long _rotateInterval;
+    /** current and previous filters */
+    private final AtomicReference<Generations> _generations;
+    /** lookups answered by the filter */
+    private final AtomicLong _avoidedNumber = new AtomicLong();
+
+    public static final int DEF_EXPECTED_INSERTIONS = 100000;
+    public static final double DEF_FPP = 0.01D;
+    public static final long DEF_ROTATE_INTERVAL = 60 * 60 * 1000L;
+
+    private static final Hash HASH1 = MurmurHash.getInstance();
+    private static final Hash HASH2 = JenkinsHash.getInstance();
+
+    // ---- constructors
+    public BloomFilterCache(Cache cache) {
+        this(cache, DEF_EXPECTED_INSERTIONS, DEF_FPP, DEF_ROTATE_INTERVAL);
+    }
+
+    public BloomFilterCache(Cache cache, int expectedInsertions, double fpp, long rotateInterval) {
+        super(cache);
+        if (rotateInterval <= 0) {
+            throw new IllegalArgumentException("Rotate interval must be a positive number: " + rotateInterval);
+        }
+        _expectedInsertions = expectedInsertions;
+        _fpp = fpp;
+        _rotateInterval = rotateInterval;
+        _generations = new AtomicReference<Generations>(new Generations(
+            new BloomFilter(expectedInsertions, fpp), null, System.currentTimeMillis() + rotateInterval));
+    }
+
+    /**
+     * Returns the false positive rate expected from the keys added, the rate
+     * of the lookups of absent keys still sent to the decorated cache.
+     *
+     * @return expected false positive rate.
+     */
+    public double getFalsePositiveRate() {
+        Generations generations = _generations.get();
+        double negative = 1D - generations._current.expectedFpp();
+        if (generations._previous != null) {
+            negative *= 1D - generations._previous.expectedFpp();
+        }
+        return 1D - negative;
+    }
+
+    /**
+     * Returns the number of lookups answered as misses by the filter.
+     *
+     * @return avoided lookup number.
+     */
+    public long getAvoidedNumber() {
+        return _avoidedNumber.get();
+    }
+
+    // ---- implement methods
+    @Override
+    public boolean containsKey(String key) {
+        if (isAbsent(key)) {
+            return false;
+        }
+        return getCache().containsKey(key);
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        add(key);
+        return getCache().put(key, value);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        add(key);
+        return getCache().asyncPut(key, value);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        add(key);
+        return getCache().put(key, value, expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        add(key);
+        return getCache().asyncPut(key, value, expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        add(key);
+        return getCache().put(key, value, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        add(key);
+        return getCache().asyncPut(key, value, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        add(key);
+        return getCache().put(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        add(key);
+        return getCache().asyncPut(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        if (isAbsent(key)) {
+            return null;
+        }
+        T value = getCache().get(key);
+        if (value != null) {
+            add(key);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().get(keys);
+        }
+
+        List<String> queryKeys = new ArrayList<String>(keys.length);
+        for (String key : keys) {
+            if (key != null && !isAbsent(key)) {
+                queryKeys.add(key);
+            }
+        }
+        if (queryKeys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, T> values = getCache().get(queryKeys.toArray(new String[queryKeys.size()]));
+        if (values != null) {
+            for (String key : values.keySet()) {
+                add(key);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public boolean clear() {
+        reset();
+        return getCache().clear();
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        reset();
+        return getCache().asyncClear();
+    }
+
+    @Override
+    public long getNumber(String key) {
+        if (isAbsent(key)) {
+            return 0L;
+        }
+        return getCache().getNumber(key);
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        add(key);
+        return getCache().increase(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        add(key);
+        return getCache().asyncIncrease(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        add(key);
+        return getCache().decrease(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        add(key);
+        return getCache().asyncDecrease(key, value);
+    }
+
+    // ---- private methods
+    private void add(String key) {
+        if (key == null) {
+            return;
+        }
+        byte[] bytes = key.getBytes(CharsetUtil.UTF_8);
+        generations()._current.put(HASH1.hash(bytes), HASH2.hash(bytes));
+    }
+
+    /**
+     * Returns whether the key is surely absent, false until the first rotation.
+     */
+    private boolean isAbsent(String key) {
+        Generations generations = generations();
+        if (key == null || generations._previous == null) {
+            return false;
+        }
+
+        byte[] bytes = key.getBytes(CharsetUtil.UTF_8);
+        int hash1 = HASH1.hash(bytes);
+        int hash2 = HASH2.hash(bytes);
+        if (generations._current.mightContain(hash1, hash2)
+                || generations._previous.mightContain(hash1, hash2)) {
+            return false;
+        }
+        _avoidedNumber.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the generations, rotating them if the interval has passed.
+     */
+    private Generations generations() {
+        Generations generations = _generations.get();
+        long now = System.currentTimeMillis();
+        if (now >= generations._rotateAt) {
+            Generations rotated = new Generations(new BloomFilter(_expectedInsertions, _fpp),
+                generations._current, now + _rotateInterval);
+            if (_generations.compareAndSet(generations, rotated)) {
+                return rotated;
+            }
+            return _generations.get();
+        }
+        return generations;
+    }
+
+    /**
+     * Drops all keys, the filter learns again until the next rotation.
+     */
+    private void reset() {
+        _generations.set(new Generations(new BloomFilter(_expectedInsertions, _fpp),
+            null, System.currentTimeMillis() + _rotateInterval));
+    }
+
+    // ---- inner classes
+    private static final class Generations {
+
+        private final BloomFilter _current;
+        /** null while learning */
+        private final BloomFilter _previous;
+        private final long _rotateAt;
+
+        private Generations(BloomFilter current, BloomFilter previous, long rotateAt) {
+            _current = current;
+            _previous = previous;
+            _rotateAt = rotateAt;
+        }
+
+    }
+
+}
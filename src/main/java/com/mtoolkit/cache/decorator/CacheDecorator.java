@@ -2,23 +2,49 @@ package com.mtoolkit.cache.decorator;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.mtoolkit.cache.AsyncCache;
 import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CacheFutureListener;
 import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.cache.support.PendingFuture;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 /**
  * Abstract decorate cache class, children can extends this class
  * and decorate the given repository resources.
+ * <p>
+ * The {@link AsyncCache} methods run the decorator's own operations in a
+ * shared, bounded async thread pool by default, an operation is failed with
+ * a {@link RejectedExecutionException} when the pool queue is full.
+ * Decorators which only adjust keys or results re-implement them upon the
+ * async methods of the decorated cache, see {@link #getAsyncCache()}.
  * 
  * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
  */
-public abstract class CacheDecorator implements Cache {
+public abstract class CacheDecorator implements AsyncCache {
 
 	/** cache engine */
 	private Cache _cache;
 	/** cache initialize flag */
     private volatile boolean _initialized;
+    
+    /** async thread number */
+    private static final int ASYNC_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    /** max queued async operations */
+    private static final int ASYNC_QUEUE_SIZE = 10000;
+    /** idle time of an async thread, in milliseconds */
+    private static final long ASYNC_KEEP_ALIVE = 60 * 1000L;
+    
+    /** runs the async operations of decorators */
+    private static final ThreadPoolExecutor ASYNC_EXECUTOR = createAsyncExecutor();
 	
     public CacheDecorator() {
     }
@@ -202,6 +228,147 @@ public abstract class CacheDecorator implements Cache {
 		return getCache().asyncDecrease(key, value);
 	}
 	
+	// ---- async cache methods
+	@Override
+	public <T> CacheFuture<T> getAsync(final String key) {
+	    return submitAsync(new Callable<T>() {
+	        
+	        @Override
+	        public T call() throws Exception {
+	            return get(key);
+	        }
+	        
+	    });
+	}
+	
+	@Override
+	public <T> CacheFuture<Map<String, T>> getAsync(final String[] keys) {
+	    return submitAsync(new Callable<Map<String, T>>() {
+	        
+	        @Override
+	        public Map<String, T> call() throws Exception {
+	            return get(keys);
+	        }
+	        
+	    });
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime) {
+	    return putAsync(key, value, expiredTime, null);
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(final String key, final Object value, final long expiredTime, final CasOperation<Object> operation) {
+	    return submitAsync(new Callable<Boolean>() {
+	        
+	        @Override
+	        public Boolean call() throws Exception {
+	            return Boolean.valueOf(put(key, value, expiredTime, operation));
+	        }
+	        
+	    });
+	}
+	
+	@Override
+	public CacheFuture<Long> increaseAsync(final String key, final long value) {
+	    return submitAsync(new Callable<Long>() {
+	        
+	        @Override
+	        public Long call() throws Exception {
+	            return Long.valueOf(increase(key, value));
+	        }
+	        
+	    });
+	}
+	
+	@Override
+	public CacheFuture<Long> decreaseAsync(final String key, final long value) {
+	    return submitAsync(new Callable<Long>() {
+	        
+	        @Override
+	        public Long call() throws Exception {
+	            return Long.valueOf(decrease(key, value));
+	        }
+	        
+	    });
+	}
+	
+	/**
+	 * Returns the decorated cache as an async cache, a cache which is not one
+	 * is adapted to run its operations in the shared async thread pool.
+	 * 
+	 * @return decorated async cache.
+	 */
+	protected AsyncCache getAsyncCache() {
+	    Cache cache = getCache();
+	    if (cache instanceof AsyncCache) {
+	        return (AsyncCache) cache;
+	    }
+	    return new AsyncAdapter(cache);
+	}
+	
+	/**
+	 * Runs the operation in the shared async thread pool and completes the
+	 * returned future with its result.
+	 * 
+	 * @param  operation cache operation.
+	 * 
+	 * @return future of the operation result.
+	 */
+	protected <T> CacheFuture<T> submitAsync(final Callable<T> operation) {
+	    checkStates();
+	    final PendingFuture<T> future = new PendingFuture<T>();
+	    try {
+	        ASYNC_EXECUTOR.execute(new Runnable() {
+	            
+	            @Override
+	            public void run() {
+	                try {
+	                    future.set(operation.call());
+	                } catch (Throwable e) {
+	                    future.setException(e);
+	                }
+	            }
+	            
+	        });
+	    } catch (RejectedExecutionException e) {
+	        future.setException(e); // the queue is full.
+	    }
+	    return future;
+	}
+	
+	/**
+	 * Returns a future completed with the result of the given future converted
+	 * by the converter, in the thread completing the given future.
+	 * 
+	 * @param  future    future of the decorated cache.
+	 * @param  converter result converter.
+	 * 
+	 * @return future of the converted result.
+	 */
+	protected static <S, T> CacheFuture<T> convert(CacheFuture<S> future, final ResultConverter<S, T> converter) {
+	    final PendingFuture<T> result = new PendingFuture<T>();
+	    future.addListener(new CacheFutureListener<S>() {
+	        
+	        @Override
+	        public void onSuccess(S value) {
+	            try {
+	                result.set(converter.convert(value));
+	            } catch (RuntimeException e) {
+	                result.setException(e);
+	            }
+	        }
+	        
+	        @Override
+	        public void onFailure(Throwable cause) {
+	            result.setException(cause);
+	        }
+	        
+	    });
+	    return result;
+	}
+	
 	protected void checkCache(Cache cache) {
 	    if (cache == null) {
 	        throw new NullPointerException("cache");
@@ -214,4 +381,34 @@ public abstract class CacheDecorator implements Cache {
         }
     }
 	
-}
\ No newline at end of file
+	private static ThreadPoolExecutor createAsyncExecutor() {
+	    ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS,
+	        ASYNC_KEEP_ALIVE, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+	        new DaemonThreadFactory("CacheDecorator-async"));
+	    executor.allowCoreThreadTimeOut(true);
+	    return executor;
+	}
+	
+	// ---- inner classes
+	/**
+	 * Converts the results of the decorated cache, see {@link CacheDecorator#convert}.
+	 */
+	protected interface ResultConverter<S, T> {
+	    
+	    public T convert(S result);
+	    
+	}
+	
+	/**
+	 * Runs the operations of a cache which is not an async cache in the
+	 * shared async thread pool.
+	 */
+	private static final class AsyncAdapter extends CacheDecorator {
+	    
+	    private AsyncAdapter(Cache cache) {
+	        super(cache);
+	    }
+	    
+	}
+	
+}
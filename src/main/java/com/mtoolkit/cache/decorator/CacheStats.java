@@ -0,0 +1,155 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the statistics recorded by a {@link StatsCache}.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public final class CacheStats {
+
+    /** cache id */
+    private final String _id;
+    /** snapshot time, in milliseconds */
+    private final long _time;
+    /** reads which found a value */
+    private final long _hitCount;
+    /** reads which found no value */
+    private final long _missCount;
+    /** keys evicted by the size bounded decorators below the stats cache */
+    private final long _evictionCount;
+    /** statistics by operation */
+    private final Map<Operation, OperationStats> _operations;
+
+    CacheStats(String id, long time, long hitCount, long missCount,
+            long evictionCount, EnumMap<Operation, OperationStats> operations) {
+        _id = id;
+        _time = time;
+        _hitCount = hitCount;
+        _missCount = missCount;
+        _evictionCount = evictionCount;
+        _operations = Collections.unmodifiableMap(operations);
+    }
+
+    public String getId() {
+        return _id;
+    }
+
+    public long getTime() {
+        return _time;
+    }
+
+    public long getHitCount() {
+        return _hitCount;
+    }
+
+    public long getMissCount() {
+        return _missCount;
+    }
+
+    /**
+     * Returns the ratio of reads which found a value, one if nothing is read.
+     *
+     * @return hit rate in [0, 1].
+     */
+    public double getHitRate() {
+        long requestCount = _hitCount + _missCount;
+        return requestCount == 0 ? 1D : (double) _hitCount / requestCount;
+    }
+
+    public long getEvictionCount() {
+        return _evictionCount;
+    }
+
+    public OperationStats getOperationStats(Operation operation) {
+        return _operations.get(operation);
+    }
+
+    public Map<Operation, OperationStats> getOperationStats() {
+        return _operations;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("CacheStats:[id=").append(_id)
+            .append(", hits=").append(_hitCount)
+            .append(", misses=").append(_missCount)
+            .append(", hitRate=").append(getHitRate())
+            .append(", evictions=").append(_evictionCount).append(']');
+        for (Map.Entry<Operation, OperationStats> entry : _operations.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                builder.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+        }
+        return builder.toString();
+    }
+
+    // ---- inner classes
+    /**
+     * Cache operation types.
+     */
+    public enum Operation {
+
+        CONTAINS,
+        PUT,
+        ASYNC_PUT,
+        GET,
+        ASYNC_GET,
+        MULTI_GET,
+        ASYNC_MULTI_GET,
+        REMOVE,
+        ASYNC_REMOVE,
+        MULTI_REMOVE,
+        ASYNC_MULTI_REMOVE,
+        CLEAR,
+        ASYNC_CLEAR,
+        GET_NUMBER,
+        INCREASE,
+        ASYNC_INCREASE,
+        DECREASE,
+        ASYNC_DECREASE
+
+    }
+
+    /**
+     * Statistics of an operation type.
+     */
+    public static final class OperationStats {
+
+        /** invocation number */
+        private final long _count;
+        /** invocation number which threw exceptions */
+        private final long _errorCount;
+        /** latency snapshot */
+        private final LatencyHistogram.Snapshot _latency;
+
+        OperationStats(long count, long errorCount, LatencyHistogram.Snapshot latency) {
+            _count = count;
+            _errorCount = errorCount;
+            _latency = latency;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        public long getErrorCount() {
+            return _errorCount;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return _latency;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + _count + ", errors=" + _errorCount + ", latency:[" + _latency + "]";
+        }
+
+    }
+
+}
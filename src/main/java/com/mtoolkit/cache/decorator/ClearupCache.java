@@ -1,42 +1,141 @@
 package com.mtoolkit.cache.decorator;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.mlogger.Loggers;
 import com.mtoolkit.cache.Cache;
 import com.mtoolkit.cache.CasOperation;
 import com.mtoolkit.cache.support.AbstractCache.SucceedFuture;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 /**
  * Auto clear cache decorator. 
+ * <p>
+ * By default the whole cache is cleared by the first request after the clear
+ * interval. In incremental mode, the written keys are tracked in write order
+ * instead, and a background sweeper removes the keys written more than the
+ * clear interval ago in small batches, each sweep bounded by a time slice,
+ * so there is no miss storm and requests never clear the cache themselves.
+ * Numbers are not cleared in incremental mode.
  */
 public class ClearupCache extends CacheDecorator {
     
     private long _clearInterval;
-    private long _lastClearTime;
+    private volatile long _lastClearTime;
+    /** whether keys age out in the background instead of full clears */
+    private final boolean _incremental;
+    /** max keys removed by one batch */
+    private int _sweepBatchSize = DEF_SWEEP_BATCH_SIZE;
+    /** max time of one sweep, in milliseconds */
+    private long _sweepTimeSlice = DEF_SWEEP_TIME_SLICE;
+    /** latest write of every tracked key */
+    private final ConcurrentHashMap<String, Write> _lastWrites = new ConcurrentHashMap<String, Write>();
+    /** tracked keys, in the order of their queued write times */
+    private final Queue<Write> _writes = new ConcurrentLinkedQueue<Write>();
+    /** sweeper executor, null if not incremental */
+    private ScheduledExecutorService _sweeper;
+    /** keys aged out by the sweeper */
+    private final AtomicLong _sweptNumber = new AtomicLong();
     
     public static final long DEF_CLEAR_INTERVAL = 60 * 60 * 1000L;
+    public static final long DEF_SWEEP_INTERVAL = 1000L;
+    public static final int DEF_SWEEP_BATCH_SIZE = 100;
+    public static final long DEF_SWEEP_TIME_SLICE = 10L;
+    
+    private static final Loggers LOGGER = Loggers.getLoggers(ClearupCache.class);
     
     public ClearupCache(Cache cache) {
         this(cache, DEF_CLEAR_INTERVAL);
     }
     
     public ClearupCache(Cache cache, long clearInterval) {
+        this(cache, clearInterval, false);
+    }
+    
+    public ClearupCache(Cache cache, long clearInterval, boolean incremental) {
         super(cache);
         _clearInterval = clearInterval;
+        _incremental = incremental;
+    }
+    
+    public boolean isIncremental() {
+        return _incremental;
+    }
+    
+    /**
+     * Sets the max keys removed by one batch of the incremental sweeper.
+     * 
+     * @param sweepBatchSize max keys of a batch.
+     */
+    public void setSweepBatchSize(int sweepBatchSize) {
+        if (sweepBatchSize <= 0) {
+            throw new IllegalArgumentException("Sweep batch size must be a positive number: " + sweepBatchSize);
+        }
+        _sweepBatchSize = sweepBatchSize;
+    }
+    
+    /**
+     * Sets the max time of one sweep of the incremental sweeper, the stale
+     * keys left are removed by the next sweeps.
+     * 
+     * @param sweepTimeSlice max time of a sweep, in milliseconds.
+     */
+    public void setSweepTimeSlice(long sweepTimeSlice) {
+        if (sweepTimeSlice <= 0) {
+            throw new IllegalArgumentException("Sweep time slice must be a positive number: " + sweepTimeSlice);
+        }
+        _sweepTimeSlice = sweepTimeSlice;
+    }
+    
+    /**
+     * Returns the number of keys aged out by the incremental sweeper.
+     * 
+     * @return swept key number.
+     */
+    public long getSweptNumber() {
+        return _sweptNumber.get();
     }
     
     @Override
     public Cache startup() {
         _lastClearTime = System.currentTimeMillis();
         getCache().startup();
+        if (_incremental && _sweeper == null) {
+            _sweeper = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("ClearupCache-sweeper"));
+            _sweeper.scheduleWithFixedDelay(new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        sweep();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Sweep stale cache keys exception.", e);
+                    }
+                }
+                
+            }, DEF_SWEEP_INTERVAL, DEF_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        }
         return this;
     }
 
     @Override
     public void shutdown() {
+        if (_sweeper != null) {
+            _sweeper.shutdownNow();
+            _sweeper = null;
+        }
         getCache().shutdown();
     }
     
@@ -62,48 +161,56 @@ public class ClearupCache extends CacheDecorator {
     @Override
     public boolean put(String key, Object value) {
         clearWhenStale();
+        track(key);
         return getCache().put(key, value);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value) {
         clearWhenStale();
+        track(key);
         return getCache().asyncPut(key, value);
     }
     
     @Override
     public boolean put(String key, Object value, long expiredTime) {
         clearWhenStale();
+        track(key);
         return getCache().put(key, value, expiredTime);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
         clearWhenStale();
+        track(key);
         return getCache().asyncPut(key, value, expiredTime);
     }
     
     @Override
     public boolean put(String key, Object value, CasOperation<Object> operation) {
         clearWhenStale();
+        track(key);
         return getCache().put(key, value, operation);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
         clearWhenStale();
+        track(key);
         return getCache().asyncPut(key, value, operation);
     }
 
     @Override
     public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
         clearWhenStale();
+        track(key);
         return getCache().put(key, value, expiredTime, operation);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
         clearWhenStale();
+        track(key);
         return getCache().asyncPut(key, value, expiredTime, operation);
     }
     
@@ -130,6 +237,7 @@ public class ClearupCache extends CacheDecorator {
         if (clearWhenStale()) {
             return null;
         } else {
+            untrack(key);
             return getCache().remove(key);
         }
     }
@@ -139,6 +247,7 @@ public class ClearupCache extends CacheDecorator {
         if (clearWhenStale()) {
             return new SucceedFuture<T>(null);
         } else {
+            untrack(key);
             return getCache().asyncRemove(key);
         }
     }
@@ -148,6 +257,7 @@ public class ClearupCache extends CacheDecorator {
         if (clearWhenStale()) {
             return Collections.emptyList();
         } else {
+            untrack(keys);
             return getCache().remove(keys);
         }
     }
@@ -158,6 +268,7 @@ public class ClearupCache extends CacheDecorator {
             List<T> resultList = Collections.emptyList();
             return new SucceedFuture<List<T>>(resultList);
         } else {
+            untrack(keys);
             return getCache().asyncRemove(keys);
         }
     }
@@ -165,12 +276,14 @@ public class ClearupCache extends CacheDecorator {
     @Override
     public boolean clear() {
         _lastClearTime = System.currentTimeMillis();
+        untrackAll();
         return getCache().clear();
     }
     
     @Override
     public Future<Boolean> asyncClear() {
         _lastClearTime = System.currentTimeMillis();
+        untrackAll();
         return getCache().asyncClear();
     }
     
@@ -206,6 +319,10 @@ public class ClearupCache extends CacheDecorator {
     
     // ---- private methods
     private boolean clearWhenStale() {
+        if (_incremental) {
+            return false; // stale keys are removed by the sweeper.
+        }
+        
         long idleTime = System.currentTimeMillis() - _lastClearTime;
         if (idleTime > _clearInterval) {
             clear();
@@ -215,4 +332,107 @@ public class ClearupCache extends CacheDecorator {
         }
     }
     
+    // queues a key once, a tracked key only updates its write time.
+    private void track(String key) {
+        if (!_incremental || key == null) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        Write write = _lastWrites.get(key);
+        if (write != null) {
+            write._time = now;
+            if (_lastWrites.get(key) == write) {
+                return; // re-queued by the sweeper.
+            }
+        }
+        
+        write = new Write(key, now);
+        Write tracked = _lastWrites.putIfAbsent(key, write);
+        if (tracked == null) {
+            _writes.offer(write);
+        } else {
+            tracked._time = now;
+        }
+    }
+    
+    private void untrack(String key) {
+        if (_incremental && key != null) {
+            _lastWrites.remove(key);
+        }
+    }
+    
+    private void untrack(String[] keys) {
+        if (_incremental && keys != null) {
+            for (String key : keys) {
+                untrack(key);
+            }
+        }
+    }
+    
+    private void untrackAll() {
+        if (_incremental) {
+            _writes.clear();
+            _lastWrites.clear();
+        }
+    }
+    
+    // runs in the sweeper thread only
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        long staleTime = now - _clearInterval;
+        long deadline = now + _sweepTimeSlice;
+        
+        List<String> staleKeys = new ArrayList<String>(_sweepBatchSize);
+        Write write;
+        while ((write = _writes.peek()) != null && write._queuedTime <= staleTime) {
+            _writes.poll();
+            if (_lastWrites.get(write._key) != write) {
+                continue; // removed since.
+            }
+            if (write._time > staleTime) {
+                // written again since queued, queues it by its latest write.
+                write._queuedTime = write._time;
+                _writes.offer(write);
+                continue;
+            }
+            if (_lastWrites.remove(write._key, write)) {
+                staleKeys.add(write._key);
+            }
+            if (staleKeys.size() >= _sweepBatchSize) {
+                removeStale(staleKeys);
+                if (System.currentTimeMillis() >= deadline) {
+                    return;
+                }
+            }
+        }
+        removeStale(staleKeys);
+    }
+    
+    private void removeStale(List<String> staleKeys) {
+        if (staleKeys.isEmpty()) {
+            return;
+        }
+        getCache().remove(staleKeys.toArray(new String[staleKeys.size()]));
+        _sweptNumber.addAndGet(staleKeys.size());
+        staleKeys.clear();
+    }
+    
+    // ---- inner classes
+    private static final class Write {
+        
+        private final String _key;
+        /** latest write time */
+        private volatile long _time;
+        /** write time the key is queued by, updated by the sweeper only */
+        private volatile long _queuedTime;
+        
+        private Write(String key, long time) {
+            _key = key;
+            _time = time;
+            _queuedTime = time;
+        }
+        
+    }
+    
 }
@@ -0,0 +1,79 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size, lock-free ring of hard references, which keeps recently used
+ * values from being collected.
+ * <p>
+ * Values are replaced CLOCK-style: the hand skips the slots used again since
+ * it last passed them, clearing their reference bits. A value still in its
+ * slot is not pinned again, only its reference bit is set, so reads of hot
+ * values neither allocate nor write the ring.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+final class ClockRing {
+
+    /** pinned values */
+    private final AtomicReferenceArray<Object> _values;
+    /** reference bits of the slots */
+    private final AtomicIntegerArray _referenced;
+    /** clock hand, taken modulo the ring size */
+    private final AtomicInteger _hand = new AtomicInteger();
+    /** ring size minus one */
+    private final int _mask;
+
+    /** max slots skipped to pin a value */
+    private static final int MAX_SCAN = 8;
+
+    public ClockRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be a positive number: " + size);
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        _values = new AtomicReferenceArray<Object>(capacity);
+        _referenced = new AtomicIntegerArray(capacity);
+        _mask = capacity - 1;
+    }
+
+    /**
+     * Pins the value.
+     *
+     * @param value value to pin.
+     * @param slot  slot returned by the last pin of the value, or -1.
+     *
+     * @return slot the value is pinned to.
+     */
+    public int pin(Object value, int slot) {
+        if (slot >= 0 && slot <= _mask && _values.get(slot) == value) {
+            if (_referenced.get(slot) == 0) {
+                _referenced.lazySet(slot, 1);
+            }
+            return slot;
+        }
+
+        int index = _hand.getAndIncrement() & _mask;
+        for (int i = 1; i < MAX_SCAN && _referenced.get(index) != 0; i++) {
+            _referenced.lazySet(index, 0);
+            index = _hand.getAndIncrement() & _mask;
+        }
+        // racing pins may take the same slot, one of the values is not pinned.
+        _referenced.lazySet(index, 0);
+        _values.lazySet(index, value);
+        return index;
+    }
+
+    public void clear() {
+        for (int i = 0; i <= _mask; i++) {
+            _values.set(i, null);
+            _referenced.set(i, 0);
+        }
+    }
+
+}
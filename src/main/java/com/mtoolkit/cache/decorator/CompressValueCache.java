@@ -0,0 +1,369 @@
+package com.mtoolkit.cache.decorator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.serializer.ByteBufferSerializer;
+import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.support.JdkSerializer;
+import com.mtoolkit.util.ConversionUtil;
+import com.mtoolkit.util.GzipUtil;
+
+/**
+ * A decorate cache repository engine that serializes the cache value and
+ * compresses it only if it is larger than a threshold, replacing
+ * {@link GzipValueCache}.
+ * <p>
+ * The stored value starts with a magic number and a format byte, followed by
+ * the raw serialized bytes, or by the original length and the deflated bytes.
+ * Values which do not shrink are stored raw. {@link Mode#FAST} favours speed,
+ * and {@link Mode#GZIP} the ratio of gzip, without its stream framing.
+ * <code>Deflater</code> and <code>Inflater</code> instances are pooled.
+ * Values written by {@link GzipValueCache} are recognized by the gzip magic
+ * number and still readable. Byte arrays without either magic number, such as
+ * values stored without this decorator, and values which are not byte arrays
+ * are returned as they are.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class CompressValueCache extends CacheDecorator {
+
+    /** value serializer */
+    private final Serializer _serializer;
+    /** compression mode */
+    private final Mode _mode;
+    /** min serialized size to compress, in bytes */
+    private final int _threshold;
+    /** idle deflaters of the mode level */
+    private final BlockingQueue<Deflater> _deflaters;
+    /** idle inflaters */
+    private final BlockingQueue<Inflater> _inflaters;
+
+    /** default min serialized size to compress, in bytes */
+    public static final int DEF_THRESHOLD = 1024;
+    /** default max idle deflaters and inflaters */
+    public static final int DEF_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    /** leads the header, 0xFE is never a byte of UTF-8 text */
+    private static final byte[] MAGIC = { (byte) 0xFE, 'C', 'V' };
+    private static final byte RAW = 1;
+    private static final byte DEFLATED = 2;
+    /** magic number and format */
+    private static final int RAW_HEADER_SIZE = 4;
+    /** magic number, format and original length */
+    private static final int DEFLATED_HEADER_SIZE = 8;
+    /** gzip magic number */
+    private static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+
+    // ---- constructors
+    public CompressValueCache(Cache cache) {
+        this(cache, Mode.FAST);
+    }
+
+    public CompressValueCache(Cache cache, Mode mode) {
+        this(cache, mode, DEF_THRESHOLD);
+    }
+
+    public CompressValueCache(Cache cache, Mode mode, int threshold) {
+        this(cache, mode, threshold, new JdkSerializer(), DEF_POOL_SIZE);
+    }
+
+    public CompressValueCache(Cache cache, Mode mode, int threshold, Serializer serializer, int poolSize) {
+        super(cache);
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        if (serializer == null) {
+            throw new NullPointerException("serializer");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be a negative number: " + threshold);
+        }
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be a positive number: " + poolSize);
+        }
+        _mode = mode;
+        _threshold = threshold;
+        _serializer = serializer;
+        _deflaters = new ArrayBlockingQueue<Deflater>(poolSize);
+        _inflaters = new ArrayBlockingQueue<Inflater>(poolSize);
+    }
+
+    // ---- implement methods
+    @Override
+    public boolean put(String key, Object value) {
+        return getCache().put(key, compress(value));
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        return getCache().asyncPut(key, compress(value));
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        return getCache().put(key, compress(value), expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        return getCache().asyncPut(key, compress(value), expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        return getCache().put(key, compress(value), operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        return getCache().asyncPut(key, compress(value), operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return getCache().put(key, compress(value), expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return getCache().asyncPut(key, compress(value), expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        return uncompress(getCache().get(key));
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().get(keys);
+        }
+
+        Map<String, Object> values = getCache().get(keys);
+        if (values == null || values.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, T> resultMap = new HashMap<String, T>(values.size(), 1F);
+        T value = null;
+        for (Entry<String, Object> entry : values.entrySet()) {
+            value = uncompress(entry.getValue());
+            resultMap.put(entry.getKey(), value);
+        }
+
+        return Collections.unmodifiableMap(resultMap);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        Deflater deflater;
+        while ((deflater = _deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = _inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    public Mode getMode() {
+        return _mode;
+    }
+
+    public int getThreshold() {
+        return _threshold;
+    }
+
+    // ---- private methods
+    private byte[] compress(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = _serializer.serialize(value);
+        } catch (IOException e) {
+            throw new DecorateCacheException("Serialize object to byte array exception", e);
+        }
+
+        if (bytes.length >= _threshold && bytes.length > DEFLATED_HEADER_SIZE) {
+            byte[] deflated = deflate(bytes);
+            if (deflated != null) {
+                return deflated;
+            }
+        }
+
+        byte[] rawBytes = new byte[bytes.length + RAW_HEADER_SIZE];
+        writeHeader(rawBytes, RAW);
+        System.arraycopy(bytes, 0, rawBytes, RAW_HEADER_SIZE, bytes.length);
+        return rawBytes;
+    }
+
+    /**
+     * Deflates into a buffer as large as the raw stored value, null if it does not shrink.
+     */
+    private byte[] deflate(byte[] bytes) {
+        Deflater deflater = _deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(_mode._level, true);
+        }
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            byte[] buffer = new byte[bytes.length + RAW_HEADER_SIZE];
+            int length = DEFLATED_HEADER_SIZE;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            writeHeader(buffer, DEFLATED);
+            buffer[4] = (byte) (bytes.length >>> 24);
+            buffer[5] = (byte) (bytes.length >>> 16);
+            buffer[6] = (byte) (bytes.length >>> 8);
+            buffer[7] = (byte) bytes.length;
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.reset();
+            if (!_deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private byte[] inflate(byte[] bytes) throws DataFormatException {
+        int length = ((bytes[4] & 0xff) << 24) | ((bytes[5] & 0xff) << 16)
+            | ((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff);
+
+        Inflater inflater = _inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            inflater.setInput(bytes, DEFLATED_HEADER_SIZE, bytes.length - DEFLATED_HEADER_SIZE);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int inflated = inflater.inflate(result, offset, length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated deflated value.");
+                }
+                offset += inflated;
+            }
+            return result;
+        } finally {
+            inflater.reset();
+            if (!_inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T uncompress(Object value) {
+        if (!(value instanceof byte[])) {
+            return (T) value;
+        }
+
+        byte[] bytes = (byte[]) value;
+        try {
+            switch (formatOf(bytes)) {
+            case RAW:
+                return deserialize(bytes, RAW_HEADER_SIZE, bytes.length - RAW_HEADER_SIZE);
+            case DEFLATED:
+                return _serializer.deserialize(inflate(bytes));
+            default:
+                if (startsWith(bytes, GZIP_MAGIC)) {
+                    return ConversionUtil.bytes2Object(GzipUtil.unGzip(bytes));
+                }
+                return (T) bytes; // stored uncompressed.
+            }
+        } catch (DataFormatException e) {
+            throw new DecorateCacheException("Inflate byte datas exception", e);
+        } catch (IOException e) {
+            throw new DecorateCacheException("Uncompress byte array to object exception", e);
+        } catch (ClassNotFoundException e) {
+            throw new DecorateCacheException("Uncompress not found target object class exception", e);
+        }
+    }
+
+    private <T> T deserialize(byte[] bytes, int offset, int length)
+            throws IOException, ClassNotFoundException {
+        if (_serializer instanceof ByteBufferSerializer) {
+            return ((ByteBufferSerializer) _serializer).deserialize(bytes, offset, length);
+        }
+        return _serializer.deserialize(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    private static void writeHeader(byte[] bytes, byte format) {
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[MAGIC.length] = format;
+    }
+
+    /**
+     * Returns the format of the header, zero if the value has no header.
+     */
+    private static byte formatOf(byte[] bytes) {
+        if (bytes.length < RAW_HEADER_SIZE || !startsWith(bytes, MAGIC)) {
+            return 0;
+        }
+        byte format = bytes[MAGIC.length];
+        if (format == RAW || (format == DEFLATED && bytes.length >= DEFLATED_HEADER_SIZE)) {
+            return format;
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---- inner classes
+    /**
+     * Compression modes.
+     */
+    public enum Mode {
+
+        /** fastest deflate level */
+        FAST(Deflater.BEST_SPEED),
+        /** the default deflate level of gzip */
+        GZIP(Deflater.DEFAULT_COMPRESSION);
+
+        private final int _level;
+
+        private Mode(int level) {
+            _level = level;
+        }
+
+    }
+
+}
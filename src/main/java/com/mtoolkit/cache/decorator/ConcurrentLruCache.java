@@ -0,0 +1,442 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+
+/**
+ * Concurrent LRU (least recently used) cache decorator.
+ * <p>
+ * Keys are spread over lock striped segments, every segment keeps its own
+ * access ordered key map, the segment capacities sum up to the size. Writes
+ * take the lock of their segment only, and hold it while they write the
+ * decorated cache and remove the evicted keys from it, so the writes of a key
+ * reach the decorated cache in the order the key is tracked. Reads never
+ * block: they record the key into a lossy ring buffer of the segment, and the
+ * buffer is drained in batches by whichever thread acquires the segment lock
+ * next.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.LruCache
+ */
+public class ConcurrentLruCache extends CacheDecorator implements Evictable {
+
+    /** max cache key number */
+    private volatile int _size;
+    /** segments of the key space */
+    private final Segment[] _segments;
+    /** mask to select segment by key hash */
+    private final int _segmentMask;
+    /** evicted key number */
+    private final AtomicLong _evictionNumber = new AtomicLong();
+
+    public static final int DEF_SIZE = 1024;
+    public static final int DEF_CONCURRENCY_LEVEL = 16;
+
+    public ConcurrentLruCache(Cache cache) {
+        this(cache, DEF_SIZE);
+    }
+
+    public ConcurrentLruCache(Cache cache, int size) {
+        this(cache, size, DEF_CONCURRENCY_LEVEL);
+    }
+
+    public ConcurrentLruCache(Cache cache, int size, int concurrencyLevel) {
+        super(cache);
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be a positive number: " + size);
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException(
+                "Concurrency level must be a positive number: " + concurrencyLevel);
+        }
+
+        // rounded down, so every segment keeps one key at least.
+        int maxSegments = Math.min(Math.min(concurrencyLevel, size), AccessOrderSegment.MAX_SEGMENTS);
+        int segmentNumber = Integer.highestOneBit(maxSegments);
+
+        _segments = new Segment[segmentNumber];
+        _segmentMask = segmentNumber - 1;
+        for (int i = 0; i < segmentNumber; i++) {
+            _segments[i] = new Segment();
+        }
+        setSize(size);
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    /**
+     * Resets the max key number, the shrunk segments evict their
+     * eldest keys on the next write. A size less than the segment
+     * number leaves the last segments one key.
+     *
+     * @param size max cache key number.
+     */
+    public void setSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be a positive number: " + size);
+        }
+
+        _size = size;
+        int capacity = size / _segments.length;
+        int remainder = size % _segments.length;
+        for (int i = 0; i < _segments.length; i++) {
+            _segments[i]._capacity = Math.max(1, i < remainder ? capacity + 1 : capacity);
+        }
+    }
+
+    /**
+     * Returns the number of keys tracked currently.
+     *
+     * @return tracked key number.
+     */
+    public int getKeyNumber() {
+        int number = 0;
+        for (Segment segment : _segments) {
+            number += segment.size();
+        }
+        return number;
+    }
+
+    @Override
+    public long getEvictionNumber() {
+        return _evictionNumber.get();
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().put(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncPut(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().put(key, value, expiredTime);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncPut(key, value, expiredTime);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().put(key, value, operation);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncPut(key, value, operation);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().put(key, value, expiredTime, operation);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncPut(key, value, expiredTime, operation);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T get(String key) {
+        T value = getCache().get(key);
+        if (value != null) {
+            segmentFor(key).recordRead(key);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        Map<String, T> values = getCache().get(keys);
+        if (values != null) {
+            for (String key : values.keySet()) {
+                segmentFor(key).recordRead(key);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        Segment segment = lockSegment(key);
+        try {
+            segment._keyMap.remove(key);
+            return getCache().remove(key);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        Segment segment = lockSegment(key);
+        try {
+            segment._keyMap.remove(key);
+            return getCache().asyncRemove(key);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        List<Segment> segments = lockSegments(keys);
+        try {
+            forget(keys);
+            return getCache().remove(keys);
+        } finally {
+            unlock(segments);
+        }
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        List<Segment> segments = lockSegments(keys);
+        try {
+            forget(keys);
+            return getCache().asyncRemove(keys);
+        } finally {
+            unlock(segments);
+        }
+    }
+
+    @Override
+    public boolean clear() {
+        List<Segment> segments = lockSegments(null);
+        try {
+            for (Segment segment : segments) {
+                segment.clearKeys();
+            }
+            return super.clear();
+        } finally {
+            unlock(segments);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        List<Segment> segments = lockSegments(null);
+        try {
+            for (Segment segment : segments) {
+                segment.clearKeys();
+            }
+            return super.asyncClear();
+        } finally {
+            unlock(segments);
+        }
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().increase(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncIncrease(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().decrease(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        Segment segment = lockSegment(key);
+        try {
+            removeEvicted(segment.recordWrite(key));
+            return getCache().asyncDecrease(key, value);
+        } finally {
+            segment._lock.unlock();
+        }
+    }
+
+    // ---- private methods
+    private Segment segmentFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        return _segments[AccessOrderSegment.hash(key) & _segmentMask];
+    }
+
+    private Segment lockSegment(String key) {
+        Segment segment = segmentFor(key);
+        segment._lock.lock();
+        return segment;
+    }
+
+    /**
+     * Locks the segments of the keys in segment order, so multi-key writes do
+     * not deadlock, or all segments if the keys are null.
+     */
+    private List<Segment> lockSegments(String[] keys) {
+        boolean[] selected = new boolean[_segments.length];
+        if (keys == null) {
+            Arrays.fill(selected, true);
+        } else {
+            for (String key : keys) {
+                if (key != null) {
+                    selected[AccessOrderSegment.hash(key) & _segmentMask] = true;
+                }
+            }
+        }
+
+        List<Segment> segments = new ArrayList<Segment>();
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                _segments[i]._lock.lock();
+                segments.add(_segments[i]);
+            }
+        }
+        return segments;
+    }
+
+    private void unlock(List<Segment> segments) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            segments.get(i)._lock.unlock();
+        }
+    }
+
+    // must hold the locks of the keys
+    private void forget(String[] keys) {
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            if (key != null) {
+                segmentFor(key)._keyMap.remove(key);
+            }
+        }
+    }
+
+    // must hold the segment lock, evicted keys are removed synchronously so a later write of them lands after.
+    private void removeEvicted(List<String> evictedKeys) {
+        if (evictedKeys == null) {
+            return;
+        }
+
+        _evictionNumber.addAndGet(evictedKeys.size());
+        if (evictedKeys.size() == 1) {
+            getCache().remove(evictedKeys.get(0));
+        } else {
+            getCache().remove(evictedKeys.toArray(new String[evictedKeys.size()]));
+        }
+    }
+
+    // ---- inner classes
+    private static final class Segment extends AccessOrderSegment<Boolean> {
+
+        /** max key number of this segment */
+        private volatile int _capacity;
+
+        // must hold the lock
+        private List<String> recordWrite(String key) {
+            drainReads();
+            _keyMap.put(key, Boolean.TRUE);
+            return evictOverflow();
+        }
+
+        // must hold the lock
+        private List<String> evictOverflow() {
+            int overflow = _keyMap.size() - _capacity;
+            if (overflow <= 0) {
+                return null;
+            }
+
+            List<String> evictedKeys = new ArrayList<String>(overflow);
+            Iterator<String> iterator = _keyMap.keySet().iterator();
+            while (overflow-- > 0 && iterator.hasNext()) {
+                evictedKeys.add(iterator.next());
+                iterator.remove();
+            }
+            return evictedKeys;
+        }
+
+    }
+
+}
@@ -0,0 +1,549 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CacheFutureListener;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.cache.support.AbstractCache.SucceedFuture;
+import com.mtoolkit.thread.DaemonThreadFactory;
+import com.mtoolkit.thread.StripedCounter;
+
+/**
+ * Counter aggregation cache decorator, for hot counters such as views and
+ * likes, which would otherwise cost a round-trip per increase.
+ * <p>
+ * Increases and decreases are added to a {@link StripedCounter} of the key
+ * and return at once. A background flusher sends the local deltas of the
+ * changed keys to the decorated cache every flush interval, or as soon as
+ * the changed keys reach the flush threshold, in batches of async increases.
+ * <code>getNumber</code> returns the last value flushed plus the local
+ * delta, the decorated cache is read again once that value is older than
+ * the base time to live and nothing is in flight, so changes of other
+ * clients are seen. Counters idle for longer than the base time to live are
+ * evicted by the flusher. A delta whose flush times out stays in flight
+ * until the decorated cache answers. Puts and removes of a key drop its
+ * local delta. Counters should be read by <code>getNumber</code>,
+ * <code>get</code> returns the flushed value only. Pending deltas are
+ * flushed by {@link #flush()} and {@link #shutdown()}.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class CounterCache extends CacheDecorator {
+
+    /** local counters by key */
+    private final ConcurrentHashMap<String, Counter> _counters = new ConcurrentHashMap<String, Counter>();
+    /** counters changed since their last flush */
+    private final Queue<Counter> _changedCounters = new ConcurrentLinkedQueue<Counter>();
+    /** changed counter number */
+    private final AtomicInteger _changedNumber = new AtomicInteger();
+    /** whether a threshold flush is scheduled */
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    /** serializes flushes */
+    private final ReentrantLock _flushLock = new ReentrantLock();
+    /** flush interval, in milliseconds */
+    private final long _flushInterval;
+    /** changed keys which trigger a flush */
+    private final int _flushThreshold;
+    /** flusher executor */
+    private ScheduledExecutorService _flusher;
+    /** deltas sent to the decorated cache */
+    private final AtomicLong _flushedNumber = new AtomicLong();
+    /** time to live of the value read from the decorated cache, in milliseconds */
+    private volatile long _baseTtl = DEF_BASE_TTL;
+
+    public static final long DEF_FLUSH_INTERVAL = 1000L;
+    public static final int DEF_FLUSH_THRESHOLD = 1000;
+    /** async increases in flight per batch */
+    public static final int DEF_BATCH_SIZE = 64;
+    public static final long DEF_BASE_TTL = 60 * 1000L;
+
+    /** cells of a key counter, small as there may be many keys */
+    private static final int COUNTER_CELLS = 4;
+    private static final long FLUSH_TIMEOUT = 5000L;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(CounterCache.class);
+
+    // ---- constructors
+    public CounterCache(Cache cache) {
+        this(cache, DEF_FLUSH_INTERVAL, DEF_FLUSH_THRESHOLD);
+    }
+
+    public CounterCache(Cache cache, long flushInterval, int flushThreshold) {
+        super(cache);
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be a positive number: " + flushInterval);
+        }
+        if (flushThreshold <= 0) {
+            throw new IllegalArgumentException("Flush threshold must be a positive number: " + flushThreshold);
+        }
+        _flushInterval = flushInterval;
+        _flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Returns the number of deltas sent to the decorated cache.
+     *
+     * @return flushed delta number.
+     */
+    public long getFlushedNumber() {
+        return _flushedNumber.get();
+    }
+
+    public long getBaseTtl() {
+        return _baseTtl;
+    }
+
+    /**
+     * Sets the time to live of the counter values read from the decorated
+     * cache, and the idle time after which a counter is evicted.
+     *
+     * @param baseTtl base time to live, in milliseconds.
+     */
+    public void setBaseTtl(long baseTtl) {
+        if (baseTtl <= 0) {
+            throw new IllegalArgumentException("Base ttl must be a positive number: " + baseTtl);
+        }
+        _baseTtl = baseTtl;
+    }
+
+    /**
+     * Returns the number of local counters.
+     *
+     * @return counter number.
+     */
+    public int getCounterNumber() {
+        return _counters.size();
+    }
+
+    /**
+     * Sends the local deltas of all changed keys to the decorated cache, in
+     * the caller thread.
+     */
+    public void flush() {
+        _flushLock.lock();
+        try {
+            List<Counter> batch = new ArrayList<Counter>(DEF_BATCH_SIZE);
+            Counter counter;
+            while ((counter = _changedCounters.poll()) != null) {
+                _changedNumber.decrementAndGet();
+                batch.add(counter);
+                if (batch.size() >= DEF_BATCH_SIZE) {
+                    flush(batch);
+                }
+            }
+            flush(batch);
+        } finally {
+            _flushLock.unlock();
+        }
+    }
+
+    // ---- implement methods
+    @Override
+    public Cache startup() {
+        getCache().startup();
+        if (_flusher == null) {
+            _flusher = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("CounterCache-flusher"));
+            _flusher.scheduleWithFixedDelay(new FlushTask(false),
+                _flushInterval, _flushInterval, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public void shutdown() {
+        if (_flusher != null) {
+            _flusher.shutdownNow();
+            _flusher = null;
+        }
+        flush();
+        super.shutdown();
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        drop(key);
+        return super.put(key, value);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        drop(key);
+        return super.asyncPut(key, value);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        drop(key);
+        return super.put(key, value, expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        drop(key);
+        return super.asyncPut(key, value, expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        drop(key);
+        return super.put(key, value, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        drop(key);
+        return super.asyncPut(key, value, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        drop(key);
+        return super.put(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        drop(key);
+        return super.asyncPut(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        drop(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        drop(key);
+        return super.asyncRemove(key);
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        drop(keys);
+        return super.remove(keys);
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        drop(keys);
+        return super.asyncRemove(keys);
+    }
+
+    @Override
+    public boolean clear() {
+        dropAll();
+        return super.clear();
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        dropAll();
+        return super.asyncClear();
+    }
+
+    @Override
+    public long getNumber(String key) {
+        checkStates();
+        return counter(key).value();
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        checkStates();
+        Counter counter = counter(key);
+        counter._delta.add(value);
+        changed(counter);
+        return counter.value();
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        return increaseAsync(key, value);
+    }
+
+    @Override
+    public CacheFuture<Long> increaseAsync(String key, long value) {
+        return new SucceedFuture<Long>(Long.valueOf(increase(key, value)));
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        return increase(key, -value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        return decreaseAsync(key, value);
+    }
+
+    @Override
+    public CacheFuture<Long> decreaseAsync(String key, long value) {
+        return new SucceedFuture<Long>(Long.valueOf(decrease(key, value)));
+    }
+
+    // ---- private methods
+    private Counter counter(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        Counter counter = _counters.get(key);
+        if (counter == null) {
+            Counter newCounter = new Counter(key);
+            counter = _counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        long now = System.currentTimeMillis();
+        counter._accessedAt = now;
+        if (counter.isStale(now, _baseTtl)) {
+            // a flush answered meanwhile is newer than the value read.
+            long flushCount = counter._flushCount;
+            counter.load(getCache().getNumber(key), flushCount, now);
+        }
+        return counter;
+    }
+
+    private void drop(String key) {
+        if (key != null) {
+            Counter counter = _counters.remove(key);
+            if (counter != null) {
+                counter._dropped = true;
+            }
+        }
+    }
+
+    private void dropAll() {
+        for (Counter counter : _counters.values()) {
+            counter._dropped = true;
+        }
+        _counters.clear();
+    }
+
+    /**
+     * Evicts the counters idle for longer than the base time to live, which
+     * have nothing to flush. A counter still updated after its eviction is
+     * flushed all the same.
+     */
+    private void evictIdle() {
+        long idleTime = System.currentTimeMillis() - _baseTtl;
+        for (Counter counter : _counters.values()) {
+            if (counter._accessedAt < idleTime && !counter._changed.get()
+                    && counter._inFlight.get() == 0L && counter._delta.sum() == 0L) {
+                _counters.remove(counter._key, counter);
+            }
+        }
+    }
+
+    private void drop(String[] keys) {
+        if (keys != null) {
+            for (String key : keys) {
+                drop(key);
+            }
+        }
+    }
+
+    private void changed(Counter counter) {
+        if (counter._changed.get() || !counter._changed.compareAndSet(false, true)) {
+            return;
+        }
+        _changedCounters.offer(counter);
+        if (_changedNumber.incrementAndGet() >= _flushThreshold
+                && _flushScheduled.compareAndSet(false, true)) {
+            ScheduledExecutorService flusher = _flusher;
+            if (flusher == null) {
+                _flushScheduled.set(false);
+            } else {
+                flusher.execute(new FlushTask(true));
+            }
+        }
+    }
+
+    // must hold the flush lock
+    private void flush(List<Counter> batch) {
+        List<Long> deltas = new ArrayList<Long>(batch.size());
+        List<CacheFuture<Long>> futures = new ArrayList<CacheFuture<Long>>(batch.size());
+        for (Counter counter : batch) {
+            // updates from now on mark the counter changed again.
+            counter._changed.set(false);
+            long delta = counter._delta.sumThenReset();
+            deltas.add(Long.valueOf(delta));
+            if (delta == 0L || counter._dropped) {
+                // nothing changed, or dropped by a put or remove.
+                futures.add(null);
+                continue;
+            }
+
+            counter._inFlight.addAndGet(delta);
+            try {
+                futures.add(delta > 0L
+                    ? getAsyncCache().increaseAsync(counter._key, delta)
+                    : getAsyncCache().decreaseAsync(counter._key, -delta));
+            } catch (RuntimeException e) {
+                futures.add(null);
+                restore(counter, delta, e);
+            }
+        }
+
+        // the listeners settle the deltas, a delta not answered in time stays in flight.
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+        for (int i = 0; i < batch.size(); i++) {
+            CacheFuture<Long> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            future.addListener(new FlushListener(batch.get(i), deltas.get(i).longValue()));
+            try {
+                future.get(Math.max(deadline - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // restored by the listener.
+            } catch (TimeoutException e) {
+                LOGGER.warn("Flush counter[{0}] delta {1} timeout, kept in flight.",
+                    batch.get(i)._key, deltas.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                deadline = 0L; // only attaches the listeners of the rest.
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Puts the delta of a failed flush back, to be sent by the next flush.
+     */
+    private void restore(Counter counter, long delta, Throwable cause) {
+        LOGGER.warn("Flush counter[{0}] delta {1} exception.", cause, counter._key, delta);
+        counter._inFlight.addAndGet(-delta);
+        counter._delta.add(delta);
+        if (!counter._dropped) {
+            changed(counter);
+        }
+    }
+
+    // ---- inner classes
+    private final class FlushTask implements Runnable {
+
+        /** whether triggered by the threshold */
+        private final boolean _threshold;
+
+        private FlushTask(boolean threshold) {
+            _threshold = threshold;
+        }
+
+        @Override
+        public void run() {
+            if (_threshold) {
+                _flushScheduled.set(false);
+            }
+            try {
+                flush();
+                if (!_threshold) {
+                    evictIdle();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Flush counters exception.", e);
+            }
+        }
+
+    }
+
+    /**
+     * Settles a flushed delta when the decorated cache answers.
+     */
+    private final class FlushListener implements CacheFutureListener<Long> {
+
+        private final Counter _counter;
+        private final long _delta;
+
+        private FlushListener(Counter counter, long delta) {
+            _counter = counter;
+            _delta = delta;
+        }
+
+        @Override
+        public void onSuccess(Long value) {
+            _counter.flushed(value == null ? 0L : value.longValue(), _delta);
+            _flushedNumber.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            restore(_counter, _delta, cause);
+        }
+
+    }
+
+    private static final class Counter {
+
+        private final String _key;
+        /** local delta not flushed yet */
+        private final StripedCounter _delta = new StripedCounter(COUNTER_CELLS);
+        /** delta sent but not acknowledged yet */
+        private final AtomicLong _inFlight = new AtomicLong();
+        /** value of the decorated cache when last read or flushed */
+        private volatile long _flushed;
+        /** whether the value of the decorated cache is known */
+        private volatile boolean _loaded;
+        /** time the value of the decorated cache was last read or flushed */
+        private volatile long _loadedAt;
+        /** answered flushes */
+        private volatile long _flushCount;
+        /** time the counter was last used */
+        private volatile long _accessedAt;
+        /** whether the counter is dropped by a put, remove or clear */
+        private volatile boolean _dropped;
+        /** whether the counter is waiting for a flush */
+        private final AtomicBoolean _changed = new AtomicBoolean();
+
+        private Counter(String key) {
+            _key = key;
+        }
+
+        // a loaded value is only refreshed while nothing is in flight.
+        private boolean isStale(long now, long ttl) {
+            return !_loaded || (now - _loadedAt > ttl && _inFlight.get() == 0L);
+        }
+
+        private synchronized void load(long value, long flushCount, long now) {
+            if (_flushCount == flushCount && (!_loaded || _inFlight.get() == 0L)) {
+                _flushed = value;
+                _loaded = true;
+                _loadedAt = now;
+            }
+        }
+
+        private synchronized void flushed(long value, long delta) {
+            _flushed = value;
+            _loaded = true;
+            _loadedAt = System.currentTimeMillis();
+            _flushCount++;
+            _inFlight.addAndGet(-delta);
+        }
+
+        private long value() {
+            return _flushed + _inFlight.get() + _delta.sum();
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.mtoolkit.cache.decorator;
+
+/**
+ * A size bounded cache decorator which evicts keys by its own policy.
+ * 
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public interface Evictable {
+    
+    /**
+     * Returns the number of keys evicted by the policy since startup.
+     * 
+     * @return evicted key number.
+     */
+    public long getEvictionNumber();
+    
+}
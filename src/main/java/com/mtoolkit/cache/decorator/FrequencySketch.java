@@ -0,0 +1,131 @@
+package com.mtoolkit.cache.decorator;
+
+import com.mtoolkit.hash.Hash;
+
+/**
+ * A count-min sketch which estimates the popularity of keys within a time window.
+ * <p>
+ * Every key owns four 4-bit counters, one per row, packed sixteen counters to a
+ * <code>long</code>, so the sketch needs 8 bytes for every tracked key. When the
+ * number of increments reaches the sample size all counters are halved, so the
+ * estimation ages and follows the recent access pattern.
+ * <p>
+ * This class is not thread safe, callers must guard it by themselves.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+class FrequencySketch {
+
+    /** hash function to digest keys */
+    private final Hash _hash;
+    /** counter table */
+    private final long[] _table;
+    /** mask to select table index */
+    private final int _tableMask;
+    /** increments which trigger aging */
+    private final int _sampleSize;
+    /** increments since last aging */
+    private int _size;
+
+    /** max counter value */
+    public static final int MAX_FREQUENCY = 15;
+
+    private static final long[] SEEDS = new long[] {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK   = 0x1111111111111111L;
+
+    public FrequencySketch(int maximumSize, Hash hash) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be a positive number: " + maximumSize);
+        }
+        if (hash == null) {
+            throw new NullPointerException("hash");
+        }
+
+        int tableSize = 1;
+        while (tableSize < maximumSize && tableSize < (1 << 30)) {
+            tableSize <<= 1;
+        }
+
+        _hash = hash;
+        _table = new long[tableSize];
+        _tableMask = tableSize - 1;
+        _sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the estimated number of occurrences of the key, up to {@link #MAX_FREQUENCY}.
+     *
+     * @param  key cache key.
+     *
+     * @return estimated occurrences.
+     */
+    public int frequency(String key) {
+        int hash = spread(_hash.hash(key));
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((_table[index] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the popularity of the key if it does not exceed the maximum.
+     *
+     * @param key cache key.
+     */
+    public void increment(String key) {
+        int hash = spread(_hash.hash(key));
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++_size == _sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter, the sketch forgets the old history gradually.
+     */
+    public void reset() {
+        int oddCount = 0;
+        for (int i = 0; i < _table.length; i++) {
+            oddCount += Long.bitCount(_table[i] & ONE_MASK);
+            _table[i] = (_table[i] >>> 1) & RESET_MASK;
+        }
+        _size = (_size >>> 1) - (oddCount >>> 2);
+    }
+
+    // ---- private methods
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((_table[index] & mask) != mask) {
+            _table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private int indexOf(int hash, int row) {
+        long value = (hash + SEEDS[row]) * SEEDS[row];
+        value += value >>> 32;
+        return ((int) value) & _tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+}
@@ -19,7 +19,11 @@ import com.mtoolkit.util.GzipUtil;
  * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
  * 
  * @see		com.mtoolkit.util.GzipUtil
+ * 
+ * @deprecated compresses small values too and allocates streams per call,
+ * 			   use {@link CompressValueCache}, which reads the values written by this cache.
  */
+@Deprecated
 public class GzipValueCache extends CacheDecorator {
 
 	public GzipValueCache(Cache cache) {
@@ -8,6 +8,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.Future;
 
 import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
 import com.mtoolkit.cache.CasOperation;
 import com.mtoolkit.hash.Hash;
 import com.mtoolkit.hash.support.GenericHash;
@@ -102,12 +103,7 @@ public class HashKeyCache extends CacheDecorator {
 		String[] hashKeys = keyMap.keySet().toArray(new String[keyMap.size()]);
 		Map<String, T> values = getCache().get(hashKeys);
 
-		Map<String, T> resultMap = new HashMap<String, T>(keys.length, 1F);
-		for (Entry<String, T> entry : values.entrySet()) {
-			resultMap.put(keyMap.get(entry.getKey()), entry.getValue());
-		}
-
-		return Collections.unmodifiableMap(resultMap);
+		return unhashKeys(values, keyMap);
 	}
 
 	@Override
@@ -173,7 +169,61 @@ public class HashKeyCache extends CacheDecorator {
 		return getCache().asyncDecrease(hashCodeKey(key), value);
 	}
 	
+	// ---- async cache methods
+	@Override
+	public <T> CacheFuture<T> getAsync(String key) {
+		return getAsyncCache().getAsync(hashCodeKey(key));
+	}
+	
+	@Override
+	public <T> CacheFuture<Map<String, T>> getAsync(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			return getAsyncCache().getAsync(keys);
+		}
+		
+		final Map<String, String> keyMap = new HashMap<String, String>(keys.length, 1F);
+		for (String key : keys) {
+			if (key != null && !key.isEmpty()) {
+				keyMap.put(hashCodeKey(key), key);
+			}
+		}
+		
+		String[] hashKeys = keyMap.keySet().toArray(new String[keyMap.size()]);
+		return convert(getAsyncCache().<T>getAsync(hashKeys), new ResultConverter<Map<String, T>, Map<String, T>>() {
+			
+			@Override
+			public Map<String, T> convert(Map<String, T> result) {
+				return unhashKeys(result, keyMap);
+			}
+			
+		});
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+		return getAsyncCache().putAsync(hashCodeKey(key), value, expiredTime, operation);
+	}
+	
+	@Override
+	public CacheFuture<Long> increaseAsync(String key, long value) {
+		return getAsyncCache().increaseAsync(hashCodeKey(key), value);
+	}
+	
+	@Override
+	public CacheFuture<Long> decreaseAsync(String key, long value) {
+		return getAsyncCache().decreaseAsync(hashCodeKey(key), value);
+	}
+	
 	// ---- private methods
+	private <T> Map<String, T> unhashKeys(Map<String, T> values, Map<String, String> keyMap) {
+		Map<String, T> resultMap = new HashMap<String, T>(keyMap.size(), 1F);
+		for (Entry<String, T> entry : values.entrySet()) {
+			resultMap.put(keyMap.get(entry.getKey()), entry.getValue());
+		}
+
+		return Collections.unmodifiableMap(resultMap);
+	}
+	
 	private String hashCodeKey(String key) {
 		if (key == null || key.isEmpty()) {
 			return key;
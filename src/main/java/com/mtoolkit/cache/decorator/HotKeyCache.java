@@ -0,0 +1,548 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.thread.DaemonThreadFactory;
+
+/**
+ * Hot key cache decorator, which serves the few most read keys of a remote
+ * cache from a small local tier.
+ * <p>
+ * One of every sample rate reads is counted by a Space-Saving summary, which
+ * monitors a bounded number of keys and replaces the least counted one with a
+ * new key. A background detector promotes the most counted keys whose sampled
+ * reads in the last detect interval reach the hot threshold, demotes the keys
+ * which drop out, then halves the counts so the summary follows recent reads.
+ * Reads of hot keys are served from the local tier for at most the local time
+ * to live, writes through this decorator invalidate the local values, writes
+ * of other clients are seen once the local values expire.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.HotKeyListener
+ */
+public class HotKeyCache extends CacheDecorator {
+
+    /** max hot key number */
+    private final int _topK;
+    /** time to live of the local values, in milliseconds */
+    private final long _localTtl;
+    /** one of every sample rate reads is counted */
+    private volatile int _sampleRate = DEF_SAMPLE_RATE;
+    /** min sampled reads in a detect interval of a hot key */
+    private volatile long _hotThreshold = DEF_HOT_THRESHOLD;
+
+    /** Space-Saving counters by key, guarded by the summary lock */
+    private final Map<String, KeyCounter> _counters;
+    /** max monitored key number */
+    private final int _capacity;
+    /** summary lock, samples are dropped while it is held */
+    private final ReentrantLock _lock = new ReentrantLock();
+    /** current hot keys and their counts, replaced by the detector */
+    private volatile Map<String, Long> _hotKeys = Collections.emptyMap();
+    /** local values of the hot keys */
+    private final ConcurrentHashMap<String, LocalValue> _local = new ConcurrentHashMap<String, LocalValue>();
+    /** hot key listeners */
+    private final List<HotKeyListener> _listeners = new CopyOnWriteArrayList<HotKeyListener>();
+    /** detector executor */
+    private ScheduledExecutorService _detector;
+    /** reads served from the local tier */
+    private final AtomicLong _localHitNumber = new AtomicLong();
+
+    public static final int DEF_TOP_K = 16;
+    public static final long DEF_LOCAL_TTL = 1000L;
+    public static final int DEF_SAMPLE_RATE = 16;
+    public static final long DEF_HOT_THRESHOLD = 8L;
+    public static final long DEF_DETECT_INTERVAL = 1000L;
+
+    /** monitored keys of every hot key */
+    private static final int CAPACITY_FACTOR = 8;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(HotKeyCache.class);
+
+    // ---- constructors
+    public HotKeyCache(Cache cache) {
+        this(cache, DEF_TOP_K, DEF_LOCAL_TTL);
+    }
+
+    public HotKeyCache(Cache cache, int topK, long localTtl) {
+        super(cache);
+        if (topK <= 0) {
+            throw new IllegalArgumentException("Top k must be a positive number: " + topK);
+        }
+        if (localTtl <= 0) {
+            throw new IllegalArgumentException("Local ttl must be a positive number: " + localTtl);
+        }
+
+        _topK = topK;
+        _localTtl = localTtl;
+        _capacity = topK * CAPACITY_FACTOR;
+        _counters = new HashMap<String, KeyCounter>(_capacity * 2);
+    }
+
+    /**
+     * Sets the sample rate, one of every sample rate reads is counted.
+     *
+     * @param sampleRate sample rate, one counts every read.
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be a positive number: " + sampleRate);
+        }
+        _sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the min sampled reads in a detect interval of a hot key.
+     *
+     * @param hotThreshold min sampled reads.
+     */
+    public void setHotThreshold(long hotThreshold) {
+        if (hotThreshold <= 0) {
+            throw new IllegalArgumentException("Hot threshold must be a positive number: " + hotThreshold);
+        }
+        _hotThreshold = hotThreshold;
+    }
+
+    public void addListener(HotKeyListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        _listeners.add(listener);
+    }
+
+    public void removeListener(HotKeyListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Returns the current hot keys, the most read first.
+     *
+     * @return hot keys.
+     */
+    public List<String> getHotKeys() {
+        return new ArrayList<String>(_hotKeys.keySet());
+    }
+
+    /**
+     * Returns the number of reads served from the local tier.
+     *
+     * @return local hit number.
+     */
+    public long getLocalHitNumber() {
+        return _localHitNumber.get();
+    }
+
+    // ---- implement methods
+    @Override
+    public Cache startup() {
+        getCache().startup();
+        if (_detector == null) {
+            _detector = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("HotKeyCache-detector"));
+            _detector.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        detect();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Detect hot cache keys exception.", e);
+                    }
+                }
+
+            }, DEF_DETECT_INTERVAL, DEF_DETECT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public void shutdown() {
+        if (_detector != null) {
+            _detector.shutdownNow();
+            _detector = null;
+        }
+        _hotKeys = Collections.emptyMap();
+        _local.clear();
+        getCache().shutdown();
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        invalidate(key);
+        return getCache().put(key, value);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        invalidate(key);
+        return getCache().asyncPut(key, value);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        invalidate(key);
+        return getCache().put(key, value, expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        invalidate(key);
+        return getCache().asyncPut(key, value, expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        invalidate(key);
+        return getCache().put(key, value, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        invalidate(key);
+        return getCache().asyncPut(key, value, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        invalidate(key);
+        return getCache().put(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        invalidate(key);
+        return getCache().asyncPut(key, value, expiredTime, operation);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        sample(key);
+        if (!_hotKeys.containsKey(key)) {
+            return getCache().get(key);
+        }
+
+        LocalValue localValue = _local.get(key);
+        if (localValue != null && !localValue.isExpired()) {
+            _localHitNumber.incrementAndGet();
+            return (T) localValue._value;
+        }
+
+        T value = getCache().get(key);
+        cacheLocal(key, value);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> get(String[] keys) {
+        Map<String, Long> hotKeys = _hotKeys;
+        Map<String, T> resultMap = null;
+        List<String> remoteKeys = new ArrayList<String>(keys.length);
+        for (String key : keys) {
+            sample(key);
+            LocalValue localValue = hotKeys.containsKey(key) ? _local.get(key) : null;
+            if (localValue != null && !localValue.isExpired()) {
+                if (resultMap == null) {
+                    resultMap = new HashMap<String, T>(keys.length * 2);
+                }
+                resultMap.put(key, (T) localValue._value);
+                _localHitNumber.incrementAndGet();
+            } else {
+                remoteKeys.add(key);
+            }
+        }
+        if (resultMap == null) {
+            resultMap = getCache().get(keys);
+            cacheLocal(hotKeys, resultMap);
+            return resultMap;
+        }
+        if (remoteKeys.isEmpty()) {
+            return resultMap;
+        }
+
+        Map<String, T> remoteMap = getCache().get(remoteKeys.toArray(new String[remoteKeys.size()]));
+        cacheLocal(hotKeys, remoteMap);
+        resultMap.putAll(remoteMap);
+        return resultMap;
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        invalidate(key);
+        return getCache().remove(key);
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        invalidate(key);
+        return getCache().asyncRemove(key);
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        for (String key : keys) {
+            invalidate(key);
+        }
+        return getCache().remove(keys);
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        for (String key : keys) {
+            invalidate(key);
+        }
+        return getCache().asyncRemove(keys);
+    }
+
+    @Override
+    public boolean clear() {
+        _local.clear();
+        return getCache().clear();
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        _local.clear();
+        return getCache().asyncClear();
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        invalidate(key);
+        return getCache().increase(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        invalidate(key);
+        return getCache().asyncIncrease(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        invalidate(key);
+        return getCache().decrease(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        invalidate(key);
+        return getCache().asyncDecrease(key, value);
+    }
+
+    // ---- private methods
+    private void sample(String key) {
+        if (key == null) {
+            return;
+        }
+        int sampleRate = _sampleRate;
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        // a sample is dropped rather than waited for.
+        if (!_lock.tryLock()) {
+            return;
+        }
+        try {
+            KeyCounter counter = _counters.get(key);
+            if (counter != null) {
+                counter._count++;
+                counter._recent++;
+            } else if (_counters.size() < _capacity) {
+                _counters.put(key, new KeyCounter());
+            } else {
+                // Space-Saving: the new key takes over the least counted one.
+                String minKey = null;
+                KeyCounter minCounter = null;
+                for (Map.Entry<String, KeyCounter> entry : _counters.entrySet()) {
+                    if (minCounter == null || entry.getValue()._count < minCounter._count) {
+                        minKey = entry.getKey();
+                        minCounter = entry.getValue();
+                    }
+                }
+                _counters.remove(minKey);
+                minCounter._error = minCounter._count;
+                minCounter._count++;
+                minCounter._recent = 1L;
+                _counters.put(key, minCounter);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private <T> void cacheLocal(String key, T value) {
+        if (value != null) {
+            _local.put(key, new LocalValue(value, System.currentTimeMillis() + _localTtl));
+        }
+    }
+
+    private <T> void cacheLocal(Map<String, Long> hotKeys, Map<String, T> values) {
+        if (hotKeys.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            if (hotKeys.containsKey(entry.getKey())) {
+                cacheLocal(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void invalidate(String key) {
+        if (key != null) {
+            _local.remove(key);
+        }
+    }
+
+    // runs in the detector thread only
+    private void detect() {
+        List<KeyCount> candidates = new ArrayList<KeyCount>();
+        long hotThreshold = _hotThreshold;
+        _lock.lock();
+        try {
+            for (Map.Entry<String, KeyCounter> entry : _counters.entrySet()) {
+                KeyCounter counter = entry.getValue();
+                if (counter._recent >= hotThreshold) {
+                    candidates.add(new KeyCount(entry.getKey(), counter._count - counter._error));
+                }
+                counter._recent = 0L;
+            }
+            age();
+        } finally {
+            _lock.unlock();
+        }
+
+        Collections.sort(candidates, new Comparator<KeyCount>() {
+
+            @Override
+            public int compare(KeyCount k1, KeyCount k2) {
+                long c1 = k1._count;
+                long c2 = k2._count;
+                return c1 < c2 ? 1 : (c1 == c2 ? 0 : -1);
+            }
+
+        });
+
+        long sampleRate = _sampleRate;
+        Map<String, Long> hotKeys = new LinkedHashMap<String, Long>(_topK * 2);
+        for (int i = 0; i < candidates.size() && i < _topK; i++) {
+            hotKeys.put(candidates.get(i)._key, Long.valueOf(candidates.get(i)._count * sampleRate));
+        }
+        Map<String, Long> oldHotKeys = _hotKeys;
+        _hotKeys = Collections.unmodifiableMap(hotKeys);
+
+        for (String key : oldHotKeys.keySet()) {
+            if (!hotKeys.containsKey(key)) {
+                _local.remove(key);
+                fireDemote(key);
+            }
+        }
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            if (!oldHotKeys.containsKey(entry.getKey())) {
+                firePromote(entry.getKey(), entry.getValue().longValue());
+            }
+        }
+        // local values demoted by racing reads.
+        for (Iterator<String> it = _local.keySet().iterator(); it.hasNext();) {
+            if (!hotKeys.containsKey(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    // halves every count, the counts of a detect interval weigh most.
+    private void age() {
+        for (Iterator<KeyCounter> it = _counters.values().iterator(); it.hasNext();) {
+            KeyCounter counter = it.next();
+            counter._count >>>= 1;
+            counter._error >>>= 1;
+            if (counter._count == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private void firePromote(String key, long count) {
+        for (HotKeyListener listener : _listeners) {
+            try {
+                listener.onPromote(key, count);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Hot key listener exception of promoting key: {0}.", e, key);
+            }
+        }
+    }
+
+    private void fireDemote(String key) {
+        for (HotKeyListener listener : _listeners) {
+            try {
+                listener.onDemote(key);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Hot key listener exception of demoting key: {0}.", e, key);
+            }
+        }
+    }
+
+    // ---- inner classes
+    private static final class KeyCounter {
+
+        /** aged sampled reads, may overestimate by the error */
+        private long _count = 1L;
+        /** count inherited from the replaced key */
+        private long _error;
+        /** sampled reads since the last detection */
+        private long _recent = 1L;
+
+    }
+
+    private static final class KeyCount {
+
+        private final String _key;
+        /** aged sampled reads, without the overestimation */
+        private final long _count;
+
+        private KeyCount(String key, long count) {
+            _key = key;
+            _count = count;
+        }
+
+    }
+
+    private static final class LocalValue {
+
+        private final Object _value;
+        /** time the value expires at, in milliseconds */
+        private final long _expireTime;
+
+        private LocalValue(Object value, long expireTime) {
+            _value = value;
+            _expireTime = expireTime;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= _expireTime;
+        }
+
+    }
+
+}
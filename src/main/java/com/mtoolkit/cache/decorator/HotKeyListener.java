@@ -0,0 +1,26 @@
+package com.mtoolkit.cache.decorator;
+
+/**
+ * Receives the hot key changes detected by a {@link HotKeyCache}, invoked by
+ * its detector thread.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public interface HotKeyListener {
+
+    /**
+     * Invoked when a key becomes hot and is served from the local tier.
+     *
+     * @param key   cache key.
+     * @param count estimated recent reads of the key.
+     */
+    public void onPromote(String key, long count);
+
+    /**
+     * Invoked when a key is no longer hot and is removed from the local tier.
+     *
+     * @param key cache key.
+     */
+    public void onDemote(String key);
+
+}
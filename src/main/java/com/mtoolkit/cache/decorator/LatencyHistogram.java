@@ -0,0 +1,184 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.mtoolkit.thread.StripedCounter;
+
+/**
+ * A concurrent log-linear histogram of latencies, in nanoseconds.
+ * <p>
+ * Like an HDR histogram, every power of two range is split into 32 linear
+ * sub-buckets, so recorded values keep about 3% precision from nanoseconds up
+ * to about 18 minutes with a fixed array of counters, larger values are clamped.
+ * Recording is wait-free: one atomic increment of a bucket plus a striped add.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class LatencyHistogram {
+
+    /** bucket counters */
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_NUMBER);
+    /** sum of recorded values */
+    private final StripedCounter _sum = new StripedCounter();
+    /** max recorded value */
+    private final AtomicLong _max = new AtomicLong();
+
+    /** sub-bucket bits of a power of two range */
+    private static final int SUB_BITS = 6;
+    private static final int SUB_HALF = 1 << (SUB_BITS - 1);
+    /** largest recordable value, about 18 minutes */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKET_NUMBER = indexOf(MAX_VALUE) + 1;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0L), MAX_VALUE);
+        _buckets.incrementAndGet(indexOf(value));
+        _sum.add(value);
+
+        long max = _max.get();
+        while (value > max && !_max.compareAndSet(max, value)) {
+            max = _max.get();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the recorded latencies.
+     *
+     * @return latency snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_NUMBER];
+        for (int i = 0; i < BUCKET_NUMBER; i++) {
+            counts[i] = _buckets.get(i);
+        }
+        return new Snapshot(counts, _sum.sum(), _max.get());
+    }
+
+    /**
+     * Clears the recorded latencies, latencies recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_NUMBER; i++) {
+            _buckets.set(i, 0L);
+        }
+        _sum.sumThenReset();
+        _max.set(0L);
+    }
+
+    // ---- private methods
+    private static int indexOf(long value) {
+        if (value < (SUB_HALF << 1)) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return (shift * SUB_HALF) + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < (SUB_HALF << 1)) {
+            return index;
+        }
+        int shift = index / SUB_HALF - 1;
+        long subBucket = index - shift * SUB_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    // ---- inner classes
+    /**
+     * An immutable copy of the histogram counters.
+     */
+    public static final class Snapshot {
+
+        private final long[] _counts;
+        private final long _count;
+        private final long _sum;
+        private final long _max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            long count = 0L;
+            for (long c : counts) {
+                count += c;
+            }
+            _counts = counts;
+            _count = count;
+            _sum = sum;
+            _max = max;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        /**
+         * Returns the max recorded latency.
+         *
+         * @param  unit time unit of the result.
+         *
+         * @return max latency.
+         */
+        public long getMax(TimeUnit unit) {
+            return unit.convert(_max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the mean latency, zero if nothing is recorded.
+         *
+         * @param  unit time unit of the result.
+         *
+         * @return mean latency.
+         */
+        public double getMean(TimeUnit unit) {
+            if (_count == 0) {
+                return 0D;
+            }
+            return (double) _sum / _count / unit.toNanos(1L);
+        }
+
+        /**
+         * Returns the latency at the percentile, as the upper bound of its
+         * bucket, zero if nothing is recorded.
+         *
+         * @param  percentile percentile in [0, 100].
+         * @param  unit       time unit of the result.
+         *
+         * @return latency at the percentile.
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            if (percentile < 0D || percentile > 100D) {
+                throw new IllegalArgumentException("Percentile must be in [0, 100]: " + percentile);
+            }
+            if (_count == 0) {
+                return 0L;
+            }
+
+            long rank = Math.max(1L, (long) Math.ceil(_count * percentile / 100D));
+            long seen = 0L;
+            for (int i = 0; i < _counts.length; i++) {
+                seen += _counts[i];
+                if (seen >= rank) {
+                    return unit.convert(Math.min(highestValueOf(i), _max), TimeUnit.NANOSECONDS);
+                }
+            }
+            return unit.convert(_max, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + _count
+                + ", mean=" + getMean(TimeUnit.MICROSECONDS) + "us"
+                + ", p50=" + getPercentile(50D, TimeUnit.MICROSECONDS) + "us"
+                + ", p99=" + getPercentile(99D, TimeUnit.MICROSECONDS) + "us"
+                + ", p999=" + getPercentile(99.9D, TimeUnit.MICROSECONDS) + "us"
+                + ", max=" + getMax(TimeUnit.MICROSECONDS) + "us";
+        }
+
+    }
+
+}
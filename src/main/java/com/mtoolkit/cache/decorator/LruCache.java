@@ -24,7 +24,7 @@ public class LruCache extends CacheDecorator {
     
     public LruCache(Cache cache, int size) {
     	super(cache);
-    	setSize(DEF_SIZE);
+    	setSize(size);
     }
 
     public int getSize() {
@@ -0,0 +1,338 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CasOperation;
+
+/**
+ * Namespace cache decorator, which clears a namespace of a shared cache by
+ * bumping its generation instead of flushing the whole cache.
+ * <p>
+ * Keys are prefixed with the namespace and its generation number, which is a
+ * number kept in the decorated cache itself. Clearing the namespace increases
+ * the generation, so the keys of the former generations are no longer read and
+ * age out of the cache by themselves. The generation is cached locally for the
+ * generation time to live, a clear by another client is seen once it expires.
+ * A missing generation, such as an evicted one, is seeded with the current
+ * time, so the keys of the former generations are not read again.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class NamespaceCache extends CacheDecorator {
+
+    /** namespace */
+    private final String _namespace;
+    /** cache key of the generation number */
+    private final String _generationKey;
+    /** local time to live of the generation, in milliseconds */
+    private final long _generationTtl;
+    /** locally cached generation */
+    private volatile Generation _generation;
+
+    public static final long DEF_GENERATION_TTL = 1000L;
+
+    /** separates the namespace, the generation and the key */
+    private static final char SEPARATOR = ':';
+
+    // ---- constructors
+    public NamespaceCache(Cache cache, String namespace) {
+        this(cache, namespace, DEF_GENERATION_TTL);
+    }
+
+    public NamespaceCache(Cache cache, String namespace, long generationTtl) {
+        super(cache);
+        if (namespace == null) {
+            throw new NullPointerException("namespace");
+        }
+        if (namespace.isEmpty()) {
+            throw new IllegalArgumentException("Namespace must not be empty.");
+        }
+        if (generationTtl < 0) {
+            throw new IllegalArgumentException("Generation ttl must not be negative: " + generationTtl);
+        }
+
+        _namespace = namespace;
+        _generationKey = namespace + SEPARATOR + "generation";
+        _generationTtl = generationTtl;
+    }
+
+    public String getNamespace() {
+        return _namespace;
+    }
+
+    /**
+     * Returns the current generation of the namespace.
+     *
+     * @return generation number.
+     */
+    public long getGeneration() {
+        Generation generation = _generation;
+        if (generation == null || generation.isExpired()) {
+            generation = cacheGeneration(readGeneration());
+        }
+        return generation._value;
+    }
+
+    // ---- implement methods
+    @Override
+    public boolean containsKey(String key) {
+        return getCache().containsKey(namespaceKey(key));
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        return getCache().put(namespaceKey(key), value);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        return getCache().asyncPut(namespaceKey(key), value);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        return getCache().put(namespaceKey(key), value, expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        return getCache().asyncPut(namespaceKey(key), value, expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        return getCache().put(namespaceKey(key), value, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        return getCache().asyncPut(namespaceKey(key), value, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return getCache().put(namespaceKey(key), value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return getCache().asyncPut(namespaceKey(key), value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        return getCache().get(namespaceKey(key));
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().get(keys);
+        }
+
+        Map<String, String> keyMap = namespaceKeys(keys);
+        Map<String, T> values = getCache().get(keyMap.keySet().toArray(new String[keyMap.size()]));
+        return unnamespaceKeys(values, keyMap);
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        return getCache().remove(namespaceKey(key));
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        return getCache().asyncRemove(namespaceKey(key));
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().remove(keys);
+        }
+        return getCache().remove(namespaceKeyArray(keys));
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().asyncRemove(keys);
+        }
+        return getCache().asyncRemove(namespaceKeyArray(keys));
+    }
+
+    /**
+     * Clears the namespace by bumping its generation, other namespaces of the
+     * decorated cache are kept. A missing generation is seeded first, so the
+     * bumped generation does not restart from one.
+     */
+    @Override
+    public boolean clear() {
+        readGeneration();
+        cacheGeneration(getCache().increase(_generationKey, 1L));
+        return true;
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        readGeneration();
+        return convert(getAsyncCache().increaseAsync(_generationKey, 1L), new ResultConverter<Long, Boolean>() {
+
+            @Override
+            public Boolean convert(Long result) {
+                cacheGeneration(result.longValue());
+                return Boolean.TRUE;
+            }
+
+        });
+    }
+
+    @Override
+    public long getNumber(String key) {
+        return getCache().getNumber(namespaceKey(key));
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        return getCache().increase(namespaceKey(key), value);
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        return getCache().asyncIncrease(namespaceKey(key), value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        return getCache().decrease(namespaceKey(key), value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        return getCache().asyncDecrease(namespaceKey(key), value);
+    }
+
+    // ---- async cache methods
+    @Override
+    public <T> CacheFuture<T> getAsync(String key) {
+        return getAsyncCache().getAsync(namespaceKey(key));
+    }
+
+    @Override
+    public <T> CacheFuture<Map<String, T>> getAsync(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getAsyncCache().getAsync(keys);
+        }
+
+        final Map<String, String> keyMap = namespaceKeys(keys);
+        String[] namespaceKeys = keyMap.keySet().toArray(new String[keyMap.size()]);
+        return convert(getAsyncCache().<T>getAsync(namespaceKeys), new ResultConverter<Map<String, T>, Map<String, T>>() {
+
+            @Override
+            public Map<String, T> convert(Map<String, T> result) {
+                return unnamespaceKeys(result, keyMap);
+            }
+
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return getAsyncCache().putAsync(namespaceKey(key), value, expiredTime, operation);
+    }
+
+    @Override
+    public CacheFuture<Long> increaseAsync(String key, long value) {
+        return getAsyncCache().increaseAsync(namespaceKey(key), value);
+    }
+
+    @Override
+    public CacheFuture<Long> decreaseAsync(String key, long value) {
+        return getAsyncCache().decreaseAsync(namespaceKey(key), value);
+    }
+
+    // ---- private methods
+    // reads the generation from the decorated cache, seeds a missing one.
+    private long readGeneration() {
+        long value = getCache().getNumber(_generationKey);
+        if (value == 0L) {
+            value = getCache().increase(_generationKey, System.currentTimeMillis());
+        }
+        return value;
+    }
+
+    private Generation cacheGeneration(long value) {
+        Generation generation = new Generation(value, System.currentTimeMillis() + _generationTtl);
+        _generation = generation;
+        return generation;
+    }
+
+    private String namespaceKey(String key) {
+        if (key == null || key.isEmpty()) {
+            return key;
+        }
+        return namespaceKey(key, getGeneration());
+    }
+
+    private String namespaceKey(String key, long generation) {
+        return new StringBuilder(_namespace.length() + key.length() + 22)
+            .append(_namespace).append(SEPARATOR)
+            .append(generation).append(SEPARATOR)
+            .append(key).toString();
+    }
+
+    // all keys of a batch share one generation.
+    private Map<String, String> namespaceKeys(String[] keys) {
+        long generation = getGeneration();
+        Map<String, String> keyMap = new HashMap<String, String>(keys.length * 2);
+        for (String key : keys) {
+            if (key != null && !key.isEmpty()) {
+                keyMap.put(namespaceKey(key, generation), key);
+            }
+        }
+        return keyMap;
+    }
+
+    private String[] namespaceKeyArray(String[] keys) {
+        long generation = getGeneration();
+        String[] namespaceKeys = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            namespaceKeys[i] = key == null || key.isEmpty() ? key : namespaceKey(key, generation);
+        }
+        return namespaceKeys;
+    }
+
+    private <T> Map<String, T> unnamespaceKeys(Map<String, T> values, Map<String, String> keyMap) {
+        Map<String, T> resultMap = new HashMap<String, T>(values.size() * 2);
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            resultMap.put(keyMap.get(entry.getKey()), entry.getValue());
+        }
+        return Collections.unmodifiableMap(resultMap);
+    }
+
+    // ---- inner classes
+    private static final class Generation {
+
+        private final long _value;
+        /** time the local generation expires at, in milliseconds */
+        private final long _expireTime;
+
+        private Generation(long value, long expireTime) {
+            _value = value;
+            _expireTime = expireTime;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= _expireTime;
+        }
+
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.mtoolkit.cache.decorator;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -8,13 +11,39 @@ import java.util.Map.Entry;
 import java.util.concurrent.Future;
 
 import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
 import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.serializer.ByteBufferSerializer;
 import com.mtoolkit.serializer.Serializer;
 import com.mtoolkit.serializer.support.JdkSerializer;
 
+/**
+ * Serialize value cache decorator, which stores the values as byte arrays.
+ * <p>
+ * If the serializer is a {@link ByteBufferSerializer}, values are serialized
+ * into a buffer reused by the thread and copied once into an exact-size array.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
 public class SerializeValueCache extends CacheDecorator {
 
 	private Serializer _serializer;
+	/** the serializer if it serializes into byte buffers, otherwise null */
+	private ByteBufferSerializer _bufferSerializer;
+	
+	/** initial size of the serialize buffer, in bytes */
+	public static final int DEF_BUFFER_SIZE = 4 * 1024;
+	/** max size the serialize buffer grows to, in bytes */
+	public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+	
+	private static final ThreadLocal<ByteBuffer> LOCAL_BUFFER = new ThreadLocal<ByteBuffer>() {
+	    
+	    @Override
+	    protected ByteBuffer initialValue() {
+	        return ByteBuffer.allocate(DEF_BUFFER_SIZE);
+	    }
+	    
+	};
 	
     public SerializeValueCache(Cache cache) {
         this(cache, new JdkSerializer());
@@ -26,6 +55,9 @@ public class SerializeValueCache extends CacheDecorator {
     	    throw new NullPointerException("serializer");
     	}
     	_serializer = serializer;
+    	if (serializer instanceof ByteBufferSerializer) {
+    	    _bufferSerializer = (ByteBufferSerializer) serializer;
+    	}
     }
 
 	@Override
@@ -80,18 +112,51 @@ public class SerializeValueCache extends CacheDecorator {
 		}
 
 		Map<String, byte[]> values = getCache().get(keys);
-		if (values == null || values.isEmpty()) {
-			return Collections.emptyMap();
-		}
-
-		final Map<String, T> resultMap = new HashMap<String, T>(values.size(), 1F);
-		T value = null;
-		for (Entry<String, byte[]> entry : values.entrySet()) {
-			value = deserialize((byte[]) entry.getValue());
-			resultMap.put(entry.getKey(), value);
+		return deserialize(values);
+	}
+	
+	// ---- async cache methods, values are converted in the completing thread
+	@Override
+	public <T> CacheFuture<T> getAsync(String key) {
+		return convert(getAsyncCache().<byte[]>getAsync(key), new ResultConverter<byte[], T>() {
+			
+			@Override
+			public T convert(byte[] result) {
+				return deserialize(result);
+			}
+			
+		});
+	}
+	
+	@Override
+	public <T> CacheFuture<Map<String, T>> getAsync(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			return getAsyncCache().getAsync(keys);
 		}
-
-		return Collections.unmodifiableMap(resultMap);
+		
+		return convert(getAsyncCache().<byte[]>getAsync(keys), new ResultConverter<Map<String, byte[]>, Map<String, T>>() {
+			
+			@Override
+			public Map<String, T> convert(Map<String, byte[]> result) {
+				return deserialize(result);
+			}
+			
+		});
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+		return getAsyncCache().putAsync(key, serialize(value), expiredTime, operation);
+	}
+	
+	@Override
+	public CacheFuture<Long> increaseAsync(String key, long value) {
+		return getAsyncCache().increaseAsync(key, value);
+	}
+	
+	@Override
+	public CacheFuture<Long> decreaseAsync(String key, long value) {
+		return getAsyncCache().decreaseAsync(key, value);
 	}
 
     // ---- private methods
@@ -101,12 +166,48 @@ public class SerializeValueCache extends CacheDecorator {
         }
         
     	try {
+    	    if (_bufferSerializer != null) {
+    	        return serialize(_bufferSerializer, target);
+    	    }
 			return _serializer.serialize(target);
 		} catch (IOException e) {
 			throw new DecorateCacheException("Serialize object to byte array exception", e);
 		}
     }
     
+    // a value larger than the buffer is serialized again to an array, the buffer grows for the next one.
+    private static byte[] serialize(ByteBufferSerializer serializer, Object target) throws IOException {
+        ByteBuffer buffer = LOCAL_BUFFER.get();
+        LOCAL_BUFFER.remove(); // a nested serialize gets a new buffer.
+        try {
+            buffer.clear();
+            int length = serializer.serialize(target, buffer);
+            return Arrays.copyOf(buffer.array(), length);
+        } catch (BufferOverflowException e) {
+            if (buffer.capacity() < MAX_BUFFER_SIZE) {
+                buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_BUFFER_SIZE));
+            }
+            return serializer.serialize(target);
+        } finally {
+            LOCAL_BUFFER.set(buffer);
+        }
+    }
+    
+    private <T> Map<String, T> deserialize(Map<String, byte[]> values) {
+		if (values == null || values.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		final Map<String, T> resultMap = new HashMap<String, T>(values.size(), 1F);
+		T value = null;
+		for (Entry<String, byte[]> entry : values.entrySet()) {
+			value = deserialize((byte[]) entry.getValue());
+			resultMap.put(entry.getKey(), value);
+		}
+
+		return Collections.unmodifiableMap(resultMap);
+    }
+    
     private <T> T deserialize(byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
             return null;
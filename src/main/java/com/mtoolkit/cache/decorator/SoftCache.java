@@ -2,29 +2,44 @@ package com.mtoolkit.cache.decorator;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.mlogger.Loggers;
 import com.mtoolkit.cache.Cache;
 import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 /**
  * Soft Reference cache decorator.
+ * <p>
+ * Recently read values are pinned by a {@link ClockRing} of hard references.
+ * Keys of collected values are removed in batches by a background cleaner,
+ * started by {@link #startup()}.
  */
 public class SoftCache extends CacheDecorator {
 
 	private int _hardLinksNumber;
-	private LinkedList<Object> _avoidGcHardLinks;
+	private volatile ClockRing _avoidGcHardLinks;
 	private ReferenceQueue<Object> _gcEntryQueue;
+	/** removes the keys of collected values */
+	private ScheduledExecutorService _cleaner;
 	
 	public static final int DEF_SIZE = 256;
+	public static final long DEF_CLEAN_INTERVAL = 1000L;
+	public static final int DEF_CLEAN_BATCH_SIZE = 128;
+	
+	private static final Loggers LOGGER = Loggers.getLoggers(SoftCache.class);
 	
     public SoftCache(Cache cache) {
         this(cache, DEF_SIZE);
@@ -33,7 +48,7 @@ public class SoftCache extends CacheDecorator {
     public SoftCache(Cache cache, int size) {
     	super(cache);
     	_hardLinksNumber = size;
-    	_avoidGcHardLinks = new LinkedList<Object>();
+    	_avoidGcHardLinks = new ClockRing(size);
     	_gcEntryQueue = new ReferenceQueue<Object>();
     }
     
@@ -42,54 +57,78 @@ public class SoftCache extends CacheDecorator {
     }
     
     public void setSize(int size) {
+    	_avoidGcHardLinks = new ClockRing(size);
     	_hardLinksNumber = size;
     }
 
+    @Override
+    public Cache startup() {
+        getCache().startup();
+        if (_cleaner == null) {
+            _cleaner = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("SoftCache-cleaner"));
+            _cleaner.scheduleWithFixedDelay(new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        gcSoftEntries();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Remove collected cache entries exception.", e);
+                    }
+                }
+                
+            }, DEF_CLEAN_INTERVAL, DEF_CLEAN_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+    
+    @Override
+    public void shutdown() {
+        if (_cleaner != null) {
+            _cleaner.shutdownNow();
+            _cleaner = null;
+        }
+        getCache().shutdown();
+    }
+
     @Override
 	public boolean put(String key, Object value) {
-    	gcSoftEntries(false);
 		return getCache().put(key, new SoftEntry(key, value, _gcEntryQueue));
 	}
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value) {
-    	gcSoftEntries(true);
     	return getCache().asyncPut(key, new SoftEntry(key, value, _gcEntryQueue));
     }
 	
 	@Override
 	public boolean put(String key, Object value, long expiredTime) {
-		gcSoftEntries(false);
 		return getCache().put(key, new SoftEntry(key, value, _gcEntryQueue), expiredTime);
 	}
 	
 	@Override
 	public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
-		gcSoftEntries(true);
 		return getCache().asyncPut(key, new SoftEntry(key, value, _gcEntryQueue), expiredTime);
 	}
 	
 	@Override
 	public boolean put(String key, Object value, CasOperation<Object> operation) {
-		gcSoftEntries(false);
 		return getCache().put(key, new SoftEntry(key, value, _gcEntryQueue), operation);
 	}
 	
 	@Override
 	public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
-		gcSoftEntries(true);
 		return getCache().asyncPut(key, new SoftEntry(key, value, _gcEntryQueue), operation);
 	}
 
 	@Override
 	public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
-		gcSoftEntries(false);
 		return getCache().put(key, new SoftEntry(key, value, _gcEntryQueue), expiredTime, operation);
 	}
 	
 	@Override
 	public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
-		gcSoftEntries(true);
 		return getCache().asyncPut(key, new SoftEntry(key, value, _gcEntryQueue), expiredTime, operation);
 	}
 
@@ -104,10 +143,7 @@ public class SoftCache extends CacheDecorator {
     	if (value == null) {
     	    getCache().asyncRemove(key);
     	} else {
-    	    _avoidGcHardLinks.addFirst(value);
-    	    if (_avoidGcHardLinks.size() > _hardLinksNumber) {
-    	        _avoidGcHardLinks.removeLast();
-    	    }
+    	    pin(softReference, value);
     	}
     	
         return value;
@@ -131,42 +167,40 @@ public class SoftCache extends CacheDecorator {
             if (value == null) {
                 removeKeySet.add(entry.getKey());
             } else {
+                pin(entry.getValue(), value);
                 resultMap.put(entry.getKey(), value);
             }
         }
     	
-        getCache().asyncRemove(removeKeySet.toArray(new String[0]));
+        if (!removeKeySet.isEmpty()) {
+            getCache().asyncRemove(removeKeySet.toArray(new String[0]));
+        }
         
         return resultMap;
     }
 
     @Override
     public <T> T remove(String key) {
-    	gcSoftEntries(false);
     	return getCache().remove(key);
     }
     
     @Override
     public <T> Future<T> asyncRemove(String key) {
-    	gcSoftEntries(true);
     	return getCache().asyncRemove(key);
     }
     
     @Override
     public <T> List<T> remove(String[] keys) {
-        gcSoftEntries(false);
     	return getCache().remove(keys);
     }
     
     @Override
     public <T> Future<List<T>> asyncRemove(String[] keys) {
-        gcSoftEntries(true);
     	return getCache().asyncRemove(keys);
     }
 
     @Override
     public boolean clear() {
-        gcSoftEntries(false);
     	_avoidGcHardLinks.clear();
         
         return super.clear();
@@ -174,7 +208,6 @@ public class SoftCache extends CacheDecorator {
     
     @Override
     public Future<Boolean> asyncClear() {
-        gcSoftEntries(true);
     	_avoidGcHardLinks.clear();
     	
     	return super.asyncClear();
@@ -205,26 +238,57 @@ public class SoftCache extends CacheDecorator {
     }
     
     // ---- private methods
-    private void gcSoftEntries(boolean async) {
+    private void pin(SoftReference<?> softReference, Object value) {
+        if (softReference instanceof SoftEntry) {
+            SoftEntry softEntry = (SoftEntry) softReference;
+            int slot = _avoidGcHardLinks.pin(value, softEntry._slot);
+            if (slot != softEntry._slot) {
+                softEntry._slot = slot;
+            }
+        }
+    }
+    
+    // runs in the cleaner thread only
+    private void gcSoftEntries() {
         SoftEntry gcEntry = null;
-    	List<String> gcKeyList = new LinkedList<String>();
-    	
+        Map<String, SoftEntry> gcEntryMap = new HashMap<String, SoftEntry>();
+        
         while ((gcEntry = (SoftEntry) _gcEntryQueue.poll()) != null) {
-            gcKeyList.add(gcEntry._key);
+            gcEntryMap.put(gcEntry._key, gcEntry);
+            if (gcEntryMap.size() >= DEF_CLEAN_BATCH_SIZE) {
+                removeGcEntries(gcEntryMap);
+            }
+        }
+        removeGcEntries(gcEntryMap);
+    }
+    
+    private void removeGcEntries(Map<String, SoftEntry> gcEntryMap) {
+        if (gcEntryMap.isEmpty()) {
+            return;
         }
         
-        String[] removeKeys = gcKeyList.toArray(new String[0]);
-        if (async) {
-            asyncRemove(removeKeys);
-        } else {
-            remove(removeKeys);
+        // keys written again since are kept.
+        Map<String, Object> currentMap = getCache().get(gcEntryMap.keySet().toArray(new String[0]));
+        List<String> removeKeyList = new ArrayList<String>(gcEntryMap.size());
+        if (currentMap != null) {
+            for (Entry<String, SoftEntry> entry : gcEntryMap.entrySet()) {
+                if (currentMap.get(entry.getKey()) == entry.getValue()) {
+                    removeKeyList.add(entry.getKey());
+                }
+            }
+        }
+        if (!removeKeyList.isEmpty()) {
+            getCache().remove(removeKeyList.toArray(new String[0]));
         }
+        gcEntryMap.clear();
     }
     
     // ---- inner classes
     private static class SoftEntry extends SoftReference<Object> {
         
         private final String _key;
+        /** slot pinning the value, -1 if never pinned */
+        private volatile int _slot = -1;
         
         private SoftEntry(String key, Object value, ReferenceQueue<Object> gcQueue) {
             super(value, gcQueue);
@@ -0,0 +1,608 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CacheFutureListener;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.cache.decorator.CacheStats.Operation;
+import com.mtoolkit.cache.decorator.CacheStats.OperationStats;
+import com.mtoolkit.thread.StripedCounter;
+
+/**
+ * Statistics cache decorator, cheap enough to keep on permanently.
+ * <p>
+ * Records the invocation and error numbers and a latency histogram of every
+ * operation type, and the hits and misses of reads, with striped counters and
+ * wait-free histograms, no locks or logging on the hot path. The latency of an
+ * async operation is recorded when its {@link CacheFuture} completes, or for
+ * other futures when first seen completed, through <code>get</code> or
+ * <code>isDone</code>. Evictions are collected from the
+ * {@link Evictable} decorators wrapped by this decorator, so it should be the
+ * outermost one. {@link #getStats()} returns a snapshot for exporters to poll.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.LoggedCache
+ */
+public class StatsCache extends CacheDecorator {
+
+    /** recorders by operation ordinal */
+    private final Recorder[] _recorders;
+    /** reads which found a value */
+    private final StripedCounter _hitCount = new StripedCounter();
+    /** reads which found no value */
+    private final StripedCounter _missCount = new StripedCounter();
+
+    public StatsCache(Cache cache) {
+        super(cache);
+        Operation[] operations = Operation.values();
+        _recorders = new Recorder[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            _recorders[i] = new Recorder();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the recorded statistics.
+     *
+     * @return statistics snapshot.
+     */
+    public CacheStats getStats() {
+        EnumMap<Operation, OperationStats> operations =
+            new EnumMap<Operation, OperationStats>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            Recorder recorder = _recorders[operation.ordinal()];
+            operations.put(operation, new OperationStats(
+                recorder._count.sum(), recorder._errorCount.sum(), recorder._latency.snapshot()));
+        }
+
+        long evictionCount = 0L;
+        Cache cache = getCache();
+        while (cache != null) {
+            if (cache instanceof Evictable) {
+                evictionCount += ((Evictable) cache).getEvictionNumber();
+            }
+            cache = cache instanceof CacheDecorator ? ((CacheDecorator) cache).getCache() : null;
+        }
+
+        return new CacheStats(getId(), System.currentTimeMillis(),
+            _hitCount.sum(), _missCount.sum(), evictionCount, operations);
+    }
+
+    /**
+     * Clears the recorded statistics, the evictions are kept by their decorators.
+     */
+    public void resetStats() {
+        for (Recorder recorder : _recorders) {
+            recorder._count.sumThenReset();
+            recorder._errorCount.sumThenReset();
+            recorder._latency.reset();
+        }
+        _hitCount.sumThenReset();
+        _missCount.sumThenReset();
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        long start = System.nanoTime();
+        try {
+            return getCache().containsKey(key);
+        } catch (RuntimeException e) {
+            error(Operation.CONTAINS);
+            throw e;
+        } finally {
+            record(Operation.CONTAINS, start);
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        long start = System.nanoTime();
+        try {
+            return getCache().put(key, value);
+        } catch (RuntimeException e) {
+            error(Operation.PUT);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_PUT, start, getCache().asyncPut(key, value));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_PUT);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        long start = System.nanoTime();
+        try {
+            return getCache().put(key, value, expiredTime);
+        } catch (RuntimeException e) {
+            error(Operation.PUT);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_PUT, start, getCache().asyncPut(key, value, expiredTime));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_PUT);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        long start = System.nanoTime();
+        try {
+            return getCache().put(key, value, operation);
+        } catch (RuntimeException e) {
+            error(Operation.PUT);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_PUT, start, getCache().asyncPut(key, value, operation));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_PUT);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        long start = System.nanoTime();
+        try {
+            return getCache().put(key, value, expiredTime, operation);
+        } catch (RuntimeException e) {
+            error(Operation.PUT);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_PUT, start, getCache().asyncPut(key, value, expiredTime, operation));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_PUT);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T get(String key) {
+        long start = System.nanoTime();
+        try {
+            T value = getCache().get(key);
+            if (value != null) {
+                _hitCount.increment();
+            } else {
+                _missCount.increment();
+            }
+            return value;
+        } catch (RuntimeException e) {
+            error(Operation.GET);
+            throw e;
+        } finally {
+            record(Operation.GET, start);
+        }
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        long start = System.nanoTime();
+        try {
+            Map<String, T> values = getCache().get(keys);
+            int hits = values == null ? 0 : values.size();
+            _hitCount.add(hits);
+            _missCount.add(Math.max(keys.length - hits, 0));
+            return values;
+        } catch (RuntimeException e) {
+            error(Operation.MULTI_GET);
+            throw e;
+        } finally {
+            record(Operation.MULTI_GET, start);
+        }
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        long start = System.nanoTime();
+        try {
+            return getCache().remove(key);
+        } catch (RuntimeException e) {
+            error(Operation.REMOVE);
+            throw e;
+        } finally {
+            record(Operation.REMOVE, start);
+        }
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_REMOVE, start, getCache().<T>asyncRemove(key));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_REMOVE);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        long start = System.nanoTime();
+        try {
+            return getCache().remove(keys);
+        } catch (RuntimeException e) {
+            error(Operation.MULTI_REMOVE);
+            throw e;
+        } finally {
+            record(Operation.MULTI_REMOVE, start);
+        }
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_MULTI_REMOVE, start, getCache().<T>asyncRemove(keys));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_MULTI_REMOVE);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean clear() {
+        long start = System.nanoTime();
+        try {
+            return getCache().clear();
+        } catch (RuntimeException e) {
+            error(Operation.CLEAR);
+            throw e;
+        } finally {
+            record(Operation.CLEAR, start);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_CLEAR, start, getCache().asyncClear());
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_CLEAR);
+            throw e;
+        }
+    }
+
+    @Override
+    public long getNumber(String key) {
+        long start = System.nanoTime();
+        try {
+            return getCache().getNumber(key);
+        } catch (RuntimeException e) {
+            error(Operation.GET_NUMBER);
+            throw e;
+        } finally {
+            record(Operation.GET_NUMBER, start);
+        }
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return getCache().increase(key, value);
+        } catch (RuntimeException e) {
+            error(Operation.INCREASE);
+            throw e;
+        } finally {
+            record(Operation.INCREASE, start);
+        }
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_INCREASE, start, getCache().asyncIncrease(key, value));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_INCREASE);
+            throw e;
+        }
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return getCache().decrease(key, value);
+        } catch (RuntimeException e) {
+            error(Operation.DECREASE);
+            throw e;
+        } finally {
+            record(Operation.DECREASE, start);
+        }
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_DECREASE, start, getCache().asyncDecrease(key, value));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_DECREASE);
+            throw e;
+        }
+    }
+
+    // ---- async cache methods
+    @Override
+    public <T> CacheFuture<T> getAsync(String key) {
+        long start = System.nanoTime();
+        try {
+            CacheFuture<T> future = getAsyncCache().getAsync(key);
+            future.addListener(new HitListener<T>(_recorders[Operation.ASYNC_GET.ordinal()], start, 1) {
+
+                @Override
+                protected int hits(T value) {
+                    return value == null ? 0 : 1;
+                }
+
+            });
+            _recorders[Operation.ASYNC_GET.ordinal()]._count.increment();
+            return future;
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_GET);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CacheFuture<Map<String, T>> getAsync(String[] keys) {
+        long start = System.nanoTime();
+        try {
+            CacheFuture<Map<String, T>> future = getAsyncCache().getAsync(keys);
+            future.addListener(new HitListener<Map<String, T>>(_recorders[Operation.ASYNC_MULTI_GET.ordinal()], start, keys.length) {
+
+                @Override
+                protected int hits(Map<String, T> values) {
+                    return values == null ? 0 : values.size();
+                }
+
+            });
+            _recorders[Operation.ASYNC_MULTI_GET.ordinal()]._count.increment();
+            return future;
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_MULTI_GET);
+            throw e;
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_PUT, start, getAsyncCache().putAsync(key, value, expiredTime, operation));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_PUT);
+            throw e;
+        }
+    }
+
+    @Override
+    public CacheFuture<Long> increaseAsync(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_INCREASE, start, getAsyncCache().increaseAsync(key, value));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_INCREASE);
+            throw e;
+        }
+    }
+
+    @Override
+    public CacheFuture<Long> decreaseAsync(String key, long value) {
+        long start = System.nanoTime();
+        try {
+            return timed(Operation.ASYNC_DECREASE, start, getAsyncCache().decreaseAsync(key, value));
+        } catch (RuntimeException e) {
+            error(Operation.ASYNC_DECREASE);
+            throw e;
+        }
+    }
+
+    // ---- private methods
+    private void record(Operation operation, long start) {
+        Recorder recorder = _recorders[operation.ordinal()];
+        recorder._count.increment();
+        recorder._latency.record(System.nanoTime() - start);
+    }
+
+    private void error(Operation operation) {
+        _recorders[operation.ordinal()]._errorCount.increment();
+    }
+
+    private <T> Future<T> timed(Operation operation, long start, Future<T> future) {
+        if (future instanceof CacheFuture) {
+            return timed(operation, start, (CacheFuture<T>) future);
+        }
+        _recorders[operation.ordinal()]._count.increment();
+        if (future == null) {
+            return null;
+        }
+        return new TimedFuture<T>(future, _recorders[operation.ordinal()], start);
+    }
+
+    private <T> CacheFuture<T> timed(Operation operation, long start, CacheFuture<T> future) {
+        Recorder recorder = _recorders[operation.ordinal()];
+        recorder._count.increment();
+        future.addListener(new TimedListener<T>(recorder, start));
+        return future;
+    }
+
+    // ---- inner classes
+    private static final class Recorder {
+
+        private final StripedCounter _count = new StripedCounter();
+        private final StripedCounter _errorCount = new StripedCounter();
+        private final LatencyHistogram _latency = new LatencyHistogram();
+
+    }
+
+    /**
+     * Records the latency of an async operation when it completes.
+     */
+    private static class TimedListener<T> implements CacheFutureListener<T> {
+
+        private final Recorder _recorder;
+        private final long _start;
+
+        private TimedListener(Recorder recorder, long start) {
+            _recorder = recorder;
+            _start = start;
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            _recorder._latency.record(System.nanoTime() - _start);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            _recorder._latency.record(System.nanoTime() - _start);
+            _recorder._errorCount.increment();
+        }
+
+    }
+
+    /**
+     * Records the latency and the hits and misses of an async read.
+     */
+    private abstract class HitListener<T> extends TimedListener<T> {
+
+        /** keys read */
+        private final int _keyNumber;
+
+        private HitListener(Recorder recorder, long start, int keyNumber) {
+            super(recorder, start);
+            _keyNumber = keyNumber;
+        }
+
+        protected abstract int hits(T value);
+
+        @Override
+        public void onSuccess(T value) {
+            super.onSuccess(value);
+            int hits = hits(value);
+            _hitCount.add(hits);
+            _missCount.add(Math.max(_keyNumber - hits, 0));
+        }
+
+    }
+
+    /**
+     * Records the latency of an async operation when it is first seen completed.
+     */
+    private static final class TimedFuture<T> implements Future<T> {
+
+        private final Future<T> _future;
+        private final Recorder _recorder;
+        private final long _start;
+        private final AtomicBoolean _recorded = new AtomicBoolean();
+
+        private TimedFuture(Future<T> future, Recorder recorder, long start) {
+            _future = future;
+            _recorder = recorder;
+            _start = start;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return _future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            boolean done = _future.isDone();
+            if (done) {
+                complete(false);
+            }
+            return done;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            try {
+                T value = _future.get();
+                complete(false);
+                return value;
+            } catch (ExecutionException e) {
+                complete(true);
+                throw e;
+            }
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                T value = _future.get(timeout, unit);
+                complete(false);
+                return value;
+            } catch (ExecutionException e) {
+                complete(true);
+                throw e;
+            }
+        }
+
+        private void complete(boolean failed) {
+            if (_recorded.compareAndSet(false, true)) {
+                _recorder._latency.record(System.nanoTime() - _start);
+                if (failed) {
+                    _recorder._errorCount.increment();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,467 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+
+/**
+ * A read-write lock cache decorator which hashes keys onto lock stripes, so
+ * a write only blocks the readers and writers of its own stripe.
+ * <p>
+ * Gets are optimistic: they read the version of the stripe, which is odd
+ * while a write is in progress, get the value without locking, and retry
+ * under the read lock if the version has changed, like the optimistic reads
+ * of a stamped lock. Multi-key operations lock their stripes in ascending
+ * order to avoid deadlocks, and only startup, shutdown and clear lock all
+ * stripes. Unlike {@link ReadWriteCache}, the decorated cache must allow
+ * concurrent access to different keys.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.ReadWriteCache
+ */
+public class StripedReadWriteCache extends CacheDecorator {
+
+    /** lock stripes */
+    private final Stripe[] _stripes;
+    /** mask to select a stripe by key hash */
+    private final int _stripeMask;
+
+    /** default stripe number */
+    public static final int DEF_STRIPES = 64;
+
+    // ---- constructors
+    public StripedReadWriteCache(Cache cache) {
+        this(cache, DEF_STRIPES);
+    }
+
+    public StripedReadWriteCache(Cache cache, int stripes) {
+        super(cache);
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripes must be a positive number: " + stripes);
+        }
+
+        int stripeNumber = 1;
+        while (stripeNumber < stripes) {
+            stripeNumber <<= 1;
+        }
+        _stripes = new Stripe[stripeNumber];
+        for (int i = 0; i < stripeNumber; i++) {
+            _stripes[i] = new Stripe();
+        }
+        _stripeMask = stripeNumber - 1;
+    }
+
+    // ---- implement methods
+    @Override
+    public Cache startup() {
+        lockAll();
+        try {
+            getCache().startup();
+            return this;
+        } finally {
+            unLockAll();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lockAll();
+        try {
+            getCache().shutdown();
+        } finally {
+            unLockAll();
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        Stripe stripe = stripeOf(key);
+        long version = stripe._version;
+        if ((version & 1L) == 0L) {
+            boolean contained = getCache().containsKey(key);
+            if (stripe._version == version) {
+                return contained;
+            }
+        }
+
+        stripe.readLock().lock();
+        try {
+            return getCache().containsKey(key);
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().put(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncPut(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().put(key, value, expiredTime);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncPut(key, value, expiredTime);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().put(key, value, operation);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncPut(key, value, operation);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().put(key, value, expiredTime, operation);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncPut(key, value, expiredTime, operation);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public <T> T get(String key) {
+        Stripe stripe = stripeOf(key);
+        long version = stripe._version;
+        if ((version & 1L) == 0L) {
+            T value = getCache().get(key);
+            if (stripe._version == version) {
+                return value;
+            }
+        }
+
+        stripe.readLock().lock();
+        try {
+            return getCache().get(key);
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().get(keys);
+        }
+
+        BitSet stripes = stripesOf(keys);
+        long[] versions = new long[_stripes.length];
+        boolean writing = false;
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            versions[i] = _stripes[i]._version;
+            writing |= (versions[i] & 1L) != 0L;
+        }
+        if (!writing) {
+            Map<String, T> values = getCache().get(keys);
+            if (validate(stripes, versions)) {
+                return values;
+            }
+        }
+
+        lockRead(stripes);
+        try {
+            return getCache().get(keys);
+        } finally {
+            unLockRead(stripes);
+        }
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().remove(key);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncRemove(key);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().remove(keys);
+        }
+
+        BitSet stripes = stripesOf(keys);
+        lockWrite(stripes);
+        try {
+            return getCache().remove(keys);
+        } finally {
+            unLockWrite(stripes);
+        }
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            return getCache().asyncRemove(keys);
+        }
+
+        BitSet stripes = stripesOf(keys);
+        lockWrite(stripes);
+        try {
+            return getCache().asyncRemove(keys);
+        } finally {
+            unLockWrite(stripes);
+        }
+    }
+
+    @Override
+    public boolean clear() {
+        lockAll();
+        try {
+            return getCache().clear();
+        } finally {
+            unLockAll();
+        }
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        lockAll();
+        try {
+            return getCache().asyncClear();
+        } finally {
+            unLockAll();
+        }
+    }
+
+    @Override
+    public long getNumber(String key) {
+        Stripe stripe = stripeOf(key);
+        long version = stripe._version;
+        if ((version & 1L) == 0L) {
+            long number = getCache().getNumber(key);
+            if (stripe._version == version) {
+                return number;
+            }
+        }
+
+        stripe.readLock().lock();
+        try {
+            return getCache().getNumber(key);
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().increase(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncIncrease(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().decrease(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        Stripe stripe = lockWrite(key);
+        try {
+            return getCache().asyncDecrease(key, value);
+        } finally {
+            unLockWrite(stripe);
+        }
+    }
+
+    public int getStripes() {
+        return _stripes.length;
+    }
+
+    // ---- private methods
+    private Stripe stripeOf(String key) {
+        return _stripes[indexOf(key)];
+    }
+
+    private int indexOf(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return AccessOrderSegment.hash(key) & _stripeMask;
+    }
+
+    /**
+     * Returns the stripes of the non-null keys, iterated in ascending order.
+     */
+    private BitSet stripesOf(String[] keys) {
+        BitSet stripes = new BitSet(_stripes.length);
+        for (String key : keys) {
+            if (key != null) {
+                stripes.set(indexOf(key));
+            }
+        }
+        return stripes;
+    }
+
+    private boolean validate(BitSet stripes, long[] versions) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            if (_stripes[i]._version != versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Stripe lockWrite(String key) {
+        Stripe stripe = stripeOf(key);
+        stripe.lockWrite();
+        return stripe;
+    }
+
+    private void unLockWrite(Stripe stripe) {
+        stripe.unLockWrite();
+    }
+
+    private void lockRead(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            _stripes[i].readLock().lock();
+        }
+    }
+
+    private void unLockRead(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            _stripes[i].readLock().unlock();
+        }
+    }
+
+    private void lockWrite(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            _stripes[i].lockWrite();
+        }
+    }
+
+    private void unLockWrite(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            _stripes[i].unLockWrite();
+        }
+    }
+
+    private void lockAll() {
+        for (Stripe stripe : _stripes) {
+            stripe.lockWrite();
+        }
+    }
+
+    private void unLockAll() {
+        for (Stripe stripe : _stripes) {
+            stripe.unLockWrite();
+        }
+    }
+
+    // ---- inner classes
+    /**
+     * A lock stripe with a version stamp, which is odd while it is write locked.
+     */
+    @SuppressWarnings("serial")
+    private static final class Stripe extends ReentrantReadWriteLock {
+
+        /** write version, only changed under the write lock */
+        private volatile long _version;
+
+        private void lockWrite() {
+            writeLock().lock();
+            if (getWriteHoldCount() == 1) {
+                _version++;
+            }
+        }
+
+        private void unLockWrite() {
+            if (getWriteHoldCount() == 1) {
+                _version++;
+            }
+            writeLock().unlock();
+        }
+
+    }
+
+}
@@ -0,0 +1,390 @@
+package com.mtoolkit.cache.decorator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.hash.Hash;
+import com.mtoolkit.hash.support.MurmurHash;
+
+/**
+ * W-TinyLFU (window tiny least frequently used) cache decorator.
+ * <p>
+ * New keys enter a small LRU window (1% of the size). Keys leaving the window
+ * compete with the eldest key of the main region for admission: the one with
+ * the higher estimated access frequency stays, the other one is removed from
+ * the decorated cache. The main region is a segmented LRU, keys are promoted
+ * from its probation segment to the protected segment (80% of the main region)
+ * when they are read again. Access frequencies, including the ones of misses,
+ * are kept by a periodically aged count-min sketch, so one-hit-wonder keys can
+ * not push popular keys out of the cache.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.LruCache
+ */
+public class TinyLfuCache extends CacheDecorator implements Evictable {
+
+    /** max cache key number */
+    private final int _size;
+    /** max key number of the window region */
+    private final int _windowSize;
+    /** max key number of the main region */
+    private final int _mainSize;
+    /** max key number of the protected segment */
+    private final int _protectedSize;
+
+    /** window region keys, in LRU order */
+    private final LinkedHashMap<String, Boolean> _window;
+    /** probation segment keys of the main region, in LRU order */
+    private final LinkedHashMap<String, Boolean> _probation;
+    /** protected segment keys of the main region, in LRU order */
+    private final LinkedHashMap<String, Boolean> _protected;
+    /** access frequency sketch */
+    private final FrequencySketch _sketch;
+    /** policy lock, guards regions and sketch */
+    private final ReentrantLock _lock = new ReentrantLock();
+    /** evicted or rejected key number */
+    private final AtomicLong _evictionNumber = new AtomicLong();
+
+    public static final int DEF_SIZE = 1024;
+
+    /** percent of the size used by the window region */
+    private static final int WINDOW_PERCENT = 1;
+    /** percent of the main region used by the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    public TinyLfuCache(Cache cache) {
+        this(cache, DEF_SIZE);
+    }
+
+    public TinyLfuCache(Cache cache, int size) {
+        this(cache, size, MurmurHash.getInstance());
+    }
+
+    public TinyLfuCache(Cache cache, int size, Hash hash) {
+        super(cache);
+        if (size <= 1) {
+            throw new IllegalArgumentException("Size must be greater than one: " + size);
+        }
+
+        _size = size;
+        _windowSize = Math.max(1, size * WINDOW_PERCENT / 100);
+        _mainSize = size - _windowSize;
+        _protectedSize = Math.max(1, _mainSize * PROTECTED_PERCENT / 100);
+
+        _window = new LinkedHashMap<String, Boolean>(16, .75F, true);
+        _probation = new LinkedHashMap<String, Boolean>(16, .75F, true);
+        _protected = new LinkedHashMap<String, Boolean>(16, .75F, true);
+        _sketch = new FrequencySketch(size, hash);
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    /**
+     * Returns the number of keys tracked currently.
+     *
+     * @return tracked key number.
+     */
+    public int getKeyNumber() {
+        _lock.lock();
+        try {
+            return _window.size() + _probation.size() + _protected.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the estimated access frequency of the key.
+     *
+     * @param  key cache key.
+     *
+     * @return estimated access frequency.
+     */
+    public int getFrequency(String key) {
+        _lock.lock();
+        try {
+            return _sketch.frequency(key);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public long getEvictionNumber() {
+        return _evictionNumber.get();
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        boolean result = getCache().put(key, value);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        Future<Boolean> result = getCache().asyncPut(key, value);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        boolean result = getCache().put(key, value, expiredTime);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        Future<Boolean> result = getCache().asyncPut(key, value, expiredTime);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        boolean result = getCache().put(key, value, operation);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        Future<Boolean> result = getCache().asyncPut(key, value, operation);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        boolean result = getCache().put(key, value, expiredTime, operation);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        Future<Boolean> result = getCache().asyncPut(key, value, expiredTime, operation);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    @Override
+    public <T> T get(String key) {
+        T value = getCache().get(key);
+        onRead(key, value != null);
+        return value;
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        Map<String, T> values = getCache().get(keys);
+        if (keys != null) {
+            for (String key : keys) {
+                if (key != null) {
+                    onRead(key, values != null && values.containsKey(key));
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        forget(key);
+        return getCache().remove(key);
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        forget(key);
+        return getCache().asyncRemove(key);
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        if (keys != null) {
+            for (String key : keys) {
+                forget(key);
+            }
+        }
+        return getCache().remove(keys);
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        if (keys != null) {
+            for (String key : keys) {
+                forget(key);
+            }
+        }
+        return getCache().asyncRemove(keys);
+    }
+
+    @Override
+    public boolean clear() {
+        boolean result = super.clear();
+        forgetAll();
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        Future<Boolean> result = super.asyncClear();
+        forgetAll();
+        return result;
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        long result = getCache().increase(key, value);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        Future<Long> result = getCache().asyncIncrease(key, value);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        long result = getCache().decrease(key, value);
+        removeRejected(onWrite(key), false);
+        return result;
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        Future<Long> result = getCache().asyncDecrease(key, value);
+        removeRejected(onWrite(key), true);
+        return result;
+    }
+
+    // ---- private methods
+    private void onRead(String key, boolean hit) {
+        _lock.lock();
+        try {
+            _sketch.increment(key);
+            if (hit) {
+                onHit(key);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private List<String> onWrite(String key) {
+        _lock.lock();
+        try {
+            _sketch.increment(key);
+            if (onHit(key)) {
+                return null;
+            }
+
+            _window.put(key, Boolean.TRUE);
+            if (_window.size() <= _windowSize) {
+                return null;
+            }
+
+            List<String> rejectedKeys = new ArrayList<String>(1);
+            String candidate = removeEldest(_window);
+            if (_probation.size() + _protected.size() < _mainSize) {
+                _probation.put(candidate, Boolean.TRUE);
+                return null;
+            }
+
+            LinkedHashMap<String, Boolean> victimSegment = _probation.isEmpty() ? _protected : _probation;
+            String victim = victimSegment.keySet().iterator().next();
+            if (_sketch.frequency(candidate) > _sketch.frequency(victim)) {
+                victimSegment.remove(victim);
+                _probation.put(candidate, Boolean.TRUE);
+                rejectedKeys.add(victim);
+            } else {
+                rejectedKeys.add(candidate);
+            }
+            return rejectedKeys;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    // must hold the lock
+    private boolean onHit(String key) {
+        if (_window.get(key) != null || _protected.get(key) != null) {
+            return true; // access ordered map moved the key to the tail
+        }
+        if (_probation.remove(key) == null) {
+            return false;
+        }
+
+        _protected.put(key, Boolean.TRUE);
+        if (_protected.size() > _protectedSize) {
+            _probation.put(removeEldest(_protected), Boolean.TRUE);
+        }
+        return true;
+    }
+
+    private void forget(String key) {
+        if (key == null) {
+            return;
+        }
+
+        _lock.lock();
+        try {
+            if (_window.remove(key) == null && _probation.remove(key) == null) {
+                _protected.remove(key);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void forgetAll() {
+        _lock.lock();
+        try {
+            _window.clear();
+            _probation.clear();
+            _protected.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void removeRejected(List<String> rejectedKeys, boolean async) {
+        if (rejectedKeys == null) {
+            return;
+        }
+
+        _evictionNumber.addAndGet(rejectedKeys.size());
+        for (String key : rejectedKeys) {
+            if (async) {
+                getCache().asyncRemove(key);
+            } else {
+                getCache().remove(key);
+            }
+        }
+    }
+
+    private static String removeEldest(LinkedHashMap<String, Boolean> segment) {
+        Iterator<String> iterator = segment.keySet().iterator();
+        String eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+}
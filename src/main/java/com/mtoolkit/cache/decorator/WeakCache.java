@@ -2,29 +2,44 @@ package com.mtoolkit.cache.decorator;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.mlogger.Loggers;
 import com.mtoolkit.cache.Cache;
 import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 /**
  * Weak reference cache decorator.
+ * <p>
+ * Recently read values are pinned by a {@link ClockRing} of hard references.
+ * Keys of collected values are removed in batches by a background cleaner,
+ * started by {@link #startup()}.
  */
 public class WeakCache extends CacheDecorator {
 
     private int _hardLinksNumber;
-    private LinkedList<Object> _avoidGcHardLinks;
+    private volatile ClockRing _avoidGcHardLinks;
     private ReferenceQueue<Object> _gcEntryQueue;
+    /** removes the keys of collected values */
+    private ScheduledExecutorService _cleaner;
     
     public static final int DEF_SIZE = 256;
+    public static final long DEF_CLEAN_INTERVAL = 1000L;
+    public static final int DEF_CLEAN_BATCH_SIZE = 128;
+    
+    private static final Loggers LOGGER = Loggers.getLoggers(WeakCache.class);
     
     public WeakCache(Cache cache) {
         this(cache, DEF_SIZE);
@@ -33,7 +48,7 @@ public class WeakCache extends CacheDecorator {
     public WeakCache(Cache cache, int size) {
         super(cache);
         _hardLinksNumber = size;
-        _avoidGcHardLinks = new LinkedList<Object>();
+        _avoidGcHardLinks = new ClockRing(size);
         _gcEntryQueue = new ReferenceQueue<Object>();
     }
     
@@ -42,54 +57,78 @@ public class WeakCache extends CacheDecorator {
     }
     
     public void setSize(int size) {
+        _avoidGcHardLinks = new ClockRing(size);
         _hardLinksNumber = size;
     }
 
+    @Override
+    public Cache startup() {
+        getCache().startup();
+        if (_cleaner == null) {
+            _cleaner = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("WeakCache-cleaner"));
+            _cleaner.scheduleWithFixedDelay(new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        gcWeakEntries();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Remove collected cache entries exception.", e);
+                    }
+                }
+                
+            }, DEF_CLEAN_INTERVAL, DEF_CLEAN_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+    
+    @Override
+    public void shutdown() {
+        if (_cleaner != null) {
+            _cleaner.shutdownNow();
+            _cleaner = null;
+        }
+        getCache().shutdown();
+    }
+
     @Override
     public boolean put(String key, Object value) {
-        gcWeakEntries(false);
         return getCache().put(key, new WeakEntry(key, value, _gcEntryQueue));
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value) {
-        gcWeakEntries(true);
         return getCache().asyncPut(key, new WeakEntry(key, value, _gcEntryQueue));
     }
     
     @Override
     public boolean put(String key, Object value, long expiredTime) {
-        gcWeakEntries(false);
         return getCache().put(key, new WeakEntry(key, value, _gcEntryQueue), expiredTime);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
-        gcWeakEntries(true);
         return getCache().asyncPut(key, new WeakEntry(key, value, _gcEntryQueue), expiredTime);
     }
     
     @Override
     public boolean put(String key, Object value, CasOperation<Object> operation) {
-        gcWeakEntries(false);
         return getCache().put(key, new WeakEntry(key, value, _gcEntryQueue), operation);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
-        gcWeakEntries(true);
         return getCache().asyncPut(key, new WeakEntry(key, value, _gcEntryQueue), operation);
     }
 
     @Override
     public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
-        gcWeakEntries(false);
         return getCache().put(key, new WeakEntry(key, value, _gcEntryQueue), expiredTime, operation);
     }
     
     @Override
     public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
-        gcWeakEntries(true);
         return getCache().asyncPut(key, new WeakEntry(key, value, _gcEntryQueue), expiredTime, operation);
     }
 
@@ -104,10 +143,7 @@ public class WeakCache extends CacheDecorator {
         if (value == null) {
             getCache().asyncRemove(key);
         } else {
-            _avoidGcHardLinks.addFirst(value);
-            if (_avoidGcHardLinks.size() > _hardLinksNumber) {
-                _avoidGcHardLinks.removeLast();
-            }
+            pin(waekReference, value);
         }
         
         return value;
@@ -131,42 +167,40 @@ public class WeakCache extends CacheDecorator {
             if (value == null) {
                 removeKeySet.add(entry.getKey());
             } else {
+                pin(entry.getValue(), value);
                 resultMap.put(entry.getKey(), value);
             }
         }
         
-        getCache().asyncRemove(removeKeySet.toArray(new String[0]));
+        if (!removeKeySet.isEmpty()) {
+            getCache().asyncRemove(removeKeySet.toArray(new String[0]));
+        }
         
         return resultMap;
     }
 
     @Override
     public <T> T remove(String key) {
-        gcWeakEntries(false);
         return getCache().remove(key);
     }
     
     @Override
     public <T> Future<T> asyncRemove(String key) {
-        gcWeakEntries(true);
         return getCache().asyncRemove(key);
     }
     
     @Override
     public <T> List<T> remove(String[] keys) {
-        gcWeakEntries(false);
         return getCache().remove(keys);
     }
     
     @Override
     public <T> Future<List<T>> asyncRemove(String[] keys) {
-        gcWeakEntries(true);
         return getCache().asyncRemove(keys);
     }
 
     @Override
     public boolean clear() {
-        gcWeakEntries(false);
         _avoidGcHardLinks.clear();
         
         return super.clear();
@@ -174,7 +208,6 @@ public class WeakCache extends CacheDecorator {
     
     @Override
     public Future<Boolean> asyncClear() {
-        gcWeakEntries(true);
         _avoidGcHardLinks.clear();
         
         return super.asyncClear();
@@ -205,26 +238,57 @@ public class WeakCache extends CacheDecorator {
     }
     
     // ---- private methods
-    private void gcWeakEntries(boolean async) {
+    private void pin(WeakReference<?> weakReference, Object value) {
+        if (weakReference instanceof WeakEntry) {
+            WeakEntry weakEntry = (WeakEntry) weakReference;
+            int slot = _avoidGcHardLinks.pin(value, weakEntry._slot);
+            if (slot != weakEntry._slot) {
+                weakEntry._slot = slot;
+            }
+        }
+    }
+    
+    // runs in the cleaner thread only
+    private void gcWeakEntries() {
         WeakEntry gcEntry = null;
-        List<String> gcKeyList = new LinkedList<String>();
+        Map<String, WeakEntry> gcEntryMap = new HashMap<String, WeakEntry>();
         
         while ((gcEntry = (WeakEntry) _gcEntryQueue.poll()) != null) {
-            gcKeyList.add(gcEntry._key);
+            gcEntryMap.put(gcEntry._key, gcEntry);
+            if (gcEntryMap.size() >= DEF_CLEAN_BATCH_SIZE) {
+                removeGcEntries(gcEntryMap);
+            }
+        }
+        removeGcEntries(gcEntryMap);
+    }
+    
+    private void removeGcEntries(Map<String, WeakEntry> gcEntryMap) {
+        if (gcEntryMap.isEmpty()) {
+            return;
         }
         
-        String[] removeKeys = gcKeyList.toArray(new String[0]);
-        if (async) {
-            asyncRemove(removeKeys);
-        } else {
-            remove(removeKeys);
+        // keys written again since are kept.
+        Map<String, Object> currentMap = getCache().get(gcEntryMap.keySet().toArray(new String[0]));
+        List<String> removeKeyList = new ArrayList<String>(gcEntryMap.size());
+        if (currentMap != null) {
+            for (Entry<String, WeakEntry> entry : gcEntryMap.entrySet()) {
+                if (currentMap.get(entry.getKey()) == entry.getValue()) {
+                    removeKeyList.add(entry.getKey());
+                }
+            }
         }
+        if (!removeKeyList.isEmpty()) {
+            getCache().remove(removeKeyList.toArray(new String[0]));
+        }
+        gcEntryMap.clear();
     }
     
     // ---- inner classes
     private static class WeakEntry extends WeakReference<Object> {
         
         private final String _key;
+        /** slot pinning the value, -1 if never pinned */
+        private volatile int _slot = -1;
         
         private WeakEntry(String key, Object value, ReferenceQueue<Object> gcQueue) {
             super(value, gcQueue);
@@ -232,5 +296,5 @@ public class WeakCache extends CacheDecorator {
         }
        
     }
-    
+
 }
@@ -0,0 +1,20 @@
+package com.mtoolkit.cache.decorator;
+
+/**
+ * Calculates the weight of cache values, used by {@link WeightedCache}.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public interface Weigher {
+
+    /**
+     * Returns the weight of the cache value, such as its estimated bytes.
+     *
+     * @param  key   cache key.
+     * @param  value cache value, not null.
+     *
+     * @return positive weight.
+     */
+    public int weigh(String key, Object value);
+
+}
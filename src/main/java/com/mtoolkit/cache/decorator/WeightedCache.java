@@ -0,0 +1,519 @@
+package com.mtoolkit.cache.decorator;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.cache.support.AbstractCache.SucceedFuture;
+import com.mtoolkit.util.ConversionUtil;
+
+/**
+ * Weight bounded LRU (least recently used) cache decorator.
+ * <p>
+ * Every written value is weighed by a {@link Weigher}, by default an
+ * estimate of its bytes, and the least recently used keys are evicted to
+ * keep the total weight under the max weight. Like
+ * {@link ConcurrentLruCache}, keys are spread over lock striped segments
+ * and reads are recorded into lossy buffers, the eviction starts from the
+ * segment of the written key and moves on to the next segments while the
+ * cache is still too heavy. A value heavier than the max weight is not put.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.decorator.ConcurrentLruCache
+ */
+public class WeightedCache extends CacheDecorator implements Evictable {
+
+    /** max total weight */
+    private volatile long _maxWeight;
+    /** value weigher */
+    private final Weigher _weigher;
+    /** segments of the key space */
+    private final Segment[] _segments;
+    /** mask to select segment by key hash */
+    private final int _segmentMask;
+    /** total weight of the tracked keys */
+    private final AtomicLong _weightedSize = new AtomicLong();
+    /** evicted key number */
+    private final AtomicLong _evictionNumber = new AtomicLong();
+
+    /** default max weight, 64MB with the default weigher */
+    public static final long DEF_MAX_WEIGHT = 64 * 1024 * 1024L;
+    public static final int DEF_CONCURRENCY_LEVEL = 16;
+
+    // ---- constructors
+    public WeightedCache(Cache cache) {
+        this(cache, DEF_MAX_WEIGHT);
+    }
+
+    public WeightedCache(Cache cache, long maxWeight) {
+        this(cache, maxWeight, new DefaultWeigher());
+    }
+
+    public WeightedCache(Cache cache, long maxWeight, Weigher weigher) {
+        this(cache, maxWeight, weigher, DEF_CONCURRENCY_LEVEL);
+    }
+
+    public WeightedCache(Cache cache, long maxWeight, Weigher weigher, int concurrencyLevel) {
+        super(cache);
+        if (weigher == null) {
+            throw new NullPointerException("weigher");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException(
+                "Concurrency level must be a positive number: " + concurrencyLevel);
+        }
+
+        int segmentNumber = 1;
+        while (segmentNumber < Math.min(concurrencyLevel, AccessOrderSegment.MAX_SEGMENTS)) {
+            segmentNumber <<= 1;
+        }
+
+        _weigher = weigher;
+        _segments = new Segment[segmentNumber];
+        _segmentMask = segmentNumber - 1;
+        for (int i = 0; i < segmentNumber; i++) {
+            _segments[i] = new Segment();
+        }
+        setMaxWeight(maxWeight);
+    }
+
+    public long getMaxWeight() {
+        return _maxWeight;
+    }
+
+    /**
+     * Resets the max total weight, a shrunk cache evicts on the next write.
+     *
+     * @param maxWeight max total weight.
+     */
+    public void setMaxWeight(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Max weight must be a positive number: " + maxWeight);
+        }
+        _maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the total weight of the keys tracked currently.
+     *
+     * @return weighted size.
+     */
+    public long getWeightedSize() {
+        return _weightedSize.get();
+    }
+
+    /**
+     * Returns the number of keys tracked currently.
+     *
+     * @return tracked key number.
+     */
+    public int getKeyNumber() {
+        int number = 0;
+        for (Segment segment : _segments) {
+            number += segment.size();
+        }
+        return number;
+    }
+
+    @Override
+    public long getEvictionNumber() {
+        return _evictionNumber.get();
+    }
+
+    // ---- implement methods
+    @Override
+    public boolean put(String key, Object value) {
+        if (!admit(key, value, false)) {
+            return false;
+        }
+        return getCache().put(key, value);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value) {
+        if (!admit(key, value, true)) {
+            return SucceedFuture.BOOLEAN_FALSE;
+        }
+        return getCache().asyncPut(key, value);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime) {
+        if (!admit(key, value, false)) {
+            return false;
+        }
+        return getCache().put(key, value, expiredTime);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime) {
+        if (!admit(key, value, true)) {
+            return SucceedFuture.BOOLEAN_FALSE;
+        }
+        return getCache().asyncPut(key, value, expiredTime);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        if (!admit(key, value, false)) {
+            return false;
+        }
+        return getCache().put(key, value, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, CasOperation<Object> operation) {
+        if (!admit(key, value, true)) {
+            return SucceedFuture.BOOLEAN_FALSE;
+        }
+        return getCache().asyncPut(key, value, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (!admit(key, value, false)) {
+            return false;
+        }
+        return getCache().put(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (!admit(key, value, true)) {
+            return SucceedFuture.BOOLEAN_FALSE;
+        }
+        return getCache().asyncPut(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        T value = getCache().get(key);
+        if (value != null) {
+            segmentFor(key).recordRead(key);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> Map<String, T> get(String[] keys) {
+        Map<String, T> values = getCache().get(keys);
+        if (values != null) {
+            for (String key : values.keySet()) {
+                segmentFor(key).recordRead(key);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        forget(key);
+        return getCache().remove(key);
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        forget(key);
+        return getCache().asyncRemove(key);
+    }
+
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        forget(keys);
+        return getCache().remove(keys);
+    }
+
+    @Override
+    public <T> Future<List<T>> asyncRemove(String[] keys) {
+        forget(keys);
+        return getCache().asyncRemove(keys);
+    }
+
+    @Override
+    public boolean clear() {
+        boolean result = super.clear();
+        for (Segment segment : _segments) {
+            _weightedSize.addAndGet(-segment.clear());
+        }
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> asyncClear() {
+        Future<Boolean> result = super.asyncClear();
+        for (Segment segment : _segments) {
+            _weightedSize.addAndGet(-segment.clear());
+        }
+        return result;
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        admit(key, Long.valueOf(value), false);
+        return getCache().increase(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        admit(key, Long.valueOf(value), true);
+        return getCache().asyncIncrease(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        admit(key, Long.valueOf(value), false);
+        return getCache().decrease(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        admit(key, Long.valueOf(value), true);
+        return getCache().asyncDecrease(key, value);
+    }
+
+    // ---- private methods
+    private Segment segmentFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return _segments[indexOf(key)];
+    }
+
+    private int indexOf(String key) {
+        return AccessOrderSegment.hash(key) & _segmentMask;
+    }
+
+    /**
+     * Records the weight of the written key and evicts the overweight, returns
+     * false and removes the key if the value is heavier than the max weight.
+     */
+    private boolean admit(String key, Object value, boolean async) {
+        Segment segment = segmentFor(key);
+        if (value == null) {
+            forget(key);
+            return true;
+        }
+
+        int weight = _weigher.weigh(key, value);
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be a positive number: " + weight);
+        }
+        if (weight > _maxWeight) {
+            forget(key);
+            _evictionNumber.incrementAndGet();
+            removeEvicted(Collections.singletonList(key), async);
+            return false;
+        }
+
+        _weightedSize.addAndGet(segment.recordWrite(key, weight));
+        removeEvicted(evict(key), async);
+        return true;
+    }
+
+    /**
+     * Evicts eldest keys from the segment of the written key on, until the
+     * total weight is under the max weight. The written key is kept.
+     */
+    private List<String> evict(String writtenKey) {
+        if (_weightedSize.get() <= _maxWeight) {
+            return null;
+        }
+
+        List<String> evictedKeys = new ArrayList<String>();
+        int start = indexOf(writtenKey);
+        for (int i = 0; i < _segments.length && _weightedSize.get() > _maxWeight; i++) {
+            Segment segment = _segments[(start + i) & _segmentMask];
+            segment.evict(writtenKey, evictedKeys, _weightedSize, _maxWeight);
+        }
+        if (evictedKeys.isEmpty()) {
+            return null;
+        }
+        _evictionNumber.addAndGet(evictedKeys.size());
+        return evictedKeys;
+    }
+
+    private void forget(String key) {
+        _weightedSize.addAndGet(-segmentFor(key).remove(key));
+    }
+
+    private void forget(String[] keys) {
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            if (key != null) {
+                forget(key);
+            }
+        }
+    }
+
+    private void removeEvicted(List<String> evictedKeys, boolean async) {
+        if (evictedKeys == null) {
+            return;
+        }
+
+        if (evictedKeys.size() == 1) {
+            if (async) {
+                getCache().asyncRemove(evictedKeys.get(0));
+            } else {
+                getCache().remove(evictedKeys.get(0));
+            }
+        } else {
+            String[] keys = evictedKeys.toArray(new String[evictedKeys.size()]);
+            if (async) {
+                getCache().asyncRemove(keys);
+            } else {
+                getCache().remove(keys);
+            }
+        }
+    }
+
+    // ---- inner classes
+    /**
+     * Default weigher, estimates the bytes of the key and value on a 64-bit JVM.
+     * Byte arrays, strings, numbers and primitive arrays are estimated from
+     * their length, other serializable values by their serialized size.
+     */
+    public static class DefaultWeigher implements Weigher {
+
+        /** weight of values which can not be estimated */
+        private static final int UNKNOWN_WEIGHT = 1024;
+        /** array header */
+        private static final int ARRAY_OVERHEAD = 16;
+        /** string object and its char array header */
+        private static final int STRING_OVERHEAD = 40;
+        /** small boxed value */
+        private static final int BOX_WEIGHT = 16;
+
+        @Override
+        public int weigh(String key, Object value) {
+            long weight = weighString(key) + weighValue(value);
+            return (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+        protected long weighValue(Object value) {
+            if (value instanceof byte[]) {
+                return ARRAY_OVERHEAD + ((byte[]) value).length;
+            } else if (value instanceof String) {
+                return weighString((String) value);
+            } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+                return BOX_WEIGHT + 8;
+            } else if (value instanceof char[]) {
+                return ARRAY_OVERHEAD + 2L * ((char[]) value).length;
+            } else if (value instanceof int[]) {
+                return ARRAY_OVERHEAD + 4L * ((int[]) value).length;
+            } else if (value instanceof long[]) {
+                return ARRAY_OVERHEAD + 8L * ((long[]) value).length;
+            } else if (value instanceof Serializable) {
+                try {
+                    return ConversionUtil.object2Bytes(value).length;
+                } catch (IOException e) {
+                    return UNKNOWN_WEIGHT;
+                }
+            }
+            return UNKNOWN_WEIGHT;
+        }
+
+        private static long weighString(String value) {
+            return STRING_OVERHEAD + 2L * value.length();
+        }
+
+    }
+
+    /**
+     * A segment of access ordered keys to their weights.
+     */
+    private static final class Segment extends AccessOrderSegment<Integer> {
+
+        /** total weight of this segment, guarded by lock */
+        private long _weight;
+
+        /**
+         * Returns the weight change.
+         */
+        private long recordWrite(String key, int weight) {
+            _lock.lock();
+            try {
+                drainReads();
+                Integer oldWeight = _keyMap.put(key, Integer.valueOf(weight));
+                long delta = oldWeight == null ? weight : weight - oldWeight.intValue();
+                _weight += delta;
+                return delta;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the weight removed.
+         */
+        private long remove(String key) {
+            _lock.lock();
+            try {
+                Integer weight = _keyMap.remove(key);
+                if (weight == null) {
+                    return 0L;
+                }
+                _weight -= weight.intValue();
+                return weight.intValue();
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * Evicts the eldest keys other than the written key while the total
+         * weight is over the max weight.
+         */
+        private void evict(String writtenKey, List<String> evictedKeys, AtomicLong weightedSize, long maxWeight) {
+            _lock.lock();
+            try {
+                drainReads();
+                while (weightedSize.get() > maxWeight && evictEldest(writtenKey, evictedKeys, weightedSize)) {
+                    // evicts next.
+                }
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        // must hold the lock, returns false if there is no key to evict.
+        private boolean evictEldest(String writtenKey, List<String> evictedKeys, AtomicLong weightedSize) {
+            Iterator<Map.Entry<String, Integer>> iterator = _keyMap.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Integer> entry = iterator.next();
+                if (!entry.getKey().equals(writtenKey)) {
+                    iterator.remove();
+                    _weight -= entry.getValue().intValue();
+                    weightedSize.addAndGet(-entry.getValue().intValue());
+                    evictedKeys.add(entry.getKey());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long clear() {
+            _lock.lock();
+            try {
+                clearKeys();
+                long weight = _weight;
+                _weight = 0L;
+                return weight;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+    }
+
+}
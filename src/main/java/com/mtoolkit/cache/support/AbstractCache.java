@@ -1,24 +1,33 @@
 package com.mtoolkit.cache.support;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.AsyncCache;
 import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CacheFutureListener;
 import com.mtoolkit.cache.CasOperation;
 import com.mtoolkit.thread.ThreadPoolManager;
 
-public abstract class AbstractCache implements Cache {
+public abstract class AbstractCache implements AsyncCache {
 
 	/** cache id flag */
 	private final String _id;
@@ -26,13 +35,41 @@ public abstract class AbstractCache implements Cache {
 	private volatile boolean _initialized;
 	/** thread pool manager */
 	private ThreadPoolManager _threadPoolManager;
+	/** fan-out thread pool manager of multi-key operations, apart from the async pool */
+	private ThreadPoolManager _fanOutPoolManager;
 	/** async thread pool size */
     private int _asyncThreadPoolSize = DEF_ASYNC_THREAD_POOL_SIZE;
+    /** write-behind queue of async puts and removes, null if disabled */
+    private volatile WriteBehindQueue _writeBehindQueue;
+    /** max parallel tasks of a multi-get */
+    private volatile int _multiGetParallelism = DEF_MULTI_GET_PARALLELISM;
+    /** deadline of a multi-get, in milliseconds */
+    private volatile long _multiGetTimeout = DEF_MULTI_GET_TIMEOUT;
+    /** snapshot saved on shutdown and loaded on startup, null if disabled */
+    private volatile CacheSnapshot _snapshot;
+    /** snapshot reader number */
+    private int _snapshotReaders = DEF_SNAPSHOT_READERS;
+    /** max time the startup waits for the snapshot, in milliseconds */
+    private long _snapshotLoadBudget = DEF_SNAPSHOT_LOAD_BUDGET;
+    /** whether the snapshot is loading, from the startup until the load completes */
+    private volatile boolean _snapshotLoading;
     
     /** default thread pool size */
     protected static final int DEF_ASYNC_THREAD_POOL_SIZE = 10;
     /** default expired time, in milliseconds */
     private static final long DEF_EXPIRED_TIME = Integer.MAX_VALUE * 1000L;
+    /** default max parallel tasks of a multi-get */
+    public static final int DEF_MULTI_GET_PARALLELISM = 4;
+    /** default deadline of a multi-get, in milliseconds */
+    public static final long DEF_MULTI_GET_TIMEOUT = 1000L;
+    /** default snapshot reader number */
+    public static final int DEF_SNAPSHOT_READERS = 4;
+    /** default max time the startup waits for the snapshot, in milliseconds */
+    public static final long DEF_SNAPSHOT_LOAD_BUDGET = 3000L;
+    /** min key number of a multi-get task */
+    private static final int MIN_MULTI_GET_CHUNK_SIZE = 8;
+    
+    private static final Loggers LOGGER = Loggers.getLoggers(AbstractCache.class);
     
 	public AbstractCache(String id) {
 		_id = id;
@@ -52,9 +89,15 @@ public abstract class AbstractCache implements Cache {
 	@Override
 	public Cache startup() {
 		if (!_initialized) {
+		    _snapshotLoading = _snapshot != null;
 			doInitialize();
 			_threadPoolManager = new ThreadPoolManager(getAsyncThreadPoolSize());
+			_fanOutPoolManager = new ThreadPoolManager(getAsyncThreadPoolSize());
 			_initialized = true;
+			if (_writeBehindQueue != null) {
+			    _writeBehindQueue.start();
+			}
+			loadSnapshot();
 		}
 		
 		return this;
@@ -63,7 +106,25 @@ public abstract class AbstractCache implements Cache {
 	@Override
 	public void shutdown() {
 		if (_initialized) {
+		    // a half loaded cache would overwrite the snapshot with less entries.
+		    boolean snapshotLoading = _snapshotLoading;
+		    if (snapshotLoading) {
+		        _snapshot.cancelLoad();
+		        LOGGER.warn("Cache[{0}] cancelled loading snapshot {1}, the snapshot is not saved.",
+		            _id, _snapshot.getFile());
+		    }
+		    if (_writeBehindQueue != null) {
+		        _writeBehindQueue.stop();
+		    }
+		    if (_snapshot != null && !snapshotLoading) {
+		        try {
+		            saveSnapshot();
+		        } catch (IOException e) {
+		            LOGGER.warn("Cache[{0}] save snapshot exception.", e, _id);
+		        }
+		    }
 			doDestroy();
+			_fanOutPoolManager.destroy();
 			_initialized = false;
 		}
 	}
@@ -130,15 +191,8 @@ public abstract class AbstractCache implements Cache {
 //	}
 	
 	@Override
-	public Future<Boolean> asyncPut(final String key, final Object value, final long expiredTime, final CasOperation<Object> operation) {
-		return getThreadPoolManager().submit(new Callable<Boolean>() {
-
-			@Override
-			public Boolean call() throws Exception {
-				return Boolean.valueOf(put(key, value, expiredTime, operation));
-			}
-			
-		});
+	public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+		return putAsync(key, value, expiredTime, operation);
 		// maybe subclass need re-implement
 	}
 	
@@ -156,20 +210,19 @@ public abstract class AbstractCache implements Cache {
 			return Collections.emptyMap();
 		}
 		
-		T value = null;
-		final Map<String, T> resultMap = new HashMap<String, T>(keys.length, 1F);
-		
+		Set<String> queryKeys = new LinkedHashSet<String>(keys.length * 2);
 		for (String key : keys) {
-			if (key != null && !key.isEmpty()) {
-				value = get(key);
-				if (value != null) {
-					resultMap.put(key, value);
-				}
-			}
+		    if (key != null && !key.isEmpty()) {
+		        queryKeys.add(key);
+		    }
+		}
+		if (queryKeys.isEmpty()) {
+		    return Collections.emptyMap();
 		}
 		
+		Map<String, T> resultMap = getBatch(queryKeys.toArray(new String[queryKeys.size()]));
 		return Collections.unmodifiableMap(resultMap);
-		// maybe subclass need re-implement
+		// subclass could re-implement getBatch
 	}
 
 //	@Override
@@ -179,6 +232,13 @@ public abstract class AbstractCache implements Cache {
 	
 	@Override
 	public <T> Future<T> asyncRemove(final String key) {
+	    WriteBehindQueue writeBehindQueue = _writeBehindQueue;
+	    if (writeBehindQueue != null) {
+	        checkStates();
+	        checkKey(key);
+	        return writeBehindQueue.remove(key);
+	    }
+	    
 		return getThreadPoolManager().submit(new Callable<T>() {
 
 			@Override
@@ -215,6 +275,14 @@ public abstract class AbstractCache implements Cache {
 	@Override
 	public <T> Future<List<T>> asyncRemove(final String[] keys) {
 		checkStates();
+		WriteBehindQueue writeBehindQueue = _writeBehindQueue;
+		if (writeBehindQueue != null) {
+		    if (keys == null) {
+		        throw new NullPointerException("keys");
+		    }
+		    return writeBehindQueue.remove(keys);
+		}
+		
 		return getThreadPoolManager().submit(new Callable<List<T>>() {
 
 			@Override
@@ -265,15 +333,8 @@ public abstract class AbstractCache implements Cache {
 	}
 	
 	@Override
-	public Future<Long> asyncIncrease(final String key, final long value) {
-	    return getThreadPoolManager().submit(new Callable<Long>() {
-
-            @Override
-            public Long call() throws Exception {
-                return increase(key, value);
-            }
-	        
-        });
+	public Future<Long> asyncIncrease(String key, long value) {
+	    return increaseAsync(key, value);
 		// maybe subclass need re-implement
 	}
 	
@@ -290,18 +351,325 @@ public abstract class AbstractCache implements Cache {
 	}
 	
 	@Override
-	public Future<Long> asyncDecrease(final String key, final long value) {
-		return getThreadPoolManager().submit(new Callable<Long>() {
-
-            @Override
-            public Long call() throws Exception {
-                return decrease(key, value);
-            }
-		    
-        });
+	public Future<Long> asyncDecrease(String key, long value) {
+		return decreaseAsync(key, value);
 		// maybe subclass need re-implement
 	}
 	
+	// ---- async cache methods
+	@Override
+	public <T> CacheFuture<T> getAsync(final String key) {
+	    return submitAsync(new Callable<T>() {
+	        
+	        @Override
+	        public T call() throws Exception {
+	            return get(key);
+	        }
+	        
+	    });
+	    // maybe subclass need re-implement
+	}
+	
+	@Override
+	public <T> CacheFuture<Map<String, T>> getAsync(final String[] keys) {
+	    return submitAsync(new Callable<Map<String, T>>() {
+	        
+	        @Override
+	        public Map<String, T> call() throws Exception {
+	            return get(keys);
+	        }
+	        
+	    });
+	    // maybe subclass need re-implement
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime) {
+	    return putAsync(key, value, expiredTime, null);
+	}
+	
+	@Override
+	public CacheFuture<Boolean> putAsync(final String key, final Object value, final long expiredTime, final CasOperation<Object> operation) {
+	    WriteBehindQueue writeBehindQueue = _writeBehindQueue;
+	    if (writeBehindQueue != null && operation == null) {
+	        checkStates();
+	        checkKey(key);
+	        return writeBehindQueue.put(key, value, expiredTime);
+	    }
+	    
+	    return submitAsync(new Callable<Boolean>() {
+	        
+	        @Override
+	        public Boolean call() throws Exception {
+	            return Boolean.valueOf(put(key, value, expiredTime, operation));
+	        }
+	        
+	    });
+	    // maybe subclass need re-implement
+	}
+	
+	@Override
+	public CacheFuture<Long> increaseAsync(final String key, final long value) {
+	    return submitAsync(new Callable<Long>() {
+	        
+	        @Override
+	        public Long call() throws Exception {
+	            return increase(key, value);
+	        }
+	        
+	    });
+	    // maybe subclass need re-implement
+	}
+	
+	@Override
+	public CacheFuture<Long> decreaseAsync(final String key, final long value) {
+	    return submitAsync(new Callable<Long>() {
+	        
+	        @Override
+	        public Long call() throws Exception {
+	            return decrease(key, value);
+	        }
+	        
+	    });
+	    // maybe subclass need re-implement
+	}
+	
+	// ---- multi-get methods
+	public int getMultiGetParallelism() {
+	    return _multiGetParallelism;
+	}
+	
+	/**
+	 * Sets the max parallel tasks a multi-get of the default {@link #getBatch(String[])}
+	 * fans out to, one disables the fan-out.
+	 * 
+	 * @param multiGetParallelism max parallel tasks.
+	 */
+	public void setMultiGetParallelism(int multiGetParallelism) {
+	    if (multiGetParallelism <= 0) {
+	        throw new IllegalArgumentException(
+	            "Multi-get parallelism must be a positive number: " + multiGetParallelism);
+	    }
+	    _multiGetParallelism = multiGetParallelism;
+	}
+	
+	public long getMultiGetTimeout() {
+	    return _multiGetTimeout;
+	}
+	
+	/**
+	 * Sets the deadline of a fanned out multi-get, the values of the keys
+	 * not got before the deadline are missing from the result.
+	 * 
+	 * @param multiGetTimeout multi-get deadline, in milliseconds.
+	 */
+	public void setMultiGetTimeout(long multiGetTimeout) {
+	    if (multiGetTimeout <= 0) {
+	        throw new IllegalArgumentException("Multi-get timeout must be a positive number: " + multiGetTimeout);
+	    }
+	    _multiGetTimeout = multiGetTimeout;
+	}
+	
+	/**
+	 * Gets the values of distinct, non-empty keys, invoked by {@link #get(String[])}.
+	 * The default implementation splits the keys into chunks and gets them in
+	 * parallel on the fan-out thread pool, bounded by the multi-get parallelism,
+	 * and returns the values got before the multi-get deadline. Backends with a
+	 * native bulk get should override it, local backends should override it with
+	 * {@link #getEach(String[])}.
+	 * 
+	 * @param  keys cache keys.
+	 * 
+	 * @return values by key, missing keys are absent.
+	 */
+	protected <T> Map<String, T> getBatch(String[] keys) {
+	    int chunkNumber = Math.min(_multiGetParallelism,
+	        (keys.length + MIN_MULTI_GET_CHUNK_SIZE - 1) / MIN_MULTI_GET_CHUNK_SIZE);
+	    if (chunkNumber <= 1) {
+	        return getEach(keys);
+	    }
+	    
+	    long deadline = System.currentTimeMillis() + _multiGetTimeout;
+	    MultiGetTask<T> task = new MultiGetTask<T>(keys);
+	    int chunkSize = (keys.length + chunkNumber - 1) / chunkNumber;
+	    List<Future<?>> futures = new ArrayList<Future<?>>(chunkNumber);
+	    for (int from = 0; from < keys.length; from += chunkSize) {
+	        futures.add(getFanOutPoolManager().submit(task.chunk(from, Math.min(from + chunkSize, keys.length))));
+	    }
+	    
+	    try {
+	        for (Future<?> future : futures) {
+	            long timeout = deadline - System.currentTimeMillis();
+	            if (timeout <= 0) {
+	                break;
+	            }
+	            future.get(timeout, TimeUnit.MILLISECONDS);
+	        }
+	    } catch (TimeoutException e) {
+	        // returns partial values.
+	    } catch (ExecutionException e) {
+	        // chunk failures are logged by the chunk.
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	    } finally {
+	        task._abandoned = true;
+	    }
+	    
+	    Map<String, T> resultMap = new HashMap<String, T>(task._values);
+	    if (task._gotNumber.get() < keys.length) {
+	        LOGGER.warn("Cache[{0}] multi-get got {1} of {2} keys before deadline.",
+	            _id, task._gotNumber.get(), keys.length);
+	    }
+	    return resultMap;
+	}
+	
+	/**
+	 * Gets the values of keys one by one in the caller thread.
+	 * 
+	 * @param  keys cache keys.
+	 * 
+	 * @return values by key, missing keys are absent.
+	 */
+	protected <T> Map<String, T> getEach(String[] keys) {
+	    Map<String, T> resultMap = new HashMap<String, T>(keys.length * 2);
+	    for (String key : keys) {
+	        T value = get(key);
+	        if (value != null) {
+	            resultMap.put(key, value);
+	        }
+	    }
+	    return resultMap;
+	}
+	
+	// ---- write-behind methods
+	public WriteBehindQueue getWriteBehindQueue() {
+	    return _writeBehindQueue;
+	}
+	
+	/**
+	 * Enables the write-behind queue of async puts and removes, must be
+	 * invoked before the cache startup. Async puts without a CAS operation
+	 * and async removes are queued, coalesced by key and applied in batches
+	 * through {@link #putBatch(Map, long)} and {@link #removeBatch(String[])}.
+	 * Synchronous writes bypass the queue, invoke {@link #flush()} before
+	 * mixing them with queued writes of the same key.
+	 * 
+	 * @param capacity       max pending key number.
+	 * @param batchSize      max write number of a batch.
+	 * @param flushInterval  max time a write waits for its flush, in milliseconds.
+	 * @param overflowPolicy action of writes to new keys when the queue is full.
+	 * 
+	 * @see   com.mtoolkit.cache.support.WriteBehindQueue
+	 */
+	public void setWriteBehind(int capacity, int batchSize, long flushInterval,
+	        WriteBehindQueue.OverflowPolicy overflowPolicy) {
+	    if (_initialized) {
+	        throw new IllegalStateException("Cache[" + _id + "] has initialized.");
+	    }
+	    _writeBehindQueue = new WriteBehindQueue(this, capacity, batchSize, flushInterval, overflowPolicy);
+	}
+	
+	/**
+	 * Applies the pending writes of the write-behind queue, if it is enabled.
+	 */
+	public void flush() {
+	    checkStates();
+	    WriteBehindQueue writeBehindQueue = _writeBehindQueue;
+	    if (writeBehindQueue != null) {
+	        writeBehindQueue.flush();
+	    }
+	}
+	
+	/**
+	 * Puts a batch of values with the same expired time, invoked by the
+	 * write-behind queue. Backends with a native multi-set should override
+	 * it to put the batch in one round-trip.
+	 * 
+	 * @param  values      cache values by key.
+	 * @param  expiredTime expired time, in milliseconds.
+	 * 
+	 * @return put results by key.
+	 */
+	protected Map<String, Boolean> putBatch(Map<String, Object> values, long expiredTime) {
+	    Map<String, Boolean> results = new HashMap<String, Boolean>(values.size() * 2);
+	    for (Map.Entry<String, Object> entry : values.entrySet()) {
+	        results.put(entry.getKey(),
+	            Boolean.valueOf(put(entry.getKey(), entry.getValue(), expiredTime, null)));
+	    }
+	    return results;
+	}
+	
+	/**
+	 * Removes a batch of keys, invoked by the write-behind queue. Backends
+	 * with a native multi-delete should override it.
+	 * 
+	 * @param  keys cache keys.
+	 * 
+	 * @return removed values, in keys order.
+	 */
+	protected <T> List<T> removeBatch(String[] keys) {
+	    List<T> values = new ArrayList<T>(keys.length);
+	    for (String key : keys) {
+	        values.add(this.<T>remove(key));
+	    }
+	    return values;
+	}
+	
+	// ---- snapshot methods
+	public CacheSnapshot getSnapshot() {
+	    return _snapshot;
+	}
+	
+	/**
+	 * Enables the snapshot of a {@link Snapshotable} cache, must be invoked
+	 * before the cache startup. The snapshot is saved on shutdown and loaded
+	 * on startup by parallel readers with the remaining time to live of the
+	 * entries, the startup waits at most the load budget for it, the rest is
+	 * loaded in the background without overwriting newer writes.
+	 * 
+	 * @param file       snapshot file.
+	 * @param readers    snapshot reader number.
+	 * @param loadBudget max time the startup waits for the snapshot, in milliseconds.
+	 * 
+	 * @see   com.mtoolkit.cache.support.CacheSnapshot
+	 */
+	public void setSnapshot(File file, int readers, long loadBudget) {
+	    if (_initialized) {
+	        throw new IllegalStateException("Cache[" + _id + "] has initialized.");
+	    }
+	    if (!(this instanceof Snapshotable)) {
+	        throw new UnsupportedOperationException("Cache[" + _id + "] is not snapshotable.");
+	    }
+	    if (readers <= 0) {
+	        throw new IllegalArgumentException("Reader number must be a positive number: " + readers);
+	    }
+	    if (loadBudget < 0) {
+	        throw new IllegalArgumentException("Load budget must not be negative: " + loadBudget);
+	    }
+	    _snapshot = new CacheSnapshot(file);
+	    _snapshotReaders = readers;
+	    _snapshotLoadBudget = loadBudget;
+	}
+	
+	/**
+	 * Saves the entries to the snapshot file, if the snapshot is enabled.
+	 * 
+	 * @return saved entry number.
+	 * 
+	 * @throws IOException if the snapshot fails to be written.
+	 */
+	public long saveSnapshot() throws IOException {
+	    checkStates();
+	    CacheSnapshot snapshot = _snapshot;
+	    if (snapshot == null) {
+	        return 0L;
+	    }
+	    
+	    long entryNumber = snapshot.write((Snapshotable) this);
+	    LOGGER.info("Cache[{0}] saved {1} entries to snapshot {2}.", _id, entryNumber, snapshot.getFile());
+	    return entryNumber;
+	}
+	
 	// ---- protected methods
 	protected int getAsyncThreadPoolSize() {
         return _asyncThreadPoolSize;
@@ -315,10 +683,74 @@ public abstract class AbstractCache implements Cache {
         _asyncThreadPoolSize = asyncThreadPoolSize;
     }
     
+	/**
+	 * Runs the operation in the async thread pool and completes the returned
+	 * future with its result. Subclasses whose client completes operations
+	 * by callbacks should re-implement the async methods instead.
+	 * 
+	 * @param  operation cache operation.
+	 * 
+	 * @return future of the operation result.
+	 */
+	protected <T> CacheFuture<T> submitAsync(final Callable<T> operation) {
+	    final PendingFuture<T> future = new PendingFuture<T>();
+	    getThreadPoolManager().submit(new Runnable() {
+	        
+	        @Override
+	        public void run() {
+	            try {
+	                future.set(operation.call());
+	            } catch (Throwable e) {
+	                future.setException(e);
+	            }
+	        }
+	        
+	    });
+	    return future;
+	}
+	
+	/**
+	 * Returns whether the snapshot is loading, the restores of the background
+	 * readers may still race with the writes then.
+	 * 
+	 * @return true if the snapshot is loading.
+	 */
+	protected boolean isSnapshotLoading() {
+	    return _snapshotLoading;
+	}
+	
+	/**
+	 * Cancels the snapshot loading, such as when the cache is cleared.
+	 */
+	protected void cancelSnapshotLoad() {
+	    CacheSnapshot snapshot = _snapshot;
+	    if (snapshot != null) {
+	        snapshot.cancelLoad();
+	    }
+	}
+	
+	/**
+	 * Invoked when the snapshot loading completes, fails or is cancelled.
+	 */
+	protected void onSnapshotLoaded() {
+	}
+	
 	protected ThreadPoolManager getThreadPoolManager() {
 	    return _threadPoolManager;
 	}
 	
+	/**
+	 * Returns the thread pool of the fanned out tasks of multi-key operations.
+	 * It is apart from the async thread pool, as async multi-key operations
+	 * run on that pool and wait for their fanned out tasks. The tasks must not
+	 * wait for other tasks of this pool.
+	 * 
+	 * @return fan-out thread pool manager.
+	 */
+	protected ThreadPoolManager getFanOutPoolManager() {
+	    return _fanOutPoolManager;
+	}
+	
 	protected void checkStates() {
 		if (!_initialized) {
 			throw new IllegalStateException("Cache[" + _id + "] has not initialized.");
@@ -342,8 +774,94 @@ public abstract class AbstractCache implements Cache {
     }
 	
 
+	// ---- private methods
+	private void loadSnapshot() {
+	    CacheSnapshot snapshot = _snapshot;
+	    if (snapshot == null) {
+	        return;
+	    }
+	    
+	    CacheFuture<Long> future;
+	    try {
+	        future = snapshot.load((Snapshotable) this, _snapshotReaders);
+	    } catch (IOException e) {
+	        LOGGER.warn("Cache[{0}] load snapshot {1} exception.", e, _id, snapshot.getFile());
+	        snapshotLoaded();
+	        return;
+	    }
+	    future.addListener(new CacheFutureListener<Long>() {
+	        
+	        @Override
+	        public void onSuccess(Long value) {
+	            snapshotLoaded();
+	        }
+	        
+	        @Override
+	        public void onFailure(Throwable cause) {
+	            snapshotLoaded();
+	        }
+	        
+	    });
+	    
+	    try {
+	        Long entryNumber = future.get(_snapshotLoadBudget, TimeUnit.MILLISECONDS);
+	        LOGGER.info("Cache[{0}] loaded {1} entries from snapshot {2}.", _id, entryNumber, snapshot.getFile());
+	    } catch (TimeoutException e) {
+	        LOGGER.info("Cache[{0}] keeps loading snapshot {1} in the background.", _id, snapshot.getFile());
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	    } catch (ExecutionException e) {
+	        LOGGER.warn("Cache[{0}] load snapshot {1} exception.", e.getCause(), _id, snapshot.getFile());
+	    }
+	}
+	
+	private void snapshotLoaded() {
+	    _snapshotLoading = false;
+	    onSnapshotLoaded();
+	}
+	
     // ---- inner classes
-	public static class SucceedFuture<T> implements Future<T> {
+	/**
+	 * A fanned out multi-get, its chunks put values into a shared map.
+	 */
+	private final class MultiGetTask<T> {
+	    
+	    private final String[] _keys;
+	    private final Map<String, T> _values;
+	    /** keys got, hit or missed */
+	    private final AtomicInteger _gotNumber = new AtomicInteger();
+	    /** set when the caller stops waiting */
+	    private volatile boolean _abandoned;
+	    
+	    private MultiGetTask(String[] keys) {
+	        _keys = keys;
+	        _values = new ConcurrentHashMap<String, T>(keys.length * 2);
+	    }
+	    
+	    private Runnable chunk(final int from, final int to) {
+	        return new Runnable() {
+	            
+	            @Override
+	            public void run() {
+	                try {
+	                    for (int i = from; i < to && !_abandoned; i++) {
+	                        T value = get(_keys[i]);
+	                        if (value != null) {
+	                            _values.put(_keys[i], value);
+	                        }
+	                        _gotNumber.incrementAndGet();
+	                    }
+	                } catch (RuntimeException e) {
+	                    LOGGER.warn("Cache[{0}] multi-get chunk exception.", e, _id);
+	                }
+	            }
+	            
+	        };
+	    }
+	    
+	}
+	
+	public static class SucceedFuture<T> implements CacheFuture<T> {
 		
 		public static SucceedFuture<Boolean> BOOLEAN_TRUE  = new SucceedFuture<Boolean>(Boolean.TRUE);
 		public static SucceedFuture<Boolean> BOOLEAN_FALSE = new SucceedFuture<Boolean>(Boolean.FALSE);
@@ -356,6 +874,15 @@ public abstract class AbstractCache implements Cache {
 			_value = value;
 		}
 		
+		@Override
+		public CacheFuture<T> addListener(CacheFutureListener<? super T> listener) {
+			if (listener == null) {
+				throw new NullPointerException("listener");
+			}
+			listener.onSuccess(_value);
+			return this;
+		}
+		
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
 			return false;
@@ -0,0 +1,339 @@
+package com.mtoolkit.cache.support;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.support.JdkSerializer;
+import com.mtoolkit.thread.DaemonThreadFactory;
+
+/**
+ * A binary snapshot file of the entries of a {@link Snapshotable} cache.
+ * <p>
+ * Entries are streamed into blocks of about the block size, each entry is
+ * its key, its deadline and its serialized value. An index of the block
+ * offsets is written after the blocks, so a snapshot is loaded by parallel
+ * readers, each reading and restoring whole blocks by positional reads.
+ * A snapshot is written to a temporary file which replaces the file when
+ * complete, values which are not serializable are skipped. A running load
+ * is stopped by {@link #cancelLoad()}.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.support.Snapshotable
+ */
+public class CacheSnapshot {
+
+    /** snapshot file */
+    private final File _file;
+    /** value serializer */
+    private final Serializer _serializer;
+    /** block size, in bytes */
+    private final int _blockSize;
+    /** cancel flag of the running load */
+    private volatile boolean _loadCancelled;
+
+    public static final int DEF_BLOCK_SIZE = 256 * 1024;
+
+    /** "MTCS" */
+    private static final int MAGIC = 0x4D544353;
+    private static final int VERSION = 1;
+    /** bytes of the trailer, the index offset and the magic */
+    private static final int TRAILER_SIZE = 12;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(CacheSnapshot.class);
+
+    // ---- constructors
+    public CacheSnapshot(File file) {
+        this(file, new JdkSerializer(), DEF_BLOCK_SIZE);
+    }
+
+    public CacheSnapshot(File file, Serializer serializer, int blockSize) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (serializer == null) {
+            throw new NullPointerException("serializer");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be a positive number: " + blockSize);
+        }
+        _file = file;
+        _serializer = serializer;
+        _blockSize = blockSize;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Writes the entries of the cache to the snapshot file.
+     *
+     * @param  cache snapshotable cache.
+     *
+     * @return written entry number.
+     *
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    public long write(Snapshotable cache) throws IOException {
+        File tempFile = new File(_file.getPath() + ".tmp");
+        BlockWriter writer = new BlockWriter(tempFile);
+        try {
+            cache.snapshot(writer);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        if (_file.exists() && !_file.delete()) {
+            throw new IOException("Could not replace snapshot file: " + _file);
+        }
+        if (!tempFile.renameTo(_file)) {
+            throw new IOException("Could not rename snapshot file: " + tempFile);
+        }
+        if (writer._skippedNumber > 0) {
+            LOGGER.warn("Snapshot[{0}] skipped {1} unserializable values.", _file, writer._skippedNumber);
+        }
+        return writer._entryNumber;
+    }
+
+    /**
+     * Loads the snapshot file into the cache by parallel readers, in the
+     * background. A missing snapshot file loads nothing, a cancelled load
+     * completes with the entry number restored before the cancel.
+     *
+     * @param  cache   snapshotable cache.
+     * @param  readers reader thread number.
+     *
+     * @return future of the restored entry number.
+     *
+     * @throws IOException if the snapshot file is corrupt.
+     */
+    public CacheFuture<Long> load(final Snapshotable cache, int readers) throws IOException {
+        if (readers <= 0) {
+            throw new IllegalArgumentException("Reader number must be a positive number: " + readers);
+        }
+        if (!_file.isFile()) {
+            return new AbstractCache.SucceedFuture<Long>(Long.valueOf(0L));
+        }
+
+        final RandomAccessFile file = new RandomAccessFile(_file, "r");
+        final long[] offsets;
+        final int[] lengths;
+        try {
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(readIndex(file)));
+            int blockNumber = index.readInt();
+            offsets = new long[blockNumber];
+            lengths = new int[blockNumber];
+            for (int i = 0; i < blockNumber; i++) {
+                offsets[i] = index.readLong();
+                lengths[i] = index.readInt();
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        _loadCancelled = false;
+        final FileChannel channel = file.getChannel();
+        final PendingFuture<Long> future = new PendingFuture<Long>();
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final AtomicLong restoredNumber = new AtomicLong();
+        final int readerNumber = Math.max(1, Math.min(readers, offsets.length));
+        final AtomicInteger runningReaders = new AtomicInteger(readerNumber);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            readerNumber, new DaemonThreadFactory("CacheSnapshot-reader"));
+        for (int i = 0; i < readerNumber; i++) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    int block;
+                    while (!_loadCancelled && (block = nextBlock.getAndIncrement()) < offsets.length) {
+                        try {
+                            restoredNumber.addAndGet(
+                                restoreBlock(cache, channel, offsets[block], lengths[block]));
+                        } catch (IOException e) {
+                            LOGGER.warn("Snapshot[{0}] block {1} load exception.", e, _file, block);
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("Snapshot[{0}] block {1} restore exception.", e, _file, block);
+                        }
+                    }
+
+                    if (runningReaders.decrementAndGet() == 0) {
+                        executor.shutdown();
+                        try {
+                            file.close();
+                        } catch (IOException e) {
+                            LOGGER.warn("Snapshot[{0}] close exception.", e, _file);
+                        }
+                        future.set(Long.valueOf(restoredNumber.get()));
+                    }
+                }
+
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Cancels the running load, its readers stop before the next entry.
+     */
+    public void cancelLoad() {
+        _loadCancelled = true;
+    }
+
+    // ---- private methods
+    private byte[] readIndex(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < 8 + TRAILER_SIZE) {
+            throw new IOException("Snapshot file is truncated: " + _file);
+        }
+        file.seek(0L);
+        if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+            throw new IOException("Not a snapshot file of version " + VERSION + ": " + _file);
+        }
+        file.seek(length - TRAILER_SIZE);
+        long indexOffset = file.readLong();
+        if (file.readInt() != MAGIC || indexOffset < 8 || indexOffset > length - TRAILER_SIZE) {
+            throw new IOException("Snapshot file is incomplete: " + _file);
+        }
+
+        byte[] index = new byte[(int) (length - TRAILER_SIZE - indexOffset)];
+        file.seek(indexOffset);
+        file.readFully(index);
+        return index;
+    }
+
+    private int restoreBlock(Snapshotable cache, FileChannel channel, long offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Snapshot block is truncated at " + offset);
+            }
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        int entryNumber = in.readInt();
+        int restored = 0;
+        for (int i = 0; i < entryNumber && !_loadCancelled; i++) {
+            String key = in.readUTF();
+            long deadline = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            Object value;
+            try {
+                value = _serializer.deserialize(bytes);
+            } catch (ClassNotFoundException e) {
+                LOGGER.warn("Snapshot[{0}] value class of key {1} not found.", _file, key);
+                continue;
+            }
+            if (cache.restore(key, value, deadline)) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    // ---- inner classes
+    /**
+     * Streams the visited entries into blocks, then writes the block index.
+     */
+    private final class BlockWriter implements Snapshotable.EntryVisitor {
+
+        private final DataOutputStream _out;
+        /** current block */
+        private final ByteArrayOutputStream _block;
+        private final DataOutputStream _blockOut;
+        private int _blockEntryNumber;
+        /** bytes written to the file */
+        private long _position;
+        private final List<long[]> _index = new ArrayList<long[]>();
+        private long _entryNumber;
+        private long _skippedNumber;
+
+        private BlockWriter(File file) throws IOException {
+            _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            _block = new ByteArrayOutputStream(_blockSize + 1024);
+            _blockOut = new DataOutputStream(_block);
+            _out.writeInt(MAGIC);
+            _out.writeInt(VERSION);
+            _position = 8;
+        }
+
+        @Override
+        public void visit(String key, Object value, long deadline) throws IOException {
+            byte[] bytes;
+            try {
+                bytes = _serializer.serialize(value);
+            } catch (NotSerializableException e) {
+                _skippedNumber++;
+                return;
+            }
+
+            _blockOut.writeUTF(key);
+            _blockOut.writeLong(deadline);
+            _blockOut.writeInt(bytes.length);
+            _blockOut.write(bytes);
+            _blockEntryNumber++;
+            _entryNumber++;
+            if (_block.size() >= _blockSize) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (_blockEntryNumber == 0) {
+                return;
+            }
+            _blockOut.flush();
+            _index.add(new long[] { _position, _block.size() + 4 });
+            _out.writeInt(_blockEntryNumber);
+            _block.writeTo(_out);
+            _position += _block.size() + 4;
+            _block.reset();
+            _blockEntryNumber = 0;
+        }
+
+        private void finish() throws IOException {
+            flushBlock();
+            long indexOffset = _position;
+            _out.writeInt(_index.size());
+            for (long[] block : _index) {
+                _out.writeLong(block[0]);
+                _out.writeInt((int) block[1]);
+            }
+            _out.writeLong(indexOffset);
+            _out.writeInt(MAGIC);
+            _out.flush();
+        }
+
+        private void close() throws IOException {
+            _out.close();
+        }
+
+    }
+
+}
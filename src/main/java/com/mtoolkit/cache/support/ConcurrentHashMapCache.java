@@ -1,20 +1,71 @@
 package com.mtoolkit.cache.support;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.CacheException;
+import com.mtoolkit.cache.CacheFuture;
 import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.thread.DaemonThreadFactory;
 
 /**
  * ConcurrentHashMap cache engine driver implementation.
+ * <p>
+ * Expired entries are removed lazily when they are read, and proactively by a
+ * background sweeper: writes of entries with an expired time are queued, the
+ * sweeper thread drains the queue into a {@link TimerWheel} and advances the
+ * wheel periodically, so entries which are never read again do not stay on the
+ * heap, and no sweep scans the whole map.
+ * <p>
+ * CAS puts and number operations are atomic compare-and-replace loops on the
+ * map. Numbers are kept in counter entries which are updated in place, so an
+ * increase neither allocates a boxed value nor replaces the entry.
+ * <p>
+ * The entries can be saved to a {@link CacheSnapshot} and restored with their
+ * remaining time to live, see {@link AbstractCache#setSnapshot}. Keys written
+ * or removed while the snapshot loads are not restored, and a clear cancels
+ * the loading.
  */
-public class ConcurrentHashMapCache extends AbstractCache {
+public class ConcurrentHashMapCache extends AbstractCache implements Snapshotable {
 
-private static final long UN_EXPIRED_TIME = -1L;
+    private static final long UN_EXPIRED_TIME = -1L;
     
-    private final Map<String, CacheEntry> _cache = new ConcurrentHashMap<String, CacheEntry>(100, 0.75F, 16);
+    private final ConcurrentHashMap<String, CacheEntry> _cache = new ConcurrentHashMap<String, CacheEntry>(100, 0.75F, 16);
+    
+    /** sweep interval in milliseconds, non-positive disables the sweeper */
+    private long _sweepInterval = DEF_SWEEP_INTERVAL;
+    /** whether the sweeper is running */
+    private volatile boolean _sweeping;
+    /** sweeper executor */
+    private ScheduledExecutorService _sweeper;
+    /** expiration timer wheel, owned by the sweeper thread */
+    private TimerWheel _timerWheel;
+    /** written or removed entries waiting for the sweeper */
+    private final Queue<CacheEntry> _timerQueue = new ConcurrentLinkedQueue<CacheEntry>();
+    /** whether the map was cleared since the last sweep */
+    private volatile boolean _clearRequested;
+    /** entries removed by the last sweep */
+    private volatile int _lastExpiredNumber;
+    /** entries removed by all sweeps, written by the sweeper thread only */
+    private volatile long _expiredNumber;
+    /** keys written or removed while the snapshot loads, not restored */
+    private final ConcurrentHashMap<String, Boolean> _touchedKeys = new ConcurrentHashMap<String, Boolean>();
+    /** whether the map was cleared while the snapshot loads, nothing is restored then */
+    private volatile boolean _restoreCleared;
+    
+    public static final long DEF_SWEEP_INTERVAL = 1000L;
+    
+    private static final Loggers LOGGER = Loggers.getLoggers(ConcurrentHashMapCache.class);
     
     // ---- constructors
     public ConcurrentHashMapCache() {
@@ -30,13 +81,72 @@ private static final long UN_EXPIRED_TIME = -1L;
         setAsyncThreadPoolSize(threadPoolSize);
     }
     
+    public long getSweepInterval() {
+        return _sweepInterval;
+    }
+    
+    /**
+     * Sets the interval of the expiration sweeper, takes effect on the next
+     * startup. A non-positive interval disables the sweeper, expired entries
+     * are removed only when they are read then.
+     * 
+     * @param sweepInterval sweep interval, in milliseconds.
+     */
+    public void setSweepInterval(long sweepInterval) {
+        _sweepInterval = sweepInterval;
+    }
+    
+    /**
+     * Returns the number of expired entries removed by the last sweep.
+     * 
+     * @return expired entry number of the last sweep.
+     */
+    public int getLastExpiredNumber() {
+        return _lastExpiredNumber;
+    }
+    
+    /**
+     * Returns the number of expired entries removed by all sweeps.
+     * 
+     * @return total expired entry number.
+     */
+    public long getExpiredNumber() {
+        return _expiredNumber;
+    }
+    
     // ---- implement methods
     @Override
     protected void doInitialize() {
+        if (_sweepInterval <= 0) {
+            return;
+        }
+        
+        _timerWheel = new TimerWheel(System.currentTimeMillis());
+        _sweeper = Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("ConcurrentHashMapCache-sweeper"));
+        _sweeping = true;
+        _sweeper.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Sweep expired cache entries exception.", e);
+                }
+            }
+            
+        }, _sweepInterval, _sweepInterval, TimeUnit.MILLISECONDS);
     }
 
     @Override
     protected void doDestroy() {
+        if (_sweeper != null) {
+            _sweeping = false;
+            _sweeper.shutdownNow();
+            _sweeper = null;
+            _timerQueue.clear();
+        }
     }
     
     @Override
@@ -65,78 +175,302 @@ private static final long UN_EXPIRED_TIME = -1L;
     	return asyncPut(key, value, UN_EXPIRED_TIME, operation);
     }
     
+    /**
+     * Puts the value, or with a CAS operation, puts the value if the key is
+     * absent, or replaces the current value with the new value of the
+     * operation if no other write races with it, in at most the max tries of
+     * the operation.
+     */
     @Override
     public boolean put(final String key, final Object value, final long expiredTime, CasOperation<Object> operation) {
-        _cache.put(key, new CacheEntry(key, value, expiredTime));
+        touch(key);
+        if (operation != null) {
+            return casPut(key, value, expiredTime, operation);
+        }
+        
+        CacheEntry cacheEntry = new CacheEntry(key, value, expiredTime);
+        CacheEntry oldEntry = _cache.put(key, cacheEntry);
+        
+        enqueue(oldEntry);
+        enqueue(cacheEntry);
         return true;
     }
     
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        return getEach(keys); // local lookups, no need to fan out.
+    }
+    
     @Override
 	@SuppressWarnings("unchecked")
     public <T> T get(String key) {
-        CacheEntry cacheEntry =  _cache.get(key);
-        if (cacheEntry == null || cacheEntry.isExpired()) {
-            return null;
-        } else {
-            return (T) cacheEntry.getValue();
+        for (;;) {
+            CacheEntry cacheEntry = getEntry(key);
+            if (cacheEntry == null) {
+                return null;
+            }
+            Object value = cacheEntry.getValue();
+            // null if a counter is retired since it was read.
+            if (value != null || !(cacheEntry instanceof CounterEntry)) {
+                return (T) value;
+            }
         }
     }
 
 	@Override
 	@SuppressWarnings("unchecked")
     public <T> T remove(String key) {
+        touch(key);
         CacheEntry cacheEntry = _cache.remove(key);
-        return (T) cacheEntry.getValue();
+        enqueue(cacheEntry);
+        return cacheEntry == null ? null : (T) cacheEntry.getValue();
     }
     
     @Override
     public boolean clear() {
+        if (isSnapshotLoading()) {
+            _restoreCleared = true;
+            cancelSnapshotLoad();
+        }
         _cache.clear();
+        _clearRequested = true;
         return true;
     }
     
     @Override
     public long getNumber(String key) {
-        CacheEntry cacheEntry = _cache.get(key);
-        if (cacheEntry == null || cacheEntry.isExpired()) {
-            return 0L;
-        } else {
-            return ((Long) cacheEntry.getValue()).longValue();
+        for (;;) {
+            CacheEntry cacheEntry = getEntry(key);
+            if (cacheEntry == null) {
+                return 0L;
+            } else if (!(cacheEntry instanceof CounterEntry)) {
+                return ((Long) cacheEntry.getValue()).longValue();
+            }
+            
+            long count = ((CounterEntry) cacheEntry)._count.get();
+            if (count != CounterEntry.RETIRED) {
+                return count;
+            }
         }
     }
 
     @Override
     public long increase(String key, long value) {
-        CacheEntry cacheEntry = _cache.get(key);
-        
-        long oldValue = 0L;
-        if (cacheEntry != null && !cacheEntry.isExpired()) {
-            oldValue = ((Long) cacheEntry.getValue()).longValue();
-        }
-
-        Long newValue = Long.valueOf(oldValue + value);
-        _cache.put(key, new CacheEntry(key, newValue, UN_EXPIRED_TIME));
-        
-        return newValue;
+        touch(key);
+        return add(key, value);
     }
 
     @Override
     public long decrease(String key, long value) {
-        CacheEntry cacheEntry = _cache.get(key);
+        touch(key);
+        return add(key, -value);
+    }
+    
+    // ---- async cache methods, completed in the caller thread as no I/O is involved
+    @Override
+    public <T> CacheFuture<T> getAsync(String key) {
+        return new SucceedFuture<T>(this.<T>get(key));
+    }
+    
+    @Override
+    public <T> CacheFuture<Map<String, T>> getAsync(String[] keys) {
+        return new SucceedFuture<Map<String, T>>(this.<T>get(keys));
+    }
+    
+    @Override
+    public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (getWriteBehindQueue() != null) {
+            return super.putAsync(key, value, expiredTime, operation);
+        }
+        return new SucceedFuture<Boolean>(Boolean.valueOf(put(key, value, expiredTime, operation)));
+    }
+    
+    @Override
+    public CacheFuture<Long> increaseAsync(String key, long value) {
+        return new SucceedFuture<Long>(Long.valueOf(increase(key, value)));
+    }
+    
+    @Override
+    public CacheFuture<Long> decreaseAsync(String key, long value) {
+        return new SucceedFuture<Long>(Long.valueOf(decrease(key, value)));
+    }
+
+    // ---- snapshot methods
+    @Override
+    public void snapshot(EntryVisitor visitor) throws IOException {
+        for (CacheEntry cacheEntry : _cache.values()) {
+            Object value = cacheEntry.getValue();
+            // skips the counters being replaced by CAS puts.
+            if (value != null && !cacheEntry.isExpired()) {
+                long deadline = cacheEntry._expiredTime > 0 ? cacheEntry.getDeadline() : 0L;
+                visitor.visit(cacheEntry._key, value, deadline);
+            }
+        }
+    }
+    
+    @Override
+    public boolean restore(String key, Object value, long deadline) {
+        long expiredTime = UN_EXPIRED_TIME;
+        if (deadline > 0) {
+            expiredTime = deadline - System.currentTimeMillis();
+            if (expiredTime <= 0) {
+                return false;
+            }
+        }
         
-        long oldValue = 0L;
-        if (cacheEntry != null && !cacheEntry.isExpired()) {
-            oldValue = ((Long) cacheEntry.getValue()).longValue();
+        if (isRestoreSkipped(key)) {
+            return false;
+        }
+        CacheEntry cacheEntry = new CacheEntry(key, value, expiredTime);
+        if (_cache.putIfAbsent(key, cacheEntry) != null) {
+            return false;
+        }
+        // a remove or a clear may race with the put, writes touch the key first.
+        if (isRestoreSkipped(key)) {
+            _cache.remove(key, cacheEntry);
+            return false;
+        }
+        enqueue(cacheEntry);
+        return true;
+    }
+    
+    @Override
+    protected void onSnapshotLoaded() {
+        _touchedKeys.clear();
+        _restoreCleared = false;
+    }
+
+    // ---- private methods
+    /**
+     * Returns the live entry of the key, waits for the CAS put replacing a
+     * retired counter.
+     */
+    private CacheEntry getEntry(String key) {
+        for (;;) {
+            CacheEntry cacheEntry = _cache.get(key);
+            if (cacheEntry == null || cacheEntry.isExpired()) {
+                return null;
+            }
+            if (!(cacheEntry instanceof CounterEntry) || !((CounterEntry) cacheEntry).isRetired()) {
+                return cacheEntry;
+            }
+            Thread.yield();
+        }
+    }
+    
+    private boolean casPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        int maxTries = Math.max(1, operation.getMaxTries());
+        for (int tries = 0; tries < maxTries; tries++) {
+            CacheEntry cacheEntry = _cache.get(key);
+            if (cacheEntry == null || cacheEntry.isExpired()) {
+                CacheEntry newEntry = new CacheEntry(key, value, expiredTime);
+                if (_cache.putIfAbsent(key, newEntry) == null) {
+                    enqueue(newEntry);
+                    return true;
+                }
+                continue;
+            }
+            
+            CacheEntry newEntry;
+            if (cacheEntry instanceof CounterEntry) {
+                CounterEntry counterEntry = (CounterEntry) cacheEntry;
+                long count = counterEntry._count.get();
+                if (count == CounterEntry.RETIRED) {
+                    continue;
+                }
+                newEntry = new CacheEntry(key, operation.getNewValue(Long.valueOf(count)), expiredTime);
+                // retires the counter, increases racing with the CAS fail it.
+                if (!counterEntry._count.compareAndSet(count, CounterEntry.RETIRED)) {
+                    continue;
+                }
+            } else {
+                newEntry = new CacheEntry(key, operation.getNewValue(cacheEntry.getValue()), expiredTime);
+            }
+            
+            if (_cache.replace(key, cacheEntry, newEntry)) {
+                enqueue(cacheEntry);
+                enqueue(newEntry);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private long add(String key, long delta) {
+        for (;;) {
+            CacheEntry cacheEntry = _cache.get(key);
+            if (cacheEntry == null || cacheEntry.isExpired()) {
+                if (_cache.putIfAbsent(key, new CounterEntry(key, delta)) == null) {
+                    return delta;
+                }
+            } else if (cacheEntry instanceof CounterEntry) {
+                long count = ((CounterEntry) cacheEntry).add(delta);
+                if (count != CounterEntry.RETIRED) {
+                    return count;
+                }
+                Thread.yield();
+            } else {
+                // a number put or restored as a value becomes a counter.
+                long count = ((Long) cacheEntry.getValue()).longValue() + delta;
+                if (_cache.replace(key, cacheEntry, new CounterEntry(key, count))) {
+                    enqueue(cacheEntry);
+                    return count;
+                }
+            }
+        }
+    }
+    
+    // records the key written or removed while the snapshot loads.
+    private void touch(String key) {
+        if (isSnapshotLoading() && key != null) {
+            _touchedKeys.put(key, Boolean.TRUE);
+            if (!isSnapshotLoading()) {
+                _touchedKeys.remove(key);
+            }
+        }
+    }
+    
+    private boolean isRestoreSkipped(String key) {
+        return _restoreCleared || _touchedKeys.containsKey(key);
+    }
+    
+    private void enqueue(CacheEntry cacheEntry) {
+        if (_sweeping && cacheEntry != null && cacheEntry._expiredTime > 0) {
+            _timerQueue.offer(cacheEntry);
+        }
+    }
+    
+    // runs in the sweeper thread only
+    private void sweep() {
+        if (_clearRequested) {
+            _clearRequested = false;
+            _timerWheel.clear();
+            for (CacheEntry cacheEntry : _cache.values()) {
+                if (cacheEntry._expiredTime > 0) {
+                    _timerWheel.schedule(cacheEntry);
+                }
+            }
         }
         
-        Long newValue = Long.valueOf(oldValue - value);
-        _cache.put(key, new CacheEntry(key, newValue, UN_EXPIRED_TIME));
+        CacheEntry cacheEntry;
+        while ((cacheEntry = _timerQueue.poll()) != null) {
+            if (_cache.get(cacheEntry._key) == cacheEntry) {
+                _timerWheel.schedule(cacheEntry);
+            } else {
+                _timerWheel.deschedule(cacheEntry);
+            }
+        }
         
-        return newValue;
+        int expiredNumber = _timerWheel.advance(System.currentTimeMillis());
+        _lastExpiredNumber = expiredNumber;
+        if (expiredNumber > 0) {
+            _expiredNumber += expiredNumber;
+            LOGGER.debug("ConcurrentHashMapCache:[id={0}] swept {1} expired entries.", getId(), expiredNumber);
+        }
     }
-
+    
     // ---- inner classes
-    private class CacheEntry implements Serializable {
+    private class CacheEntry extends TimerWheel.Node implements Serializable {
 
         private static final long serialVersionUID = 77803946779892716L;
         
@@ -163,12 +497,80 @@ private static final long UN_EXPIRED_TIME = -1L;
             
             boolean expired = System.currentTimeMillis() - _putTime > _expiredTime; 
             if (expired) {
-                _cache.remove(_key); // remove expired value.
+                _cache.remove(_key, this); // remove expired value.
             }
             
             return expired;
         }
         
+        @Override
+        protected long getDeadline() {
+            return _putTime + _expiredTime;
+        }
+        
+        @Override
+        protected boolean expire() {
+            return _cache.remove(_key, this);
+        }
+        
+    }
+    
+    /**
+     * A number entry, updated in place. A CAS put retires it before replacing
+     * it, so no increase is lost.
+     */
+    private class CounterEntry extends CacheEntry {
+
+        private static final long serialVersionUID = -2915304861217384032L;
+        
+        /** count marking a counter replaced by a CAS put */
+        private static final long RETIRED = Long.MIN_VALUE;
+        
+        private final AtomicLong _count;
+        
+        public CounterEntry(String key, long count) {
+            super(key, null, UN_EXPIRED_TIME);
+            _count = new AtomicLong(checkCount(count));
+        }
+        
+        /**
+         * Returns the count, or null if the counter is retired.
+         */
+        @Override
+        public Object getValue() {
+            long count = _count.get();
+            return count == RETIRED ? null : Long.valueOf(count);
+        }
+        
+        private long checkCount(long count) {
+            if (count == RETIRED) {
+                throw new CacheException("Number of key " + super._key + " is out of range.");
+            }
+            return count;
+        }
+        
+        public boolean isRetired() {
+            return _count.get() == RETIRED;
+        }
+        
+        /**
+         * Adds the delta to the count.
+         * 
+         * @return new count, or {@link #RETIRED} if the counter is retired.
+         */
+        public long add(long delta) {
+            for (;;) {
+                long count = _count.get();
+                if (count == RETIRED) {
+                    return RETIRED;
+                }
+                long newCount = checkCount(count + delta);
+                if (_count.compareAndSet(count, newCount)) {
+                    return newCount;
+                }
+            }
+        }
+        
     }
     
 }
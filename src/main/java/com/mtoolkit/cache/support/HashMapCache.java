@@ -71,6 +71,11 @@ public class HashMapCache extends AbstractCache {
         return true;
     }
     
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        return getEach(keys); // local lookups, no need to fan out.
+    }
+    
     @Override
     @SuppressWarnings("unchecked")
     public <T> T get(String key) {
@@ -86,7 +91,7 @@ public class HashMapCache extends AbstractCache {
     @SuppressWarnings("unchecked")
     public <T> T remove(String key) {
 		CacheEntry cacheEntry = _cache.remove(key);
-        return (T) cacheEntry.getValue();
+        return cacheEntry == null ? null : (T) cacheEntry.getValue();
     }
     
     @Override
@@ -0,0 +1,454 @@
+package com.mtoolkit.cache.support;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mtoolkit.cache.CasOperation;
+
+/**
+ * Local cache engine driver implementation for <code>long</code> keys.
+ * <p>
+ * Keys are kept as primitives in open-addressing tables with linear probing,
+ * split into segments which are written under their own lock. Reads take no
+ * lock, and the native <code>long</code> methods allocate nothing on hits.
+ * Removed slots are kept as tombstones, expired values are dropped lazily
+ * and both are purged when a segment table is rebuilt.
+ * <p>
+ * The {@link com.mtoolkit.cache.Cache} methods parse the string keys as
+ * decimal numbers, so numeric ids can be cached by decorators such as the
+ * callback cache without a version prefix.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class LongKeyCache extends AbstractCache {
+
+    /** table segments */
+    private final Segment[] _segments;
+    /** bits to select a segment by the high hash bits */
+    private final int _segmentShift;
+
+    public static final String DEF_CACHE_ID = LongKeyCache.class.getName();
+    public static final int DEF_INITIAL_CAPACITY = 1024;
+    public static final int DEF_SEGMENTS = 16;
+
+    private static final long UN_EXPIRED_TIME = -1L;
+    /** max used slots, live or tombstones, before a rebuild */
+    private static final float LOAD_FACTOR = 0.75F;
+    private static final int MIN_TABLE_SIZE = 8;
+
+    // ---- constructors
+    public LongKeyCache() {
+        this(DEF_CACHE_ID);
+    }
+
+    public LongKeyCache(String id) {
+        this(id, DEF_INITIAL_CAPACITY, DEF_SEGMENTS);
+    }
+
+    public LongKeyCache(String id, int initialCapacity, int segments) {
+        super(id);
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Initial capacity must not be a negative number: " + initialCapacity);
+        }
+        if (segments <= 0 || segments > (1 << 16)) {
+            throw new IllegalArgumentException("Segments must be in [1, 65536]: " + segments);
+        }
+
+        int segmentNumber = 1;
+        int segmentBits = 0;
+        while (segmentNumber < segments) {
+            segmentNumber <<= 1;
+            segmentBits++;
+        }
+        _segmentShift = 64 - segmentBits;
+        _segments = new Segment[segmentNumber];
+        int tableSize = tableSizeFor(initialCapacity / segmentNumber);
+        for (int i = 0; i < segmentNumber; i++) {
+            _segments[i] = new Segment(tableSize);
+        }
+    }
+
+    // ---- native methods
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the value of the key.
+     *
+     * @param  key cache key.
+     *
+     * @return cache value, or null if absent or expired.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(long key) {
+        long hash = hash(key);
+        Entry entry = segmentOf(hash).getEntry(key, hash);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            segmentOf(hash).removeExpired(key, hash, entry);
+            return null;
+        }
+        return (T) entry._value;
+    }
+
+    public boolean put(long key, Object value) {
+        return put(key, value, UN_EXPIRED_TIME, null);
+    }
+
+    /**
+     * Puts the value of the key.
+     *
+     * @param  key         cache key.
+     * @param  value       cache value, null removes the key.
+     * @param  expiredTime expired time in milliseconds, non-positive never expires.
+     * @param  operation   if not null and the key has a value, the value put
+     *                     is the new value of the operation instead.
+     *
+     * @return true.
+     */
+    public boolean put(long key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (value == null) {
+            remove(key);
+            return true;
+        }
+        long hash = hash(key);
+        segmentOf(hash).put(key, hash, value, expiredTime, operation);
+        return true;
+    }
+
+    public <T> T remove(long key) {
+        long hash = hash(key);
+        return segmentOf(hash).remove(key, hash);
+    }
+
+    public long getNumber(long key) {
+        Long value = get(key);
+        return value == null ? 0L : value.longValue();
+    }
+
+    /**
+     * Atomically adds the value to the number of the key.
+     *
+     * @param  key   cache key.
+     * @param  value value to add.
+     *
+     * @return new number.
+     */
+    public long increase(long key, long value) {
+        long hash = hash(key);
+        return segmentOf(hash).add(key, hash, value);
+    }
+
+    public long decrease(long key, long value) {
+        return increase(key, -value);
+    }
+
+    /**
+     * Returns the number of live and expired keys not yet purged.
+     *
+     * @return key number.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : _segments) {
+            size += segment._size;
+        }
+        return size;
+    }
+
+    // ---- implement methods
+    @Override
+    protected void doInitialize() {
+    }
+
+    @Override
+    protected void doDestroy() {
+        clear();
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return containsKey(parseKey(key));
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        return put(parseKey(key), value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        return get(parseKey(key));
+    }
+
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        return getEach(keys); // local lookups, no need to fan out.
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        return remove(parseKey(key));
+    }
+
+    @Override
+    public boolean clear() {
+        for (Segment segment : _segments) {
+            segment.clear();
+        }
+        return true;
+    }
+
+    @Override
+    public long getNumber(String key) {
+        return getNumber(parseKey(key));
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        return increase(parseKey(key), value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        return decrease(parseKey(key), value);
+    }
+
+    // ---- private methods
+    private static long parseKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        try {
+            return Long.parseLong(key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Key must be a long number: " + key, e);
+        }
+    }
+
+    /**
+     * Mixes the key bits, as the finalizer of murmur3.
+     */
+    private static long hash(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private Segment segmentOf(long hash) {
+        return _segments.length == 1 ? _segments[0] : _segments[(int) (hash >>> _segmentShift)];
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = MIN_TABLE_SIZE;
+        while (size * LOAD_FACTOR < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // ---- inner classes
+    /**
+     * An immutable cache value.
+     */
+    private static final class Entry {
+
+        /** tombstone of a removed key */
+        private static final Entry REMOVED = new Entry(null, 0L);
+
+        private final Object _value;
+        private final long _expiredAt;
+
+        private Entry(Object value, long expiredAt) {
+            _value = value;
+            _expiredAt = expiredAt;
+        }
+
+        private boolean isExpired() {
+            return _expiredAt > 0 && System.currentTimeMillis() >= _expiredAt;
+        }
+
+    }
+
+    /**
+     * An open-addressing table. A slot is free while its entry is null, its
+     * key is written before its entry and never changes until the table is
+     * rebuilt, so readers can probe without locking.
+     */
+    private static final class Table {
+
+        private final long[] _keys;
+        private final AtomicReferenceArray<Entry> _entries;
+        private final int _mask;
+
+        private Table(int size) {
+            _keys = new long[size];
+            _entries = new AtomicReferenceArray<Entry>(size);
+            _mask = size - 1;
+        }
+
+        /**
+         * Returns the slot of the key, or the free slot ending its probe.
+         */
+        private int indexOf(long key, long hash) {
+            int index = (int) hash & _mask;
+            while (_entries.get(index) != null && _keys[index] != key) {
+                index = (index + 1) & _mask;
+            }
+            return index;
+        }
+
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Segment extends ReentrantLock {
+
+        /** current table, replaced on rebuild */
+        private volatile Table _table;
+        /** slots holding live or expired values */
+        private volatile int _size;
+        /** slots holding live, expired or removed values */
+        private int _usedSlots;
+
+        private Segment(int tableSize) {
+            _table = new Table(tableSize);
+        }
+
+        private Entry getEntry(long key, long hash) {
+            Table table = _table;
+            Entry entry = table._entries.get(table.indexOf(key, hash));
+            return entry == Entry.REMOVED ? null : entry;
+        }
+
+        private void put(long key, long hash, Object value, long expiredTime, CasOperation<Object> operation) {
+            lock();
+            try {
+                Table table = _table;
+                int index = table.indexOf(key, hash);
+                Entry entry = table._entries.get(index);
+                if (entry == null) {
+                    if (_usedSlots + 1 > table._keys.length * LOAD_FACTOR) {
+                        table = rebuild();
+                        index = table.indexOf(key, hash);
+                    }
+                    table._keys[index] = key;
+                    _usedSlots++;
+                    _size++;
+                } else if (entry == Entry.REMOVED) {
+                    _size++;
+                } else if (operation != null && !entry.isExpired()) {
+                    value = operation.getNewValue(entry._value);
+                }
+
+                long expiredAt = expiredTime > 0 ? System.currentTimeMillis() + expiredTime : UN_EXPIRED_TIME;
+                table._entries.set(index, new Entry(value, expiredAt));
+            } finally {
+                unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T remove(long key, long hash) {
+            lock();
+            try {
+                Table table = _table;
+                int index = table.indexOf(key, hash);
+                Entry entry = table._entries.get(index);
+                if (entry == null || entry == Entry.REMOVED) {
+                    return null;
+                }
+                table._entries.set(index, Entry.REMOVED);
+                _size--;
+                return entry.isExpired() ? null : (T) entry._value;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void removeExpired(long key, long hash, Entry expired) {
+            if (!tryLock()) {
+                return; // another writer is here, leave it to the rebuild.
+            }
+            try {
+                Table table = _table;
+                int index = table.indexOf(key, hash);
+                if (table._entries.compareAndSet(index, expired, Entry.REMOVED)) {
+                    _size--;
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        private long add(long key, long hash, long delta) {
+            lock();
+            try {
+                Table table = _table;
+                Entry entry = table._entries.get(table.indexOf(key, hash));
+                long number = delta;
+                long expiredTime = UN_EXPIRED_TIME;
+                if (entry != null && entry != Entry.REMOVED && !entry.isExpired()) {
+                    number += ((Long) entry._value).longValue();
+                    if (entry._expiredAt > 0) {
+                        expiredTime = Math.max(entry._expiredAt - System.currentTimeMillis(), 1L);
+                    }
+                }
+                put(key, hash, Long.valueOf(number), expiredTime, null);
+                return number;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void clear() {
+            lock();
+            try {
+                _table = new Table(MIN_TABLE_SIZE);
+                _size = 0;
+                _usedSlots = 0;
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Copies the live values into a new table sized for them, under the lock.
+         */
+        private Table rebuild() {
+            Table table = _table;
+            int liveNumber = 0;
+            for (int i = 0; i < table._keys.length; i++) {
+                Entry entry = table._entries.get(i);
+                if (entry != null && entry != Entry.REMOVED && !entry.isExpired()) {
+                    liveNumber++;
+                }
+            }
+
+            Table newTable = new Table(tableSizeFor((liveNumber + 1) * 2));
+            for (int i = 0; i < table._keys.length; i++) {
+                Entry entry = table._entries.get(i);
+                if (entry != null && entry != Entry.REMOVED && !entry.isExpired()) {
+                    long key = table._keys[i];
+                    int index = newTable.indexOf(key, hash(key));
+                    newTable._keys[index] = key;
+                    newTable._entries.set(index, entry);
+                }
+            }
+
+            _table = newTable;
+            _size = liveNumber;
+            _usedSlots = liveNumber;
+            return newTable;
+        }
+
+    }
+
+}
@@ -0,0 +1,824 @@
+package com.mtoolkit.cache.support;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.CacheException;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.support.JdkSerializer;
+import com.mtoolkit.thread.DaemonThreadFactory;
+
+/**
+ * Memory-mapped file cache engine driver implementation, its data survives restarts.
+ * <p>
+ * Values are serialized and appended to a log of fixed size segment files which
+ * are mapped into memory, an in-memory hash index points every key to its latest
+ * record. Removes append tombstone records. On startup the segments are remapped
+ * and scanned to rebuild the index, a torn record at the end of the log, detected
+ * by its checksum, ends the scan. Expired records are dropped from the index when
+ * read and before every compaction, so they count as dead. A background task
+ * compacts segments with too many dead records by copying their live records to
+ * the end of the log.
+ * <p>
+ * Record layout:
+ * <pre>
+ * +--------+-------+------+-----------+------------+-----+--------------+-------+
+ * | length | crc32 | type | expiredAt | key length | key | value length | value |
+ * | int    | int   | byte | long      | short      |     | int          |       |
+ * +--------+-------+------+-----------+------------+-----+--------------+-------+
+ * </pre>
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class MappedFileCache extends AbstractCache {
+
+    /** log directory */
+    private final File _directory;
+    /** value serializer */
+    private final Serializer _serializer;
+    /** size of every segment file, in bytes */
+    private final int _segmentSize;
+    /** dead bytes ratio which makes a segment compactable */
+    private double _compactionRatio = DEF_COMPACTION_RATIO;
+    /** compaction interval, in milliseconds */
+    private long _compactionInterval = DEF_COMPACTION_INTERVAL;
+
+    /** key index, guarded by lock */
+    private final Map<String, Location> _index = new HashMap<String, Location>(1024);
+    /** segments ordered by id, guarded by lock */
+    private final TreeMap<Integer, Segment> _segments = new TreeMap<Integer, Segment>();
+    /** appending segment, guarded by lock */
+    private Segment _activeSegment;
+    /** read lock for lookups, write lock for appends and segment changes */
+    private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+    /** compaction scheduler */
+    private ScheduledExecutorService _compactor;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(MappedFileCache.class);
+
+    public static final String DEF_CACHE_ID = MappedFileCache.class.getName();
+    public static final int DEF_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final double DEF_COMPACTION_RATIO = 0.5D;
+    public static final long DEF_COMPACTION_INTERVAL = 60 * 1000L;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Charset KEY_CHARSET = Charset.forName("UTF-8");
+    private static final long UN_EXPIRED_TIME = -1L;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    /** length + crc32 + type + expiredAt + key length + value length */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 2 + 4;
+
+    // ---- constructors
+    public MappedFileCache(File directory) {
+        this(DEF_CACHE_ID, directory);
+    }
+
+    public MappedFileCache(String id, File directory) {
+        this(id, directory, new JdkSerializer());
+    }
+
+    public MappedFileCache(String id, File directory, Serializer serializer) {
+        this(id, directory, DEF_SEGMENT_SIZE, serializer);
+    }
+
+    public MappedFileCache(String id, File directory, int segmentSize, Serializer serializer) {
+        super(id);
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (serializer == null) {
+            throw new NullPointerException("serializer");
+        }
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+
+        _directory = directory;
+        _serializer = serializer;
+        _segmentSize = segmentSize;
+    }
+
+    public double getCompactionRatio() {
+        return _compactionRatio;
+    }
+
+    public void setCompactionRatio(double compactionRatio) {
+        if (compactionRatio <= 0D || compactionRatio > 1D) {
+            throw new IllegalArgumentException("Compaction ratio must be in (0, 1]: " + compactionRatio);
+        }
+        _compactionRatio = compactionRatio;
+    }
+
+    public long getCompactionInterval() {
+        return _compactionInterval;
+    }
+
+    /**
+     * Sets the compaction interval, a non-positive interval disables the
+     * background compaction, {@link #compact()} can still be invoked manually.
+     *
+     * @param compactionInterval compaction interval, in milliseconds.
+     */
+    public void setCompactionInterval(long compactionInterval) {
+        _compactionInterval = compactionInterval;
+    }
+
+    // ---- implement methods
+    @Override
+    protected void doInitialize() {
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new CacheException("Could not create cache directory: " + _directory);
+        }
+
+        _lock.writeLock().lock();
+        try {
+            long startTime = System.currentTimeMillis();
+            for (int segmentId : listSegmentIds()) {
+                Segment segment = new Segment(segmentId);
+                _segments.put(Integer.valueOf(segmentId), segment);
+                recover(segment);
+            }
+            _activeSegment = _segments.isEmpty() ? rollSegment() : _segments.lastEntry().getValue();
+
+            LOGGER.info("MappedFileCache:[id={0}] recovered {1} keys from {2} segments in {3} ms.",
+                getId(), _index.size(), _segments.size(), System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            closeSegments();
+            throw new CacheException("Recover mapped file cache exception: " + _directory, e);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        if (_compactionInterval > 0) {
+            _compactor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MappedFileCache-compactor"));
+            _compactor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Compact mapped file cache exception.", e);
+                    }
+                }
+
+            }, _compactionInterval, _compactionInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doDestroy() {
+        if (_compactor != null) {
+            _compactor.shutdownNow();
+            _compactor = null;
+        }
+
+        _lock.writeLock().lock();
+        try {
+            for (Segment segment : _segments.values()) {
+                segment._buffer.force();
+            }
+            closeSegments();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        checkStates();
+        checkKey(key);
+        Location location;
+        _lock.readLock().lock();
+        try {
+            location = _index.get(key);
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (location != null && location.isExpired(System.currentTimeMillis())) {
+            expire(key, location);
+            return false;
+        }
+        return location != null;
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        checkStates();
+        checkKey(key);
+
+        long expiredAt = expiredTime > 0 ? System.currentTimeMillis() + expiredTime : UN_EXPIRED_TIME;
+        byte[] bytes = serialize(value);
+
+        _lock.writeLock().lock();
+        try {
+            return append(TYPE_PUT, key, bytes, expiredAt);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected Map<String, Boolean> putBatch(Map<String, Object> values, long expiredTime) {
+        checkStates();
+        long expiredAt = expiredTime > 0 ? System.currentTimeMillis() + expiredTime : UN_EXPIRED_TIME;
+        Map<String, byte[]> bytes = new HashMap<String, byte[]>(values.size() * 2);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            checkKey(entry.getKey());
+            bytes.put(entry.getKey(), serialize(entry.getValue()));
+        }
+
+        Map<String, Boolean> results = new HashMap<String, Boolean>(values.size() * 2);
+        _lock.writeLock().lock(); // one lock round for the whole batch
+        try {
+            for (Map.Entry<String, byte[]> entry : bytes.entrySet()) {
+                results.put(entry.getKey(),
+                    Boolean.valueOf(append(TYPE_PUT, entry.getKey(), entry.getValue(), expiredAt)));
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+        return results;
+    }
+
+    @Override
+    public <T> T get(String key) {
+        checkStates();
+        checkKey(key);
+
+        byte[] bytes = null;
+        Location expired = null;
+        _lock.readLock().lock();
+        try {
+            Location location = _index.get(key);
+            if (location == null) {
+                return null;
+            }
+            if (location.isExpired(System.currentTimeMillis())) {
+                expired = location;
+            } else {
+                bytes = readValue(location);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (expired != null) {
+            expire(key, expired);
+            return null;
+        }
+        return this.<T>deserialize(bytes);
+    }
+
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        checkStates();
+        Map<String, byte[]> bytes = new HashMap<String, byte[]>(keys.length * 2);
+        Map<String, Location> expired = null;
+        _lock.readLock().lock(); // one lock round for the whole batch
+        try {
+            long now = System.currentTimeMillis();
+            for (String key : keys) {
+                Location location = _index.get(key);
+                if (location == null) {
+                    continue;
+                }
+                if (location.isExpired(now)) {
+                    if (expired == null) {
+                        expired = new HashMap<String, Location>();
+                    }
+                    expired.put(key, location);
+                } else {
+                    bytes.put(key, readValue(location));
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (expired != null) {
+            _lock.writeLock().lock();
+            try {
+                for (Map.Entry<String, Location> entry : expired.entrySet()) {
+                    unindex(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                _lock.writeLock().unlock();
+            }
+        }
+
+        Map<String, T> values = new HashMap<String, T>(bytes.size() * 2);
+        for (Map.Entry<String, byte[]> entry : bytes.entrySet()) {
+            values.put(entry.getKey(), this.<T>deserialize(entry.getValue()));
+        }
+        return values;
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        checkStates();
+        checkKey(key);
+
+        byte[] bytes = null;
+        _lock.writeLock().lock();
+        try {
+            Location location = _index.get(key);
+            if (location == null) {
+                return null;
+            }
+            if (!location.isExpired(System.currentTimeMillis())) {
+                bytes = readValue(location);
+            }
+            append(TYPE_REMOVE, key, new byte[0], UN_EXPIRED_TIME);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        return bytes == null ? null : this.<T>deserialize(bytes);
+    }
+
+    @Override
+    public boolean clear() {
+        checkStates();
+        _lock.writeLock().lock();
+        try {
+            for (Segment segment : _segments.values()) {
+                segment.delete();
+            }
+            _segments.clear();
+            _index.clear();
+            _activeSegment = rollSegment();
+            return true;
+        } catch (IOException e) {
+            throw new CacheException("Clear mapped file cache exception: " + _directory, e);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getNumber(String key) {
+        Long value = get(key);
+        return value == null ? 0L : value.longValue();
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        return addNumber(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        return addNumber(key, -value);
+    }
+
+    // ---- public methods
+    /**
+     * Drops the expired keys from the index, then compacts every segment, except
+     * the appending one, whose dead bytes ratio reaches the compaction ratio.
+     * A compaction stops when the cache is cleared or shut down meanwhile.
+     *
+     * @return compacted segment number.
+     */
+    public int compact() {
+        checkStates();
+
+        List<Segment> candidates = new ArrayList<Segment>();
+        _lock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<String, Location>> it = _index.entrySet().iterator(); it.hasNext(); ) {
+                Location location = it.next().getValue();
+                if (location.isExpired(now)) {
+                    it.remove();
+                    unlink(location);
+                }
+            }
+
+            for (Segment segment : _segments.values()) {
+                if (segment != _activeSegment && segment.getDeadRatio() >= _compactionRatio) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        int compacted = 0;
+        for (Segment segment : candidates) {
+            try {
+                if (!compact(segment)) {
+                    break;
+                }
+                compacted++;
+            } catch (IOException e) {
+                throw new CacheException("Compact segment exception: " + segment._file, e);
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return segment number.
+     */
+    public int getSegmentNumber() {
+        _lock.readLock().lock();
+        try {
+            return _segments.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of indexed keys, including expired ones.
+     *
+     * @return indexed key number.
+     */
+    public int getKeyNumber() {
+        _lock.readLock().lock();
+        try {
+            return _index.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    // ---- private methods
+    private long addNumber(String key, long delta) {
+        checkStates();
+        checkKey(key);
+        _lock.writeLock().lock();
+        try {
+            Location location = _index.get(key);
+            long expiredAt = UN_EXPIRED_TIME;
+            long oldValue = 0L;
+            if (location != null && !location.isExpired(System.currentTimeMillis())) {
+                Long value = deserialize(readValue(location));
+                oldValue = value == null ? 0L : value.longValue();
+                expiredAt = location._expiredAt;
+            }
+
+            long newValue = oldValue + delta;
+            if (!append(TYPE_PUT, key, serialize(Long.valueOf(newValue)), expiredAt)) {
+                throw new CacheException("Could not append number record: " + key);
+            }
+            return newValue;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // must hold the write lock
+    private boolean append(byte type, String key, byte[] value, long expiredAt) {
+        byte[] keyBytes = key.getBytes(KEY_CHARSET);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Key is too long: " + key);
+        }
+
+        int length = HEADER_SIZE + keyBytes.length + value.length;
+        if (length > _segmentSize) {
+            return false;
+        }
+
+        try {
+            if (_activeSegment._writePosition + length > _segmentSize) {
+                _activeSegment = rollSegment();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Roll segment file exception: " + _directory, e);
+        }
+
+        Segment segment = _activeSegment;
+        int offset = segment._writePosition;
+        ByteBuffer buffer = segment._buffer;
+        buffer.position(offset + 8);
+        buffer.put(type);
+        buffer.putLong(expiredAt);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        buffer.putInt(offset + 4, checksum(buffer, offset + 8, length - 8));
+        buffer.putInt(offset, length); // length goes last, a torn record reads as the log end
+
+        segment._writePosition = offset + length;
+        if (type == TYPE_PUT) {
+            segment._liveBytes += length;
+            unlink(_index.put(key, new Location(segment._id, offset, length, expiredAt)));
+        } else {
+            unlink(_index.remove(key));
+        }
+        return true;
+    }
+
+    // drops the expired location from the index unless the key is written meanwhile.
+    private void expire(String key, Location location) {
+        _lock.writeLock().lock();
+        try {
+            unindex(key, location);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // must hold the write lock
+    private void unindex(String key, Location location) {
+        if (_index.get(key) == location) {
+            _index.remove(key);
+            unlink(location);
+        }
+    }
+
+    // must hold the write lock
+    private void unlink(Location location) {
+        if (location != null) {
+            Segment segment = _segments.get(Integer.valueOf(location._segmentId));
+            if (segment != null) {
+                segment._liveBytes -= location._length;
+            }
+        }
+    }
+
+    // must hold the read or write lock
+    private byte[] readValue(Location location) {
+        ByteBuffer buffer = _segments.get(Integer.valueOf(location._segmentId))._buffer.duplicate();
+        int keyLength = buffer.getShort(location._offset + 17) & 0xFFFF;
+        int valuePosition = location._offset + HEADER_SIZE + keyLength;
+        byte[] bytes = new byte[buffer.getInt(valuePosition - 4)];
+        buffer.position(valuePosition);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // must hold the write lock
+    private void recover(Segment segment) {
+        ByteBuffer buffer = segment._buffer;
+        long now = System.currentTimeMillis();
+        int offset = 0;
+
+        while (offset + HEADER_SIZE <= _segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length < HEADER_SIZE || offset + length > _segmentSize
+                    || buffer.getInt(offset + 4) != checksum(buffer, offset + 8, length - 8)) {
+                break; // log end or torn record
+            }
+
+            byte type = buffer.get(offset + 8);
+            long expiredAt = buffer.getLong(offset + 9);
+            byte[] keyBytes = new byte[buffer.getShort(offset + 17) & 0xFFFF];
+            ByteBuffer keyBuffer = buffer.duplicate();
+            keyBuffer.position(offset + 19);
+            keyBuffer.get(keyBytes);
+            String key = new String(keyBytes, KEY_CHARSET);
+
+            Location location = new Location(segment._id, offset, length, expiredAt);
+            if (type == TYPE_PUT && !location.isExpired(now)) {
+                segment._liveBytes += length;
+                unlink(_index.put(key, location));
+            } else {
+                unlink(_index.remove(key));
+            }
+            offset += length;
+        }
+
+        segment._writePosition = offset;
+    }
+
+    // returns false if the segment is dropped meanwhile by a clear or a shutdown.
+    private boolean compact(Segment segment) throws IOException {
+        int copied = 0;
+        int offset = 0;
+        while (offset < segment._writePosition) {
+            _lock.writeLock().lock();
+            try {
+                if (!isOpen(segment)) {
+                    return false;
+                }
+
+                ByteBuffer buffer = segment._buffer.duplicate();
+                int length = buffer.getInt(offset);
+                byte type = buffer.get(offset + 8);
+                long expiredAt = buffer.getLong(offset + 9);
+                byte[] keyBytes = new byte[buffer.getShort(offset + 17) & 0xFFFF];
+                buffer.position(offset + 19);
+                buffer.get(keyBytes);
+                String key = new String(keyBytes, KEY_CHARSET);
+
+                Location location = _index.get(key);
+                if (type == TYPE_PUT && location != null && location._segmentId == segment._id
+                        && location._offset == offset) {
+                    if (location.isExpired(System.currentTimeMillis())) {
+                        append(TYPE_REMOVE, key, new byte[0], UN_EXPIRED_TIME);
+                    } else {
+                        append(TYPE_PUT, key, readValue(location), expiredAt);
+                        copied++;
+                    }
+                } else if (location == null && (type == TYPE_REMOVE || isExpired(expiredAt))
+                        && _segments.firstKey().intValue() != segment._id) {
+                    // older segments may still hold a put of the key, keep a tombstone
+                    // for the removed and for the expired keys dropped from the index.
+                    append(TYPE_REMOVE, key, new byte[0], UN_EXPIRED_TIME);
+                }
+                offset += length;
+            } finally {
+                _lock.writeLock().unlock();
+            }
+        }
+
+        _lock.writeLock().lock();
+        try {
+            if (!isOpen(segment)) {
+                return false;
+            }
+            _activeSegment._buffer.force();
+            _segments.remove(Integer.valueOf(segment._id));
+            segment.delete();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        LOGGER.debug("MappedFileCache:[id={0}] compacted segment {1}, {2} records copied.",
+            getId(), segment._file.getName(), copied);
+        return true;
+    }
+
+    // must hold the read or write lock
+    private boolean isOpen(Segment segment) {
+        return _activeSegment != null && _segments.get(Integer.valueOf(segment._id)) == segment;
+    }
+
+    private static boolean isExpired(long expiredAt) {
+        return expiredAt > 0 && System.currentTimeMillis() >= expiredAt;
+    }
+
+    // must hold the write lock
+    private Segment rollSegment() throws IOException {
+        int segmentId = _segments.isEmpty() ? 1 : _segments.lastKey().intValue() + 1;
+        Segment segment = new Segment(segmentId);
+        _segments.put(Integer.valueOf(segmentId), segment);
+        return segment;
+    }
+
+    private int[] listSegmentIds() {
+        String[] names = _directory.list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+
+        });
+
+        int[] segmentIds = new int[names == null ? 0 : names.length];
+        for (int i = 0; i < segmentIds.length; i++) {
+            String name = names[i];
+            try {
+                segmentIds[i] = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new CacheException("Illegal segment file name: " + name, e);
+            }
+        }
+        Arrays.sort(segmentIds);
+        return segmentIds;
+    }
+
+    private void closeSegments() {
+        for (Segment segment : _segments.values()) {
+            segment.close();
+        }
+        _segments.clear();
+        _index.clear();
+        _activeSegment = null;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[Math.min(length, 4096)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int size = Math.min(remaining, bytes.length);
+            source.get(bytes, 0, size);
+            crc.update(bytes, 0, size);
+            remaining -= size;
+        }
+        return (int) crc.getValue();
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return _serializer.serialize(value);
+        } catch (IOException e) {
+            throw new CacheException("Serialize cache value exception.", e);
+        }
+    }
+
+    private <T> T deserialize(byte[] bytes) {
+        try {
+            return _serializer.deserialize(bytes);
+        } catch (IOException e) {
+            throw new CacheException("Deserialize cache value exception.", e);
+        } catch (ClassNotFoundException e) {
+            throw new CacheException("Deserialize not found cache value class.", e);
+        }
+    }
+
+    // ---- inner classes
+    /**
+     * Location of the latest record of a key.
+     */
+    private static final class Location {
+
+        private final int _segmentId;
+        private final int _offset;
+        private final int _length;
+        private final long _expiredAt;
+
+        private Location(int segmentId, int offset, int length, long expiredAt) {
+            _segmentId = segmentId;
+            _offset = offset;
+            _length = length;
+            _expiredAt = expiredAt;
+        }
+
+        private boolean isExpired(long now) {
+            return _expiredAt > 0 && now >= _expiredAt;
+        }
+
+    }
+
+    /**
+     * A memory mapped log file.
+     */
+    private final class Segment {
+
+        private final int _id;
+        private final File _file;
+        private final RandomAccessFile _raf;
+        private final MappedByteBuffer _buffer;
+        /** end of the written records, guarded by lock */
+        private int _writePosition;
+        /** bytes of the indexed records, guarded by lock */
+        private long _liveBytes;
+
+        private Segment(int id) throws IOException {
+            _id = id;
+            _file = new File(_directory, String.format("%010d", Integer.valueOf(id)) + SEGMENT_SUFFIX);
+            _raf = new RandomAccessFile(_file, "rw");
+            try {
+                _buffer = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+            } catch (IOException e) {
+                _raf.close();
+                throw e;
+            }
+        }
+
+        private double getDeadRatio() {
+            return _writePosition == 0 ? 0D : 1D - (double) _liveBytes / _writePosition;
+        }
+
+        private void close() {
+            try {
+                _raf.close(); // the mapping is released when the buffer is collected.
+            } catch (IOException e) {
+                LOGGER.warn("Close segment file exception: {0}", _file);
+            }
+        }
+
+        private void delete() {
+            close();
+            if (!_file.delete()) {
+                LOGGER.warn("Could not delete segment file: {0}", _file);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,718 @@
+package com.mtoolkit.cache.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mtoolkit.cache.CacheException;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.support.JdkSerializer;
+
+/**
+ * Off-heap cache engine driver implementation.
+ * <p>
+ * Values are serialized and stored in direct {@link ByteBuffer} slabs, only a
+ * compact index of the chunk locations stays on heap, so large caches do not
+ * burden the garbage collector. Like memcached, slabs are carved into chunks
+ * of size classes growing by a factor of 1.25, a value is stored into the
+ * smallest chunk which can hold it. Slabs are allocated lazily until the
+ * memory limit is reached. Then a put without a free chunk purges the expired
+ * values, at most once per purge interval, and otherwise evicts a value of its
+ * own size class by the CLOCK policy, which spares the values read since the
+ * hand last passed them. A size class without values takes over the least
+ * used slab of the size class owning the most slabs, evicting its values.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class OffHeapCache extends AbstractCache {
+
+    /** value serializer */
+    private final Serializer _serializer;
+    /** max off-heap memory, in bytes */
+    private final long _maxMemory;
+    /** size of every slab, in bytes */
+    private final int _slabSize;
+    /** slab classes, ordered by chunk size */
+    private final SlabClass[] _slabClasses;
+    /** key to chunk location index */
+    private final ConcurrentHashMap<String, Pointer> _index = new ConcurrentHashMap<String, Pointer>(1024, 0.75F, 16);
+    /** locks to keep increase and decrease atomic */
+    private final Object[] _counterLocks = new Object[COUNTER_LOCK_NUMBER];
+
+    /** allocated slab memory, in bytes */
+    private final AtomicLong _allocatedMemory = new AtomicLong();
+    /** stored value bytes */
+    private final AtomicLong _payloadBytes = new AtomicLong();
+    /** puts rejected for no memory or too large value */
+    private final AtomicLong _rejectedCount = new AtomicLong();
+    /** values evicted for lack of memory */
+    private final AtomicLong _evictedCount = new AtomicLong();
+    /** earliest time of the next purge on a full cache, in milliseconds */
+    private final AtomicLong _nextPurgeTime = new AtomicLong();
+
+    public static final String DEF_CACHE_ID = OffHeapCache.class.getName();
+    public static final long DEF_MAX_MEMORY = 64 * 1024 * 1024L;
+    public static final int DEF_SLAB_SIZE = 1024 * 1024;
+    /** min interval of the purges on a full cache, in milliseconds */
+    public static final long DEF_PURGE_INTERVAL = 1000L;
+
+    private static final long UN_EXPIRED_TIME = -1L;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double CHUNK_GROWTH_FACTOR = 1.25D;
+    private static final int COUNTER_LOCK_NUMBER = 64;
+
+    // ---- constructors
+    public OffHeapCache() {
+        this(DEF_CACHE_ID);
+    }
+
+    public OffHeapCache(String id) {
+        this(id, DEF_MAX_MEMORY);
+    }
+
+    public OffHeapCache(String id, long maxMemory) {
+        this(id, maxMemory, new JdkSerializer());
+    }
+
+    public OffHeapCache(String id, long maxMemory, Serializer serializer) {
+        this(id, maxMemory, DEF_SLAB_SIZE, serializer);
+    }
+
+    public OffHeapCache(String id, long maxMemory, int slabSize, Serializer serializer) {
+        super(id);
+        if (serializer == null) {
+            throw new NullPointerException("serializer");
+        }
+        if (slabSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Slab size must not less than " + MIN_CHUNK_SIZE + ": " + slabSize);
+        }
+        if (maxMemory < slabSize) {
+            throw new IllegalArgumentException("Max memory must not less than slab size: " + maxMemory);
+        }
+
+        _serializer = serializer;
+        _maxMemory = maxMemory;
+        _slabSize = slabSize;
+        _slabClasses = createSlabClasses(slabSize);
+        for (int i = 0; i < _counterLocks.length; i++) {
+            _counterLocks[i] = new Object();
+        }
+    }
+
+    // ---- implement methods
+    @Override
+    protected void doInitialize() {
+    }
+
+    @Override
+    protected void doDestroy() {
+        _index.clear();
+        for (SlabClass slabClass : _slabClasses) {
+            slabClass.release();
+        }
+        _allocatedMemory.set(0L);
+        _payloadBytes.set(0L);
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        checkStates();
+        checkKey(key);
+        Pointer pointer = _index.get(key);
+        if (pointer == null) {
+            return false;
+        } else if (pointer.isExpired(System.currentTimeMillis())) {
+            release(key, pointer);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    @Override
+    public boolean put(String key, Object value) {
+        return put(key, value, UN_EXPIRED_TIME);
+    }
+
+    @Override
+    public boolean put(String key, Object value, CasOperation<Object> operation) {
+        return put(key, value, UN_EXPIRED_TIME, operation);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        checkStates();
+        checkKey(key);
+        if (key.isEmpty()) {
+            return false;
+        }
+
+        long expiredAt = expiredTime > 0 ? System.currentTimeMillis() + expiredTime : UN_EXPIRED_TIME;
+        return store(key, serialize(value), expiredAt);
+    }
+
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        return getEach(keys); // local lookups, no need to fan out.
+    }
+    
+    @Override
+    public <T> T get(String key) {
+        checkStates();
+        checkKey(key);
+        byte[] bytes = load(key);
+        return bytes == null ? null : this.<T>deserialize(bytes);
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        checkStates();
+        checkKey(key);
+        Pointer pointer = _index.remove(key);
+        if (pointer == null) {
+            return null;
+        }
+
+        SlabClass slabClass = _slabClasses[pointer._slabClass];
+        byte[] bytes = null;
+        slabClass._lock.lock();
+        try {
+            if (!pointer.isExpired(System.currentTimeMillis())) {
+                bytes = slabClass.read(pointer._chunk, pointer._length);
+            }
+            slabClass.free(pointer._chunk);
+        } finally {
+            slabClass._lock.unlock();
+        }
+        _payloadBytes.addAndGet(-pointer._length);
+
+        return bytes == null ? null : this.<T>deserialize(bytes);
+    }
+
+    @Override
+    public boolean clear() {
+        checkStates();
+        // releases entry by entry, concurrent puts may be indexing their chunks.
+        for (Entry<String, Pointer> entry : _index.entrySet()) {
+            release(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    @Override
+    public long getNumber(String key) {
+        Long value = get(key);
+        return value == null ? 0L : value.longValue();
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        return addNumber(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        return addNumber(key, -value);
+    }
+
+    // ---- public methods
+    /**
+     * Returns the max off-heap memory, in bytes.
+     *
+     * @return max off-heap memory.
+     */
+    public long getMaxMemory() {
+        return _maxMemory;
+    }
+
+    /**
+     * Returns the off-heap memory reserved by the allocated slabs, in bytes.
+     *
+     * @return allocated off-heap memory.
+     */
+    public long getAllocatedMemory() {
+        return _allocatedMemory.get();
+    }
+
+    /**
+     * Returns the memory of the chunks holding values, in bytes.
+     *
+     * @return used chunk memory.
+     */
+    public long getUsedMemory() {
+        long usedMemory = 0L;
+        for (SlabClass slabClass : _slabClasses) {
+            usedMemory += (long) slabClass._usedChunks * slabClass._chunkSize;
+        }
+        return usedMemory;
+    }
+
+    /**
+     * Returns the serialized value bytes stored currently.
+     *
+     * @return stored value bytes.
+     */
+    public long getPayloadBytes() {
+        return _payloadBytes.get();
+    }
+
+    /**
+     * Returns the internal fragmentation, the ratio of the used chunk memory
+     * wasted by the gap between the value size and its chunk size.
+     *
+     * @return fragmentation ratio, between 0 and 1.
+     */
+    public double getFragmentation() {
+        long usedMemory = getUsedMemory();
+        return usedMemory == 0L ? 0D : 1D - (double) getPayloadBytes() / usedMemory;
+    }
+
+    /**
+     * Returns the number of entries in the index, including expired ones
+     * which have not been purged yet.
+     *
+     * @return entry number.
+     */
+    public int getEntryNumber() {
+        return _index.size();
+    }
+
+    /**
+     * Returns the number of puts rejected for lack of memory or too large value.
+     *
+     * @return rejected put number.
+     */
+    public long getRejectedCount() {
+        return _rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of values evicted for lack of memory.
+     *
+     * @return evicted value number.
+     */
+    public long getEvictedCount() {
+        return _evictedCount.get();
+    }
+
+    /**
+     * Removes every expired entry and frees its chunk.
+     *
+     * @return removed entry number.
+     */
+    public int purgeExpired() {
+        int purged = 0;
+        long now = System.currentTimeMillis();
+        Iterator<Entry<String, Pointer>> iterator = _index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, Pointer> entry = iterator.next();
+            if (entry.getValue().isExpired(now) && release(entry.getKey(), entry.getValue())) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    // ---- private methods
+    private boolean store(String key, byte[] bytes, long expiredAt) {
+        int slabClassIndex = slabClassFor(bytes.length);
+        if (slabClassIndex < 0) {
+            _rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        SlabClass slabClass = _slabClasses[slabClassIndex];
+        int chunk = slabClass.allocate(key, bytes, false);
+        if (chunk < 0 && isPurgeDue() && purgeExpired() > 0) {
+            chunk = slabClass.allocate(key, bytes, false);
+        }
+        if (chunk < 0) {
+            chunk = slabClass.allocate(key, bytes, true);
+        }
+        if (chunk < 0) {
+            _rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        _payloadBytes.addAndGet(bytes.length);
+        Pointer older = _index.put(key, new Pointer(slabClassIndex, chunk, bytes.length, expiredAt));
+        if (older != null) {
+            free(older);
+        }
+        return true;
+    }
+
+    private byte[] load(String key) {
+        while (true) {
+            Pointer pointer = _index.get(key);
+            if (pointer == null) {
+                return null;
+            } else if (pointer.isExpired(System.currentTimeMillis())) {
+                release(key, pointer);
+                return null;
+            }
+
+            SlabClass slabClass = _slabClasses[pointer._slabClass];
+            slabClass._lock.lock();
+            try {
+                // the chunk is freed under the lock, so it is still valid if still indexed.
+                if (_index.get(key) == pointer) {
+                    slabClass._referenced.set(pointer._chunk);
+                    return slabClass.read(pointer._chunk, pointer._length);
+                }
+            } finally {
+                slabClass._lock.unlock();
+            }
+        }
+    }
+
+    private long addNumber(String key, long delta) {
+        checkStates();
+        checkKey(key);
+        synchronized (_counterLocks[(key.hashCode() & 0x7FFFFFFF) % COUNTER_LOCK_NUMBER]) {
+            Pointer pointer = _index.get(key);
+            // an expired number restarts without expiry, like a missing one.
+            long expiredAt = pointer == null || pointer.isExpired(System.currentTimeMillis())
+                ? UN_EXPIRED_TIME : pointer._expiredAt;
+
+            Long value = get(key);
+            long newValue = (value == null ? 0L : value.longValue()) + delta;
+            if (!store(key, serialize(Long.valueOf(newValue)), expiredAt)) {
+                throw new CacheException("Off-heap cache has no memory to store number: " + key);
+            }
+            return newValue;
+        }
+    }
+
+    private boolean release(String key, Pointer pointer) {
+        if (_index.remove(key, pointer)) {
+            free(pointer);
+            return true;
+        }
+        return false;
+    }
+
+    private void free(Pointer pointer) {
+        SlabClass slabClass = _slabClasses[pointer._slabClass];
+        slabClass._lock.lock();
+        try {
+            slabClass.free(pointer._chunk);
+        } finally {
+            slabClass._lock.unlock();
+        }
+        _payloadBytes.addAndGet(-pointer._length);
+    }
+
+    // one purge per interval, purges scan the whole index.
+    private boolean isPurgeDue() {
+        long now = System.currentTimeMillis();
+        long nextPurgeTime = _nextPurgeTime.get();
+        return now >= nextPurgeTime && _nextPurgeTime.compareAndSet(nextPurgeTime, now + DEF_PURGE_INTERVAL);
+    }
+
+    private int slabClassFor(int length) {
+        for (int i = 0; i < _slabClasses.length; i++) {
+            if (_slabClasses[i]._chunkSize >= length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private SlabClass[] createSlabClasses(int slabSize) {
+        List<SlabClass> slabClasses = new ArrayList<SlabClass>();
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < slabSize / 2) {
+            slabClasses.add(new SlabClass(slabClasses.size(), chunkSize));
+            chunkSize = (int) (chunkSize * CHUNK_GROWTH_FACTOR + 7) & ~7; // 8 bytes aligned
+        }
+        slabClasses.add(new SlabClass(slabClasses.size(), slabSize));
+        return slabClasses.toArray(new SlabClass[slabClasses.size()]);
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return _serializer.serialize(value);
+        } catch (IOException e) {
+            throw new CacheException("Serialize cache value exception.", e);
+        }
+    }
+
+    private <T> T deserialize(byte[] bytes) {
+        try {
+            return _serializer.deserialize(bytes);
+        } catch (IOException e) {
+            throw new CacheException("Deserialize cache value exception.", e);
+        } catch (ClassNotFoundException e) {
+            throw new CacheException("Deserialize not found cache value class.", e);
+        }
+    }
+
+    // ---- inner classes
+    /**
+     * Chunk location of a cache value.
+     */
+    private static final class Pointer {
+
+        private final int _slabClass;
+        private final int _chunk;
+        private final int _length;
+        private final long _expiredAt;
+
+        private Pointer(int slabClass, int chunk, int length, long expiredAt) {
+            _slabClass = slabClass;
+            _chunk = chunk;
+            _length = length;
+            _expiredAt = expiredAt;
+        }
+
+        private boolean isExpired(long now) {
+            return _expiredAt > 0 && now >= _expiredAt;
+        }
+
+    }
+
+    /**
+     * Slabs carved into chunks of the same size.
+     */
+    private final class SlabClass {
+
+        /** guards slabs, free chunks, owners and buffer positions */
+        private final ReentrantLock _lock = new ReentrantLock();
+        /** index of this slab class */
+        private final int _classIndex;
+        private final int _chunkSize;
+        private final int _chunksPerSlab;
+        private final List<ByteBuffer> _slabs = new ArrayList<ByteBuffer>();
+        /** stack of freed chunks */
+        private int[] _freeChunks = new int[16];
+        private int _freeNumber;
+        /** next never used chunk */
+        private int _nextChunk;
+        private volatile int _usedChunks;
+        /** keys of the used chunks */
+        private String[] _owners = new String[0];
+        /** chunks read since the clock hand passed them */
+        private final BitSet _referenced = new BitSet();
+        /** clock hand of the eviction */
+        private int _hand;
+        /** slabs owned currently, the slabs lent to other classes are null */
+        private volatile int _slabNumber;
+
+        private SlabClass(int classIndex, int chunkSize) {
+            _classIndex = classIndex;
+            _chunkSize = chunkSize;
+            _chunksPerSlab = _slabSize / chunkSize;
+        }
+
+        private int allocate(String key, byte[] bytes, boolean evict) {
+            _lock.lock();
+            try {
+                int chunk;
+                if (_freeNumber > 0) {
+                    chunk = _freeChunks[--_freeNumber];
+                } else if (_nextChunk < _slabs.size() * _chunksPerSlab) {
+                    chunk = _nextChunk++;
+                } else if (reserveSlab()) {
+                    addSlab(ByteBuffer.allocateDirect(_slabSize));
+                    chunk = _nextChunk++;
+                } else if (evict && (evictOne() || borrowSlab())) {
+                    chunk = _freeNumber > 0 ? _freeChunks[--_freeNumber] : _nextChunk++;
+                } else {
+                    return -1;
+                }
+
+                ByteBuffer slab = _slabs.get(chunk / _chunksPerSlab);
+                slab.position((chunk % _chunksPerSlab) * _chunkSize);
+                slab.put(bytes);
+                _owners[chunk] = key;
+                _referenced.clear(chunk);
+                _usedChunks++;
+                return chunk;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        // must hold the lock
+        private byte[] read(int chunk, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer slab = _slabs.get(chunk / _chunksPerSlab);
+            slab.position((chunk % _chunksPerSlab) * _chunkSize);
+            slab.get(bytes);
+            return bytes;
+        }
+
+        // must hold the lock
+        private void free(int chunk) {
+            if (_freeNumber == _freeChunks.length) {
+                int[] freeChunks = new int[_freeChunks.length << 1];
+                System.arraycopy(_freeChunks, 0, freeChunks, 0, _freeNumber);
+                _freeChunks = freeChunks;
+            }
+            _freeChunks[_freeNumber++] = chunk;
+            _owners[chunk] = null;
+            _usedChunks--;
+        }
+
+        // must hold the lock
+        private void addSlab(ByteBuffer slab) {
+            _slabs.add(slab);
+            _slabNumber++;
+            String[] owners = new String[_slabs.size() * _chunksPerSlab];
+            System.arraycopy(_owners, 0, owners, 0, _owners.length);
+            _owners = owners;
+        }
+
+        // must hold the lock, takes over a slab of the class owning the most slabs.
+        private boolean borrowSlab() {
+            SlabClass donor = null;
+            for (SlabClass slabClass : _slabClasses) {
+                if (slabClass != this && slabClass._slabNumber > 0
+                        && (donor == null || slabClass._slabNumber > donor._slabNumber)) {
+                    donor = slabClass;
+                }
+            }
+            // never waits for another class lock, the donor may be borrowing too.
+            if (donor == null || !donor._lock.tryLock()) {
+                return false;
+            }
+
+            ByteBuffer slab;
+            try {
+                slab = donor.lendSlab();
+            } finally {
+                donor._lock.unlock();
+            }
+            if (slab == null) {
+                return false;
+            }
+            slab.clear();
+            addSlab(slab);
+            return true;
+        }
+
+        // must hold the lock, evicts the values of the least used slab and lends it.
+        private ByteBuffer lendSlab() {
+            int slab = -1;
+            int minUsed = Integer.MAX_VALUE;
+            for (int i = 0; i < _slabs.size(); i++) {
+                if (_slabs.get(i) == null) {
+                    continue;
+                }
+                int used = 0;
+                for (int chunk = i * _chunksPerSlab, end = chunk + _chunksPerSlab; chunk < end; chunk++) {
+                    if (_owners[chunk] != null) {
+                        used++;
+                    }
+                }
+                if (used < minUsed) {
+                    slab = i;
+                    minUsed = used;
+                }
+            }
+            if (slab < 0) {
+                return null;
+            }
+
+            int from = slab * _chunksPerSlab;
+            int to = from + _chunksPerSlab;
+            for (int chunk = from; chunk < to; chunk++) {
+                String key = _owners[chunk];
+                if (key != null && !evict(key, chunk)) {
+                    return null; // a put is indexing the chunk.
+                }
+            }
+
+            int freeNumber = 0;
+            for (int i = 0; i < _freeNumber; i++) {
+                if (_freeChunks[i] < from || _freeChunks[i] >= to) {
+                    _freeChunks[freeNumber++] = _freeChunks[i];
+                }
+            }
+            _freeNumber = freeNumber;
+            _referenced.clear(from, to);
+            if (_nextChunk > from && _nextChunk < to) {
+                _nextChunk = to;
+            }
+            _slabNumber--;
+            return _slabs.set(slab, null);
+        }
+
+        // must hold the lock
+        private boolean evict(String key, int chunk) {
+            // skips the chunks not indexed yet.
+            Pointer pointer = _index.get(key);
+            if (pointer != null && pointer._slabClass == _classIndex && pointer._chunk == chunk
+                    && _index.remove(key, pointer)) {
+                free(chunk);
+                _payloadBytes.addAndGet(-pointer._length);
+                _evictedCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        // must hold the lock
+        private boolean evictOne() {
+            // two rounds, the first one may only clear the reference bits.
+            for (int i = 0, steps = _nextChunk * 2; i < steps; i++) {
+                int chunk = _hand;
+                _hand = _hand + 1 < _nextChunk ? _hand + 1 : 0;
+
+                String key = _owners[chunk];
+                if (key == null) {
+                    continue;
+                }
+                if (_referenced.get(chunk)) {
+                    _referenced.clear(chunk);
+                    continue;
+                }
+                if (evict(key, chunk)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void release() {
+            _lock.lock();
+            try {
+                _freeNumber = 0;
+                _nextChunk = 0;
+                _usedChunks = 0;
+                _slabs.clear();
+                _freeChunks = new int[16];
+                _owners = new String[0];
+                _referenced.clear();
+                _hand = 0;
+                _slabNumber = 0;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        private boolean reserveSlab() {
+            while (true) {
+                long allocated = _allocatedMemory.get();
+                if (allocated + _slabSize > _maxMemory) {
+                    return false;
+                }
+                if (_allocatedMemory.compareAndSet(allocated, allocated + _slabSize)) {
+                    return true;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.mtoolkit.cache.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CacheFutureListener;
+
+/**
+ * A future which is completed explicitly by the producer of its result, such
+ * as an I/O callback, and notifies its listeners in the completing thread.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class PendingFuture<T> implements CacheFuture<T> {
+
+    /** released when the future completes */
+    private final CountDownLatch _latch = new CountDownLatch(1);
+    /** completion flag, only the first completion takes effect */
+    private final AtomicBoolean _completed = new AtomicBoolean();
+    /** result value */
+    private volatile T _value;
+    /** failure cause */
+    private volatile Throwable _cause;
+    /** listeners to notify, null once notified, guarded by this */
+    private List<CacheFutureListener<? super T>> _listeners = new ArrayList<CacheFutureListener<? super T>>(1);
+
+    private static final Loggers LOGGER = Loggers.getLoggers(PendingFuture.class);
+
+    /**
+     * Completes this future with the value.
+     *
+     * @param  value result value.
+     *
+     * @return true if this call completed the future.
+     */
+    public boolean set(T value) {
+        if (!_completed.compareAndSet(false, true)) {
+            return false;
+        }
+        _value = value;
+        _latch.countDown();
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * Completes this future with the failure.
+     *
+     * @param  cause failure cause.
+     *
+     * @return true if this call completed the future.
+     */
+    public boolean setException(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        if (!_completed.compareAndSet(false, true)) {
+            return false;
+        }
+        _cause = cause;
+        _latch.countDown();
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    public CacheFuture<T> addListener(CacheFutureListener<? super T> listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        synchronized (this) {
+            if (_listeners != null) {
+                _listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return _latch.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        _latch.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!_latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    // ---- private methods
+    private void notifyListeners() {
+        List<CacheFutureListener<? super T>> listeners;
+        synchronized (this) {
+            listeners = _listeners;
+            _listeners = null;
+        }
+        for (CacheFutureListener<? super T> listener : listeners) {
+            notifyListener(listener);
+        }
+    }
+
+    private void notifyListener(CacheFutureListener<? super T> listener) {
+        try {
+            if (_cause != null) {
+                listener.onFailure(_cause);
+            } else {
+                listener.onSuccess(_value);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cache future listener exception.", e);
+        }
+    }
+
+    private T getResult() throws ExecutionException {
+        if (_cause != null) {
+            throw new ExecutionException(_cause);
+        }
+        return _value;
+    }
+
+}
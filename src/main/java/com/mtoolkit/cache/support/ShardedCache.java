@@ -0,0 +1,571 @@
+package com.mtoolkit.cache.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.AsyncCache;
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.cache.CasOperation;
+import com.mtoolkit.hash.Hash;
+import com.mtoolkit.hash.support.MurmurHash;
+
+/**
+ * Client-side sharded cache implementation over several cache instances.
+ * <p>
+ * Keys are spread over the shards by a Ketama-style consistent hash ring:
+ * every shard is placed on the ring as many virtual nodes, a key belongs to
+ * the first node clockwise from its hash. Adding or removing a shard only
+ * moves the keys of its own nodes. The ring is immutable and replaced by
+ * compare-and-set, so lookups never lock and shards can be changed at runtime.
+ * Multi-key gets and removes are split per shard and run in parallel on the
+ * fan-out thread pool, bounded by the multi-get timeout.
+ * <p>
+ * The sharded cache owns its shards, it starts them on startup and shuts them
+ * down on shutdown. A removed shard is returned to the caller un-touched.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class ShardedCache extends AbstractCache {
+
+    /** key and node hash function */
+    private final Hash _hash;
+    /** virtual nodes of a shard of weight one */
+    private final int _virtualNodes;
+    /** current hash ring */
+    private final AtomicReference<Ring> _ring;
+
+    public static final String DEF_CACHE_ID = ShardedCache.class.getName();
+    /** default virtual nodes of a shard, as ketama */
+    public static final int DEF_VIRTUAL_NODES = 160;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(ShardedCache.class);
+
+    // ---- constructors
+    public ShardedCache() {
+        this(DEF_CACHE_ID);
+    }
+
+    public ShardedCache(String id) {
+        this(id, MurmurHash.getInstance(), DEF_VIRTUAL_NODES);
+    }
+
+    public ShardedCache(String id, Hash hash, int virtualNodes) {
+        super(id);
+        if (hash == null) {
+            throw new NullPointerException("hash");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be a positive number: " + virtualNodes);
+        }
+        _hash = hash;
+        _virtualNodes = virtualNodes;
+        _ring = new AtomicReference<Ring>(new Ring(new LinkedHashMap<String, Shard>()));
+    }
+
+    // ---- shard methods
+    /**
+     * Adds a shard of weight one.
+     *
+     * @param shard shard cache, identified by its id.
+     *
+     * @see #addShard(Cache, int)
+     */
+    public void addShard(Cache shard) {
+        addShard(shard, 1);
+    }
+
+    /**
+     * Adds a shard, which is started first if this cache is running. A shard
+     * of weight n gets n times the virtual nodes, and about n times the keys,
+     * of a shard of weight one.
+     *
+     * @param shard  shard cache, identified by its id.
+     * @param weight shard weight.
+     *
+     * @throws IllegalArgumentException if a shard of the same id exists.
+     */
+    public void addShard(Cache shard, int weight) {
+        if (shard == null) {
+            throw new NullPointerException("shard");
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Shard weight must be a positive number: " + weight);
+        }
+        checkShardAbsent(_ring.get(), shard);
+
+        boolean started = isInitialized() && !shard.isInitialized();
+        if (started) {
+            shard.startup();
+        }
+
+        Ring ring;
+        do {
+            ring = _ring.get();
+            if (ring._shards.containsKey(shard.getId())) {
+                if (started) {
+                    shard.shutdown(); // a shard of the same id is added meanwhile.
+                }
+                checkShardAbsent(ring, shard);
+            }
+        } while (!_ring.compareAndSet(ring, ring.add(shard, weight)));
+    }
+
+    /**
+     * Removes a shard, its keys move to the neighbouring shards.
+     *
+     * @param  id shard id.
+     *
+     * @return removed shard, or null if absent.
+     */
+    public Cache removeShard(String id) {
+        Ring ring;
+        Shard shard;
+        do {
+            ring = _ring.get();
+            shard = ring._shards.get(id);
+            if (shard == null) {
+                return null;
+            }
+        } while (!_ring.compareAndSet(ring, ring.remove(id)));
+
+        return shard._cache;
+    }
+
+    public Collection<Cache> getShards() {
+        Collection<Shard> shards = _ring.get()._shards.values();
+        List<Cache> caches = new ArrayList<Cache>(shards.size());
+        for (Shard shard : shards) {
+            caches.add(shard._cache);
+        }
+        return caches;
+    }
+
+    /**
+     * Returns the shard a key belongs to.
+     *
+     * @param  key cache key.
+     *
+     * @return shard cache.
+     *
+     * @throws IllegalStateException if there is no shard.
+     */
+    public Cache getShard(String key) {
+        checkKey(key);
+        return _ring.get().locate(_hash.hash(key));
+    }
+
+    // ---- implement methods
+    @Override
+    protected void doInitialize() {
+        for (Shard shard : _ring.get()._shards.values()) {
+            shard._cache.startup();
+        }
+    }
+
+    @Override
+    protected void doDestroy() {
+        for (Shard shard : _ring.get()._shards.values()) {
+            try {
+                shard._cache.shutdown();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Cache[{0}] shutdown shard[{1}] exception.", e, getId(), shard._cache.getId());
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        checkStates();
+        return getShard(key).containsKey(key);
+    }
+
+    @Override
+    public boolean put(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        checkStates();
+        return getShard(key).put(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (getWriteBehindQueue() != null) {
+            return super.asyncPut(key, value, expiredTime, operation);
+        }
+        checkStates();
+        return getShard(key).asyncPut(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public <T> T get(String key) {
+        checkStates();
+        return getShard(key).get(key);
+    }
+
+    @Override
+    public <T> T remove(String key) {
+        checkStates();
+        return getShard(key).remove(key);
+    }
+
+    @Override
+    public <T> Future<T> asyncRemove(String key) {
+        if (getWriteBehindQueue() != null) {
+            return super.asyncRemove(key);
+        }
+        checkStates();
+        return getShard(key).asyncRemove(key);
+    }
+
+    /**
+     * Splits the keys per shard and removes them in parallel. The values of a
+     * shard not answered before the multi-get deadline, or failed, are null in
+     * the result, a late shard may still remove its keys.
+     */
+    @Override
+    public <T> List<T> remove(String[] keys) {
+        checkStates();
+        if (keys == null) {
+            throw new NullPointerException("keys");
+        }
+
+        List<String> removeKeys = new ArrayList<String>(keys.length);
+        for (String key : keys) {
+            if (key != null && !key.isEmpty()) {
+                removeKeys.add(key);
+            }
+        }
+        if (removeKeys.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Ring ring = _ring.get();
+        final List<List<Integer>> groups = group(ring, removeKeys);
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            final List<Integer> indexes = groups.get(i);
+            if (indexes == null) {
+                futures.add(null);
+                continue;
+            }
+            final Cache shard = ring._caches[i];
+            final String[] shardKeys = keysOf(removeKeys, indexes);
+            futures.add(getFanOutPoolManager().submit(new Callable<List<T>>() {
+
+                @Override
+                public List<T> call() throws Exception {
+                    return shard.remove(shardKeys);
+                }
+
+            }));
+        }
+
+        // a failed or late shard does not fail the others, which have removed their keys already.
+        long deadline = System.currentTimeMillis() + getMultiGetTimeout();
+        Object[] values = new Object[removeKeys.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<T>> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                long timeout = Math.max(deadline - System.currentTimeMillis(), 0L);
+                List<T> shardValues = future.get(timeout, TimeUnit.MILLISECONDS);
+                List<Integer> indexes = groups.get(i);
+                for (int j = 0; j < indexes.size(); j++) {
+                    values[indexes.get(j)] = shardValues.get(j);
+                }
+            } catch (TimeoutException e) {
+                LOGGER.warn("Cache[{0}] multi-remove shard[{1}] timeout.", getId(), ring._caches[i].getId());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Cache[{0}] multi-remove shard[{1}] exception.",
+                    e.getCause(), getId(), ring._caches[i].getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> resultList = (List<T>) Arrays.asList(values);
+        return resultList;
+    }
+
+    @Override
+    public boolean clear() {
+        checkStates();
+        boolean cleared = true;
+        for (Shard shard : _ring.get()._shards.values()) {
+            cleared &= shard._cache.clear();
+        }
+        return cleared;
+    }
+
+    @Override
+    public long getNumber(String key) {
+        checkStates();
+        return getShard(key).getNumber(key);
+    }
+
+    @Override
+    public long increase(String key, long value) {
+        checkStates();
+        return getShard(key).increase(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncIncrease(String key, long value) {
+        checkStates();
+        return getShard(key).asyncIncrease(key, value);
+    }
+
+    @Override
+    public long decrease(String key, long value) {
+        checkStates();
+        return getShard(key).decrease(key, value);
+    }
+
+    @Override
+    public Future<Long> asyncDecrease(String key, long value) {
+        checkStates();
+        return getShard(key).asyncDecrease(key, value);
+    }
+
+    @Override
+    public <T> CacheFuture<T> getAsync(String key) {
+        checkStates();
+        Cache shard = getShard(key);
+        if (shard instanceof AsyncCache) {
+            return ((AsyncCache) shard).getAsync(key);
+        }
+        return super.getAsync(key);
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(String key, Object value, long expiredTime, CasOperation<Object> operation) {
+        if (getWriteBehindQueue() != null) {
+            return super.putAsync(key, value, expiredTime, operation);
+        }
+        checkStates();
+        Cache shard = getShard(key);
+        if (shard instanceof AsyncCache) {
+            return ((AsyncCache) shard).putAsync(key, value, expiredTime, operation);
+        }
+        return super.putAsync(key, value, expiredTime, operation);
+    }
+
+    @Override
+    public CacheFuture<Long> increaseAsync(String key, long value) {
+        checkStates();
+        Cache shard = getShard(key);
+        if (shard instanceof AsyncCache) {
+            return ((AsyncCache) shard).increaseAsync(key, value);
+        }
+        return super.increaseAsync(key, value);
+    }
+
+    @Override
+    public CacheFuture<Long> decreaseAsync(String key, long value) {
+        checkStates();
+        Cache shard = getShard(key);
+        if (shard instanceof AsyncCache) {
+            return ((AsyncCache) shard).decreaseAsync(key, value);
+        }
+        return super.decreaseAsync(key, value);
+    }
+
+    /**
+     * Splits the keys per shard and gets every shard in parallel. The values
+     * of a shard not answered before the multi-get deadline, or failed, are
+     * missing from the result.
+     */
+    @Override
+    protected <T> Map<String, T> getBatch(String[] keys) {
+        Ring ring = _ring.get();
+        List<String> getKeys = Arrays.asList(keys);
+        List<List<Integer>> groups = group(ring, getKeys);
+
+        // every shard runs on the fan-out pool, so a slow shard is bounded by the deadline too.
+        List<Future<Map<String, T>>> futures = new ArrayList<Future<Map<String, T>>>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            List<Integer> indexes = groups.get(i);
+            if (indexes == null) {
+                futures.add(null);
+            } else {
+                final Cache shard = ring._caches[i];
+                final String[] shardKeys = keysOf(getKeys, indexes);
+                futures.add(getFanOutPoolManager().submit(new Callable<Map<String, T>>() {
+
+                    @Override
+                    public Map<String, T> call() throws Exception {
+                        return shard.get(shardKeys);
+                    }
+
+                }));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + getMultiGetTimeout();
+        Map<String, T> resultMap = new HashMap<String, T>(keys.length * 2);
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Map<String, T>> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                long timeout = Math.max(deadline - System.currentTimeMillis(), 0L);
+                resultMap.putAll(future.get(timeout, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                LOGGER.warn("Cache[{0}] multi-get shard[{1}] timeout.", getId(), ring._caches[i].getId());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Cache[{0}] multi-get shard[{1}] exception.",
+                    e.getCause(), getId(), ring._caches[i].getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return resultMap;
+    }
+
+    // ---- private methods
+    /**
+     * Groups key indexes by shard index, null for a shard without keys.
+     */
+    private List<List<Integer>> group(Ring ring, List<String> keys) {
+        List<List<Integer>> groups = new ArrayList<List<Integer>>(ring._caches.length);
+        for (int i = 0; i < ring._caches.length; i++) {
+            groups.add(null);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            int shardIndex = ring.indexOf(_hash.hash(keys.get(i)));
+            List<Integer> indexes = groups.get(shardIndex);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                groups.set(shardIndex, indexes);
+            }
+            indexes.add(Integer.valueOf(i));
+        }
+        return groups;
+    }
+
+    private static void checkShardAbsent(Ring ring, Cache shard) {
+        if (ring._shards.containsKey(shard.getId())) {
+            throw new IllegalArgumentException("Shard[" + shard.getId() + "] exists.");
+        }
+    }
+
+    private static String[] keysOf(List<String> keys, List<Integer> indexes) {
+        String[] shardKeys = new String[indexes.size()];
+        for (int i = 0; i < shardKeys.length; i++) {
+            shardKeys[i] = keys.get(indexes.get(i));
+        }
+        return shardKeys;
+    }
+
+    // ---- inner classes
+    private static final class Shard {
+
+        private final Cache _cache;
+        private final int _weight;
+
+        private Shard(Cache cache, int weight) {
+            _cache = cache;
+            _weight = weight;
+        }
+
+    }
+
+    /**
+     * An immutable hash ring, rebuilt on every shard change.
+     */
+    private final class Ring {
+
+        /** shards by id */
+        private final Map<String, Shard> _shards;
+        /** shard caches, indexed by the nodes */
+        private final Cache[] _caches;
+        /** sorted node points */
+        private final int[] _points;
+        /** shard index of every node */
+        private final int[] _nodes;
+
+        private Ring(Map<String, Shard> shards) {
+            _shards = Collections.unmodifiableMap(shards);
+            _caches = new Cache[shards.size()];
+
+            int nodeNumber = 0;
+            for (Shard shard : shards.values()) {
+                nodeNumber += shard._weight * _virtualNodes;
+            }
+
+            // packs point and shard index to sort the nodes by point.
+            long[] packed = new long[nodeNumber];
+            int shardIndex = 0;
+            int nodeIndex = 0;
+            for (Shard shard : shards.values()) {
+                _caches[shardIndex] = shard._cache;
+                int virtualNodes = shard._weight * _virtualNodes;
+                for (int i = 0; i < virtualNodes; i++) {
+                    int point = _hash.hash(shard._cache.getId() + '#' + i);
+                    packed[nodeIndex++] = ((long) point << 32) | shardIndex;
+                }
+                shardIndex++;
+            }
+            Arrays.sort(packed);
+
+            _points = new int[nodeNumber];
+            _nodes = new int[nodeNumber];
+            for (int i = 0; i < nodeNumber; i++) {
+                _points[i] = (int) (packed[i] >> 32);
+                _nodes[i] = (int) packed[i];
+            }
+        }
+
+        private Ring add(Cache cache, int weight) {
+            Map<String, Shard> shards = new LinkedHashMap<String, Shard>(_shards);
+            shards.put(cache.getId(), new Shard(cache, weight));
+            return new Ring(shards);
+        }
+
+        private Ring remove(String id) {
+            Map<String, Shard> shards = new LinkedHashMap<String, Shard>(_shards);
+            shards.remove(id);
+            return new Ring(shards);
+        }
+
+        private int indexOf(int hash) {
+            if (_points.length == 0) {
+                throw new IllegalStateException("Cache[" + getId() + "] has no shard.");
+            }
+            int index = Arrays.binarySearch(_points, hash);
+            if (index < 0) {
+                index = -index - 1;
+                if (index == _points.length) {
+                    index = 0;
+                }
+            }
+            return _nodes[index];
+        }
+
+        private Cache locate(int hash) {
+            return _caches[indexOf(hash)];
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.mtoolkit.cache.support;
+
+import java.io.IOException;
+
+/**
+ * A local cache whose entries can be dumped to a {@link CacheSnapshot} and
+ * restored from it, with their remaining time to live.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ *
+ * @see		com.mtoolkit.cache.support.CacheSnapshot
+ */
+public interface Snapshotable {
+
+    /**
+     * Visits the live entries of this cache, it need not be a consistent view.
+     *
+     * @param  visitor entry visitor.
+     *
+     * @throws IOException if the visitor fails to write an entry.
+     */
+    public void snapshot(EntryVisitor visitor) throws IOException;
+
+    /**
+     * Restores an entry of a snapshot, unless the key is present or the
+     * entry has expired, so newer writes are not overwritten.
+     *
+     * @param  key      cache key.
+     * @param  value    cache value.
+     * @param  deadline time the entry expires at, in epoch milliseconds, or
+     *                  zero if it never expires.
+     *
+     * @return true if the entry is restored.
+     */
+    public boolean restore(String key, Object value, long deadline);
+
+    /**
+     * Visitor of the entries of a snapshotable cache.
+     */
+    public interface EntryVisitor {
+
+        /**
+         * Visits an entry.
+         *
+         * @param  key      cache key.
+         * @param  value    cache value.
+         * @param  deadline time the entry expires at, in epoch milliseconds,
+         *                  or zero if it never expires.
+         *
+         * @throws IOException if the entry fails to be written.
+         */
+        public void visit(String key, Object value, long deadline) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.mtoolkit.cache.support;
+
+/**
+ * A hierarchical timer wheel which expires nodes by their deadlines in O(1).
+ * <p>
+ * Every level is an array of buckets, a bucket is a doubly linked list of the
+ * nodes whose deadlines fall into its time span. Nodes far in the future sit in
+ * the coarse levels and cascade down to the finer levels as time advances, so
+ * advancing the wheel only visits the buckets whose spans passed, never all the
+ * scheduled nodes.
+ * <p>
+ * Level spans, in milliseconds, are powers of two:
+ * <pre>
+ * level 0: 64 buckets of ~1s    (~65s)
+ * level 1: 64 buckets of ~65s   (~70m)
+ * level 2: 32 buckets of ~70m   (~37h)
+ * level 3:  4 buckets of ~37h   (~6d)
+ * level 4:  1 bucket for everything beyond
+ * </pre>
+ * This class is not thread safe, callers must guard it by themselves.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+class TimerWheel {
+
+    /** buckets of every level */
+    private final Node[][] _wheel;
+    /** time of the last advance, in milliseconds */
+    private long _time;
+
+    private static final int[] BUCKETS = new int[] { 64, 64, 32, 4, 1 };
+    private static final int[] SHIFTS  = new int[] { 10, 16, 22, 27, 29 };
+
+    public TimerWheel(long time) {
+        _wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            _wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                _wheel[i][j] = new Sentinel();
+            }
+        }
+        _time = time;
+    }
+
+    /**
+     * Schedules the node by its deadline, reschedules it if it is scheduled already.
+     *
+     * @param node timer node.
+     */
+    public void schedule(Node node) {
+        if (node.isScheduled()) {
+            unlink(node);
+        }
+        link(findBucket(node.getDeadline()), node);
+    }
+
+    /**
+     * Removes the node from the wheel if it is scheduled.
+     *
+     * @param node timer node.
+     */
+    public void deschedule(Node node) {
+        if (node.isScheduled()) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Advances the wheel to the time, expires the nodes whose deadlines
+     * passed and cascades the others down to finer levels.
+     *
+     * @param  time current time, in milliseconds.
+     *
+     * @return the number of nodes which reported expired.
+     */
+    public int advance(long time) {
+        long previousTime = _time;
+        _time = time;
+
+        int expired = 0;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previousTime >>> SHIFTS[i];
+            long delta = (time >>> SHIFTS[i]) - previousTicks;
+            if (delta <= 0L) {
+                break;
+            }
+            expired += expire(i, previousTicks, delta);
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all the scheduled nodes.
+     */
+    public void clear() {
+        for (Node[] buckets : _wheel) {
+            for (Node sentinel : buckets) {
+                Node node = sentinel._next;
+                while (node != sentinel) {
+                    Node next = node._next;
+                    node._prev = null;
+                    node._next = null;
+                    node = next;
+                }
+                sentinel._prev = sentinel;
+                sentinel._next = sentinel;
+            }
+        }
+    }
+
+    // ---- private methods
+    private int expire(int level, long previousTicks, long delta) {
+        Node[] buckets = _wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+
+        int expired = 0;
+        for (int i = start; i < start + steps; i++) {
+            Node sentinel = buckets[i & mask];
+            Node node = sentinel._next;
+            sentinel._prev = sentinel;
+            sentinel._next = sentinel;
+
+            while (node != sentinel) {
+                Node next = node._next;
+                node._prev = null;
+                node._next = null;
+
+                if (node.getDeadline() >= _time) {
+                    link(findBucket(node.getDeadline()), node);
+                } else if (node.expire()) {
+                    expired++;
+                }
+                node = next;
+            }
+        }
+        return expired;
+    }
+
+    private Node findBucket(long deadline) {
+        long duration = deadline - _time;
+        int last = _wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < (1L << SHIFTS[i + 1])) {
+                long ticks = deadline >>> SHIFTS[i];
+                return _wheel[i][(int) (ticks & (_wheel[i].length - 1))];
+            }
+        }
+        return _wheel[last][0];
+    }
+
+    private static void link(Node sentinel, Node node) {
+        node._prev = sentinel._prev;
+        node._next = sentinel;
+        sentinel._prev._next = node;
+        sentinel._prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node._prev._next = node._next;
+        node._next._prev = node._prev;
+        node._prev = null;
+        node._next = null;
+    }
+
+    // ---- inner classes
+    /**
+     * A node which can be scheduled in the timer wheel.
+     */
+    abstract static class Node {
+
+        /** previous node in the bucket, guarded by the wheel owner */
+        private Node _prev;
+        /** next node in the bucket, guarded by the wheel owner */
+        private Node _next;
+
+        /**
+         * Returns the deadline of this node, in milliseconds.
+         *
+         * @return deadline.
+         */
+        protected abstract long getDeadline();
+
+        /**
+         * Invoked when the deadline of this node passed.
+         *
+         * @return true if this node was expired actually.
+         */
+        protected abstract boolean expire();
+
+        private boolean isScheduled() {
+            return _next != null;
+        }
+
+    }
+
+    private static final class Sentinel extends Node {
+
+        private Sentinel() {
+            Node self = this;
+            self._prev = self;
+            self._next = self;
+        }
+
+        @Override
+        protected long getDeadline() {
+            return 0L;
+        }
+
+        @Override
+        protected boolean expire() {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,622 @@
+package com.mtoolkit.cache.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mlogger.Loggers;
+import com.mtoolkit.cache.CacheException;
+import com.mtoolkit.cache.CacheFuture;
+import com.mtoolkit.thread.DaemonThreadFactory;
+
+/**
+ * Write-behind queue of the async puts and removes of a cache.
+ * <p>
+ * Pending writes are kept per key, so repeated writes to the same key are
+ * coalesced and only the latest one reaches the cache. A flusher thread applies
+ * pending writes in batches, through {@link AbstractCache#putBatch(Map, long)}
+ * and {@link AbstractCache#removeBatch(String[])}, once a batch is full or the
+ * eldest pending write waited for the flush interval. The number of pending keys
+ * is bounded, the {@link OverflowPolicy} decides what a write to a new key does
+ * when the queue is full.
+ * <p>
+ * Futures complete when their writes are applied, the futures of coalesced
+ * writes complete with the write which superseded them. Batches are applied
+ * one at a time, so the writes to a key reach the cache in order.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class WriteBehindQueue {
+
+    /** cache to write */
+    private final AbstractCache _cache;
+    /** max pending key number */
+    private final int _capacity;
+    /** max write number of a batch */
+    private final int _batchSize;
+    /** max time a pending write waits for its flush, in milliseconds */
+    private final long _flushInterval;
+    /** action when the queue is full */
+    private final OverflowPolicy _overflowPolicy;
+
+    /** pending writes by key, in queued order, guarded by lock */
+    private final LinkedHashMap<String, Write> _writes = new LinkedHashMap<String, Write>();
+    /** queue lock */
+    private final ReentrantLock _lock = new ReentrantLock();
+    /** signaled when pending writes are drained */
+    private final Condition _notFull = _lock.newCondition();
+    /** signaled when a batch may be ready */
+    private final Condition _flushable = _lock.newCondition();
+    /** held while draining and applying a batch, keeps batches in order */
+    private final ReentrantLock _applyLock = new ReentrantLock();
+    /** running flag, guarded by lock */
+    private boolean _running;
+    /** flusher thread */
+    private Thread _flusher;
+
+    /** applied batch number, guarded by apply lock */
+    private long _batchNumber;
+    /** writes superseded by later writes to the same key, guarded by lock */
+    private long _coalescedNumber;
+    /** writes which hit the capacity, guarded by lock */
+    private long _overflowNumber;
+
+    public static final int DEF_CAPACITY = 10000;
+    public static final int DEF_BATCH_SIZE = 100;
+    public static final long DEF_FLUSH_INTERVAL = 100L;
+
+    private static final Loggers LOGGER = Loggers.getLoggers(WriteBehindQueue.class);
+
+    public WriteBehindQueue(AbstractCache cache) {
+        this(cache, DEF_CAPACITY, DEF_BATCH_SIZE, DEF_FLUSH_INTERVAL, OverflowPolicy.BLOCK);
+    }
+
+    public WriteBehindQueue(AbstractCache cache, int capacity, int batchSize,
+            long flushInterval, OverflowPolicy overflowPolicy) {
+        if (cache == null) {
+            throw new NullPointerException("cache");
+        }
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be a positive number: " + capacity);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be a positive number: " + batchSize);
+        }
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be a positive number: " + flushInterval);
+        }
+
+        _cache = cache;
+        _capacity = capacity;
+        _batchSize = batchSize;
+        _flushInterval = flushInterval;
+        _overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the flusher thread.
+     */
+    public void start() {
+        _lock.lock();
+        try {
+            if (_running) {
+                return;
+            }
+            _running = true;
+            _flusher = new DaemonThreadFactory("WriteBehindQueue-" + _cache.getId()).newThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    runFlusher();
+                }
+
+            });
+            _flusher.start();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flusher thread and applies all the pending writes.
+     */
+    public void stop() {
+        Thread flusher;
+        _lock.lock();
+        try {
+            if (!_running) {
+                return;
+            }
+            _running = false;
+            flusher = _flusher;
+            _flusher = null;
+            _flushable.signalAll();
+            _notFull.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Applies all the pending writes in the caller thread.
+     */
+    public void flush() {
+        while (flushBatch(false)) {
+            // until no write is pending.
+        }
+    }
+
+    /**
+     * Queues a put of the key.
+     *
+     * @param  key         cache key.
+     * @param  value       cache value.
+     * @param  expiredTime expired time, in milliseconds.
+     *
+     * @return future of the put result.
+     */
+    public CacheFuture<Boolean> put(String key, Object value, long expiredTime) {
+        PendingFuture<Boolean> future = new PendingFuture<Boolean>();
+        _lock.lock();
+        try {
+            Write write = acquireWrite(key);
+            if (write == null) {
+                return overflow(key, value, expiredTime);
+            }
+            if (write._put) {
+                _coalescedNumber++;
+            }
+            write._put = true;
+            write._value = value;
+            write._expiredTime = expiredTime;
+            write._putFutures.add(future);
+        } finally {
+            _lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Queues a remove of the key, a pending put of the key is dropped.
+     *
+     * @param  key cache key.
+     *
+     * @return future of the value removed from the cache.
+     */
+    public <T> Future<T> remove(String key) {
+        PendingFuture<Object> future = new PendingFuture<Object>();
+        _lock.lock();
+        try {
+            Write write = acquireWrite(key);
+            if (write == null) {
+                return overflow(key);
+            }
+            if (write._put) {
+                _coalescedNumber += write._putFutures.size();
+                write._put = false;
+                write._value = null;
+                write._supersededFutures.addAll(write._putFutures);
+                write._putFutures.clear();
+            }
+            write._remove = true;
+            write._removeFutures.add(future);
+        } finally {
+            _lock.unlock();
+        }
+
+        @SuppressWarnings("unchecked")
+        Future<T> result = (Future<T>) future;
+        return result;
+    }
+
+    /**
+     * Queues removes of the keys.
+     *
+     * @param  keys cache keys.
+     *
+     * @return future of the values removed from the cache, in keys order.
+     */
+    public <T> Future<List<T>> remove(String[] keys) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(keys.length);
+        for (String key : keys) {
+            if (key != null && !key.isEmpty()) {
+                futures.add(this.<T>remove(key));
+            }
+        }
+        return new ListFuture<T>(futures);
+    }
+
+    /**
+     * Returns the number of pending keys.
+     *
+     * @return pending key number.
+     */
+    public int size() {
+        _lock.lock();
+        try {
+            return _writes.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public long getBatchNumber() {
+        _applyLock.lock();
+        try {
+            return _batchNumber;
+        } finally {
+            _applyLock.unlock();
+        }
+    }
+
+    public long getCoalescedNumber() {
+        _lock.lock();
+        try {
+            return _coalescedNumber;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public long getOverflowNumber() {
+        _lock.lock();
+        try {
+            return _overflowNumber;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    // ---- private methods
+    // must hold the lock, returns null if the queue is full and the write is not queued.
+    private Write acquireWrite(String key) {
+        if (!_running) {
+            return null;
+        }
+
+        Write write = _writes.get(key);
+        if (write != null) {
+            return write;
+        }
+
+        while (_writes.size() >= _capacity) {
+            _overflowNumber++;
+            if (_overflowPolicy != OverflowPolicy.BLOCK) {
+                if (_overflowPolicy == OverflowPolicy.ABORT) {
+                    throw new CacheException("Write-behind queue is full: " + _capacity);
+                }
+                return null;
+            }
+
+            _flushable.signal();
+            try {
+                _notFull.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheException("Interrupted while waiting for write-behind queue.", e);
+            }
+            if (!_running) {
+                return null;
+            }
+            write = _writes.get(key);
+            if (write != null) {
+                return write;
+            }
+        }
+
+        write = new Write(key, System.currentTimeMillis());
+        _writes.put(key, write);
+        if (_writes.size() == 1 || _writes.size() >= _batchSize) {
+            _flushable.signal();
+        }
+        return write;
+    }
+
+    // must hold the lock
+    private CacheFuture<Boolean> overflow(String key, Object value, long expiredTime) {
+        if (_running && _overflowPolicy == OverflowPolicy.DISCARD) {
+            return AbstractCache.SucceedFuture.BOOLEAN_FALSE;
+        }
+
+        // caller runs, or the queue stopped, after the batch being applied.
+        _lock.unlock();
+        _applyLock.lock();
+        try {
+            return new AbstractCache.SucceedFuture<Boolean>(
+                Boolean.valueOf(_cache.put(key, value, expiredTime, null)));
+        } finally {
+            _applyLock.unlock();
+            _lock.lock();
+        }
+    }
+
+    // must hold the lock
+    private <T> Future<T> overflow(String key) {
+        if (_running && _overflowPolicy == OverflowPolicy.DISCARD) {
+            return new AbstractCache.SucceedFuture<T>(null);
+        }
+
+        // caller runs, or the queue stopped, after the batch being applied.
+        _lock.unlock();
+        _applyLock.lock();
+        try {
+            return new AbstractCache.SucceedFuture<T>(_cache.<T>remove(key));
+        } finally {
+            _applyLock.unlock();
+            _lock.lock();
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            _lock.lock();
+            try {
+                while (_running && !isFlushable()) {
+                    if (_writes.isEmpty()) {
+                        _flushable.await();
+                    } else {
+                        long delay = _writes.values().iterator().next()._queuedAt
+                            + _flushInterval - System.currentTimeMillis();
+                        _flushable.await(Math.max(delay, 1L), TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (!_running) {
+                    return; // stop() flushes the rest.
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                _lock.unlock();
+            }
+
+            try {
+                flushBatch(true);
+            } catch (RuntimeException e) {
+                LOGGER.error("Flush write-behind queue exception.", e);
+            }
+        }
+    }
+
+    // must hold the lock
+    private boolean isFlushable() {
+        if (_writes.isEmpty()) {
+            return false;
+        }
+        if (_writes.size() >= _batchSize) {
+            return true;
+        }
+        Write eldest = _writes.values().iterator().next();
+        return System.currentTimeMillis() - eldest._queuedAt >= _flushInterval;
+    }
+
+    private boolean flushBatch(boolean onlyFlushable) {
+        _applyLock.lock();
+        try {
+            List<Write> batch;
+            _lock.lock();
+            try {
+                if (_writes.isEmpty() || (onlyFlushable && !isFlushable())) {
+                    return false;
+                }
+
+                batch = new ArrayList<Write>(Math.min(_writes.size(), _batchSize));
+                Iterator<Write> iterator = _writes.values().iterator();
+                while (iterator.hasNext() && batch.size() < _batchSize) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                _notFull.signalAll();
+            } finally {
+                _lock.unlock();
+            }
+
+            apply(batch);
+            _batchNumber++;
+            return true;
+        } finally {
+            _applyLock.unlock();
+        }
+    }
+
+    // must hold the apply lock
+    private void apply(List<Write> batch) {
+        List<Write> removes = new ArrayList<Write>();
+        Map<Long, List<Write>> puts = new HashMap<Long, List<Write>>();
+        for (Write write : batch) {
+            if (write._remove) {
+                removes.add(write);
+            }
+            if (write._put) {
+                Long expiredTime = Long.valueOf(write._expiredTime);
+                List<Write> group = puts.get(expiredTime);
+                if (group == null) {
+                    group = new ArrayList<Write>();
+                    puts.put(expiredTime, group);
+                }
+                group.add(write);
+            }
+        }
+
+        if (!removes.isEmpty()) {
+            applyRemoves(removes);
+        }
+        for (Entry<Long, List<Write>> entry : puts.entrySet()) {
+            applyPuts(entry.getValue(), entry.getKey().longValue());
+        }
+    }
+
+    private void applyRemoves(List<Write> removes) {
+        String[] keys = new String[removes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = removes.get(i)._key;
+        }
+
+        List<Object> values;
+        try {
+            values = _cache.removeBatch(keys);
+        } catch (RuntimeException e) {
+            for (Write write : removes) {
+                fail(write._removeFutures, e);
+                fail(write._supersededFutures, e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            Write write = removes.get(i);
+            Object value = i < values.size() ? values.get(i) : null;
+            for (PendingFuture<Object> future : write._removeFutures) {
+                future.set(value);
+            }
+            for (PendingFuture<Boolean> future : write._supersededFutures) {
+                future.set(Boolean.TRUE);
+            }
+        }
+    }
+
+    private void applyPuts(List<Write> writes, long expiredTime) {
+        Map<String, Object> values = new HashMap<String, Object>(writes.size() * 2);
+        for (Write write : writes) {
+            values.put(write._key, write._value);
+        }
+
+        Map<String, Boolean> results;
+        try {
+            results = _cache.putBatch(values, expiredTime);
+        } catch (RuntimeException e) {
+            for (Write write : writes) {
+                fail(write._putFutures, e);
+            }
+            return;
+        }
+
+        for (Write write : writes) {
+            Boolean result = results == null ? null : results.get(write._key);
+            for (PendingFuture<Boolean> future : write._putFutures) {
+                future.set(result == null ? Boolean.FALSE : result);
+            }
+        }
+    }
+
+    private static <T> void fail(List<PendingFuture<T>> futures, Throwable cause) {
+        for (PendingFuture<T> future : futures) {
+            future.setException(cause);
+        }
+    }
+
+    // ---- inner classes
+    /**
+     * Action of a write to a new key when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /** waits until the flusher drains the queue */
+        BLOCK,
+        /** applies the write in the caller thread synchronously */
+        CALLER_RUNS,
+        /** drops the write, put futures complete with false */
+        DISCARD,
+        /** throws a {@link CacheException} */
+        ABORT
+
+    }
+
+    /**
+     * Pending writes of a key: an optional remove followed by an optional put.
+     */
+    private static final class Write {
+
+        private final String _key;
+        private final long _queuedAt;
+
+        private boolean _remove;
+        private final List<PendingFuture<Object>> _removeFutures = new ArrayList<PendingFuture<Object>>(1);
+        /** puts dropped by a later remove, complete with the remove */
+        private final List<PendingFuture<Boolean>> _supersededFutures = new ArrayList<PendingFuture<Boolean>>(0);
+
+        private boolean _put;
+        private Object _value;
+        private long _expiredTime;
+        private final List<PendingFuture<Boolean>> _putFutures = new ArrayList<PendingFuture<Boolean>>(1);
+
+        private Write(String key, long queuedAt) {
+            _key = key;
+            _queuedAt = queuedAt;
+        }
+
+    }
+
+    /**
+     * A future of the results of several futures, in order.
+     */
+    private static final class ListFuture<T> implements Future<List<T>> {
+
+        private final List<Future<T>> _futures;
+
+        private ListFuture(List<Future<T>> futures) {
+            _futures = futures;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (Future<T> future : _futures) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<T> get() throws InterruptedException, ExecutionException {
+            List<T> results = new ArrayList<T>(_futures.size());
+            for (Future<T> future : _futures) {
+                results.add(future.get());
+            }
+            return results;
+        }
+
+        @Override
+        public List<T> get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            List<T> results = new ArrayList<T>(_futures.size());
+            for (Future<T> future : _futures) {
+                results.add(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        }
+
+    }
+
+}
@@ -11,7 +11,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 import net.rubyeye.xmemcached.CASOperation;
@@ -142,7 +141,7 @@ public class XMemcachedCache extends AbstractCache {
         
         if (operation == null) {
             try {
-				_cache.set(key, (int) expiredTime, value);
+				return _cache.set(key, (int) expiredTime, value);
 			} catch (TimeoutException e) {
 				throw new CacheException("XMemcached put operation timeout.", e);
             } catch (InterruptedException e) {
@@ -152,7 +151,7 @@ public class XMemcachedCache extends AbstractCache {
             }
         } else {
             try {
-                _cache.cas(key, (int) expiredTime, new XMemcachedCASOperation(operation));
+                return _cache.cas(key, (int) expiredTime, new XMemcachedCASOperation(operation));
             } catch (TimeoutException e) {
                 throw new CacheException("XMemcached cas put operation timeout.", e);
             } catch (InterruptedException e) {
@@ -161,41 +160,8 @@ public class XMemcachedCache extends AbstractCache {
                 throw new CacheException("XMemcached cas put operation exception.", e);
             }
         }
-
-        return true;
     }
 	
-    @Override
-    public Future<Boolean> asyncPut(String key, Object value, long expiredTime, CasOperation<Object> operation) {
-        checkStates();
-        checkKey(key);
-        if (key.isEmpty()) {
-            return SucceedFuture.BOOLEAN_FALSE;
-        }
-        
-        if (operation == null) {
-            try {
-                _cache.setWithNoReply(key, (int) expiredTime, value);
-            } catch (InterruptedException e) {
-                throw new CacheException("XMemcached put operation thread interrupted.", e);
-            } catch (MemcachedException e) {
-                throw new CacheException("XMemcached exception.", e);
-            }
-        } else {
-            try {
-                _cache.casWithNoReply(key, (int) expiredTime, new XMemcachedCASOperation(operation));
-            } catch (TimeoutException e) {
-                throw new CacheException("XMemcached cas put operation timeout.", e);
-            } catch (InterruptedException e) {
-                throw new CacheException("XMemcached cas put operation thread interrupted.", e);
-            } catch (MemcachedException e) {
-                throw new CacheException("XMemcached cas put operation exception.", e);
-            }
-        }
-
-        return SucceedFuture.BOOLEAN_TRUE;
-    }
-
     @Override
     public <T> T get(String key) {
         checkStates();
@@ -216,14 +182,7 @@ public class XMemcachedCache extends AbstractCache {
     }
     
     @Override
-    public <T> Map<String, T> get(String[] keys) {
-        checkStates();
-        if (keys == null) {
-            throw new NullPointerException("keys");
-        } else if (keys.length == 0) {
-            return Collections.emptyMap();
-        }
-        
+    protected <T> Map<String, T> getBatch(String[] keys) {
         Map<String, T> resultMap = null;
         try {
             resultMap = _cache.get(Arrays.asList(keys));
@@ -235,7 +194,7 @@ public class XMemcachedCache extends AbstractCache {
             throw new CacheException("XMemcached batch get operation exception.", e);
         }
         
-        return resultMap;
+        return resultMap == null ? Collections.<String, T>emptyMap() : resultMap;
     }
     
     @Override
@@ -262,6 +221,11 @@ public class XMemcachedCache extends AbstractCache {
         return value;
     }
 
+    /**
+     * Flushes all the memcached servers, including the keys of other
+     * applications, see {@link com.mtoolkit.cache.decorator.NamespaceCache}
+     * to clear only the keys of a namespace.
+     */
     @Override
     public boolean clear() {
         try {
@@ -0,0 +1,46 @@
+package com.mtoolkit.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Object serializer which also serializes straight into a caller provided
+ * byte buffer, so the caller copies the bytes out only once, and deserializes
+ * a range of a byte array, so the caller does not copy a framed value out.
+ */
+public interface ByteBufferSerializer extends Serializer {
+
+    /**
+     * Serializes a <code>object</code> value straight into a <code>byte buffer</code>,
+     * from its position.
+     *
+     * @param   target a object type value.
+     * @param   buffer the target byte buffer.
+     *
+     * @return  number of bytes written, the buffer position is advanced by it.
+     *          The position is left unchanged if it fails.
+     *
+     * @throws  IOExceptoin if an I/O error occurs while serializing.
+     * @throws  java.nio.BufferOverflowException
+     *          if the buffer has not enough remaining space.
+     */
+    public <T> int serialize(T target, ByteBuffer buffer) throws IOException;
+
+    /**
+     * Deserializes a range of a <code>byte array</code> to a </code>object</code> value.
+     *
+     * @param   bytes  a byte array.
+     * @param   offset offset of the range.
+     * @param   length length of the range.
+     *
+     * @return  a object value that converted from the specified byte range.
+     *
+     * @throws  IOException
+     *          if an I/O error occurs while converting byte array to object.
+     * @throws  ClassNotFoundException
+     *          if not found the target object class.
+     * @throws  NullPointerException if <code>bytes</code> is null.
+     */
+    public <T> T deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException;
+
+}
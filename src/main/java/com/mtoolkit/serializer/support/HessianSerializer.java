@@ -1,41 +1,60 @@
 package com.mtoolkit.serializer.support;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
-import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.ByteBufferSerializer;
+import com.mtoolkit.util.ByteBufferOutputStream;
+import com.mtoolkit.util.ReusableByteArrayOutputStream;
 
 /**
  * Hessian serializer implementation.
  */
-public class HessianSerializer implements Serializer {
+public class HessianSerializer implements ByteBufferSerializer {
 
     @Override
     public <T> byte[] serialize(T target) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        Hessian2Output output = null;
+        ReusableByteArrayOutputStream out = ReusableByteArrayOutputStream.acquire();
         try {
-            output = new Hessian2Output(out);
-            output.writeObject(target);
-            output.flush();
+            write(target, out);
+            return out.toByteArray();
         } finally {
-            if (output != null) {
-                output.close();
+            out.release();
+        }
+    }
+
+    @Override
+    public <T> int serialize(T target, ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        boolean written = false;
+        try {
+            write(target, new ByteBufferOutputStream(buffer));
+            written = true;
+        } finally {
+            if (!written) {
+                buffer.position(position);
             }
         }
         
-        return out.toByteArray();
+        return buffer.position() - position;
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public<T> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
         Hessian2Input input = null;
         try {
-            input = new Hessian2Input(new ByteArrayInputStream(bytes));
+            input = new Hessian2Input(new ByteArrayInputStream(bytes, offset, length));
             return (T) input.readObject();
         } finally {
             if (input != null) {
@@ -44,4 +63,11 @@ public class HessianSerializer implements Serializer {
         }
     }
 
+    // ---- private methods
+    private void write(Object target, OutputStream out) throws IOException {
+        Hessian2Output output = new Hessian2Output(out);
+        output.writeObject(target);
+        output.flush();
+    }
+
 }
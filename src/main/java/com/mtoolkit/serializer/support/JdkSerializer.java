@@ -1,23 +1,34 @@
 package com.mtoolkit.serializer.support;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-import com.mtoolkit.serializer.Serializer;
+import com.mtoolkit.serializer.ByteBufferSerializer;
 import com.mtoolkit.util.ConversionUtil;
 
 /**
  * JDK serializer implementation.
  */
-public class JdkSerializer implements Serializer {
+public class JdkSerializer implements ByteBufferSerializer {
 
     @Override
     public <T> byte[] serialize(T target) throws IOException {
         return ConversionUtil.object2Bytes(target);
     }
 
+    @Override
+    public <T> int serialize(T target, ByteBuffer buffer) throws IOException {
+        return ConversionUtil.object2Bytes(target, buffer);
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
         return ConversionUtil.bytes2Object(bytes);
     }
 
+    @Override
+    public <T> T deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        return ConversionUtil.bytes2Object(bytes, offset, length);
+    }
+
 }
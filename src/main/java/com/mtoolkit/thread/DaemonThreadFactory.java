@@ -0,0 +1,33 @@
+package com.mtoolkit.thread;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory which creates named daemon threads, for background
+ * maintenance tasks which must not keep the JVM alive.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    /** thread name prefix */
+    private final String _name;
+    /** created thread number */
+    private final AtomicInteger _threadNumber = new AtomicInteger();
+
+    public DaemonThreadFactory(String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        _name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, _name + "-" + _threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
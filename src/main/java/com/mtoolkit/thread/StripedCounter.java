@@ -0,0 +1,123 @@
+package com.mtoolkit.thread;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long counter which spreads concurrent updates over padded cells.
+ * <p>
+ * Every thread adds to its own cell, picked by a per-thread probe which is
+ * rehashed when the cell is contended, so concurrent updates do not contend
+ * on one cache line. The value is the sum of the cells. Each cell is padded
+ * to a cache line to avoid false sharing between neighbouring cells.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class StripedCounter {
+
+    /** padded cells, the value of cell i is at index i * PADDING */
+    private final AtomicLongArray _cells;
+    /** mask to select a cell by probe */
+    private final int _cellMask;
+
+    /** longs per cache line */
+    private static final int PADDING = 8;
+    /** max cell number */
+    private static final int MAX_CELLS = 64;
+    /** default cell number */
+    private static final int DEF_CELLS = defaultCells();
+
+    /** per-thread probe, never zero */
+    private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+
+        @Override
+        protected int[] initialValue() {
+            int seed = (int) Thread.currentThread().getId() * 0x9E3779B9;
+            return new int[] { seed == 0 ? 1 : seed };
+        }
+
+    };
+
+    public StripedCounter() {
+        this(DEF_CELLS);
+    }
+
+    public StripedCounter(int cells) {
+        if (cells <= 0) {
+            throw new IllegalArgumentException("Cell number must be a positive number: " + cells);
+        }
+
+        int cellNumber = 1;
+        while (cellNumber < cells && cellNumber < MAX_CELLS) {
+            cellNumber <<= 1;
+        }
+        _cells = new AtomicLongArray(cellNumber * PADDING);
+        _cellMask = cellNumber - 1;
+    }
+
+    /**
+     * Adds the value.
+     *
+     * @param value value to add.
+     */
+    public void add(long value) {
+        int[] probe = PROBE.get();
+        int index = (probe[0] & _cellMask) * PADDING;
+        long current = _cells.get(index);
+        if (!_cells.compareAndSet(index, current, current + value)) {
+            // contended, move this thread to another cell.
+            int hash = probe[0];
+            hash ^= hash << 13;
+            hash ^= hash >>> 17;
+            hash ^= hash << 5;
+            probe[0] = hash;
+            _cells.getAndAdd(index, value);
+        }
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void decrement() {
+        add(-1L);
+    }
+
+    /**
+     * Returns the sum of the cells. Concurrent updates may or may not be
+     * included, the sum is not an atomic snapshot.
+     *
+     * @return current sum.
+     */
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < _cells.length(); i += PADDING) {
+            sum += _cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the cells and resets them to zero. Updates
+     * concurrent with the reset are either counted or kept.
+     *
+     * @return sum before the reset.
+     */
+    public long sumThenReset() {
+        long sum = 0L;
+        for (int i = 0; i < _cells.length(); i += PADDING) {
+            sum += _cells.getAndSet(i, 0L);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    // ---- private methods
+    private static int defaultCells() {
+        return Math.min(Runtime.getRuntime().availableProcessors() * 2, MAX_CELLS);
+    }
+
+}
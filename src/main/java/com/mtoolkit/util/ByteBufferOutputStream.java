@@ -0,0 +1,42 @@
+package com.mtoolkit.util;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream which writes straight into a byte buffer from its position.
+ * <p>
+ * Writing more than the remaining space of the buffer throws a
+ * {@link BufferOverflowException}, the bytes already written are left in the
+ * buffer. Closing the stream has no effect.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    /** target buffer */
+    private final ByteBuffer _buffer;
+
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        _buffer = buffer;
+    }
+
+    public ByteBuffer getBuffer() {
+        return _buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        _buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        _buffer.put(b, off, len);
+    }
+
+}
@@ -1,11 +1,11 @@
 package com.mtoolkit.util;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -305,6 +305,8 @@ public class ConversionUtil {
     
     /**
      * Converts a <code>object</code> value to a <code>byte array</code>.
+     * The object is serialized into a buffer reused by the current thread,
+     * and copied once into an exact-size array.
      * 
      * @param 	value a object type value.
      * 
@@ -313,19 +315,46 @@ public class ConversionUtil {
      * @throws 	IOExceptoin if an I/O error occurs while converting object to byte array.
      */
     public static byte[] object2Bytes(Object value) throws IOException {
-    	ByteArrayOutputStream output = new ByteArrayOutputStream();
-    	
-    	ObjectOutputStream out = null;
+    	ReusableByteArrayOutputStream output = ReusableByteArrayOutputStream.acquire();
+    	try {
+    		ObjectOutputStream out = new ObjectOutputStream(output);
+    		out.writeObject(value);
+    		out.flush();
+    		return output.toByteArray();
+    	} finally {
+    		output.release();
+    	}
+    }
+    
+    /**
+     * Converts a <code>object</code> value into a <code>byte buffer</code>,
+     * from its position.
+     * 
+     * @param 	value  a object type value.
+     * @param 	buffer the target byte buffer.
+     * 
+     * @return 	number of bytes written, the buffer position is advanced by it.
+     * 			The position is left unchanged if it fails.
+     * 
+     * @throws 	IOExceptoin if an I/O error occurs while converting object to byte array.
+     * @throws  java.nio.BufferOverflowException 
+     * 			if the buffer has not enough remaining space.
+     */
+    public static int object2Bytes(Object value, ByteBuffer buffer) throws IOException {
+    	int position = buffer.position();
+    	boolean written = false;
     	try {
-    		out = new ObjectOutputStream(output);
+    		ObjectOutputStream out = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
     		out.writeObject(value);
+    		out.flush();
+    		written = true;
     	} finally {
-    		if (out != null) {
-    			out.close();
+    		if (!written) {
+    			buffer.position(position);
     		}
     	}
-		
-		return output.toByteArray();
+    	
+    	return buffer.position() - position;
     }
 
     /**
@@ -345,9 +374,30 @@ public class ConversionUtil {
      */
     @SuppressWarnings("unchecked")
     public static <T> T bytes2Object(byte[] value) throws IOException, ClassNotFoundException {    	
+    	return bytes2Object(value, 0, value.length);
+    }
+    
+    /**
+     * Converts a range of a <code>byte array</code> to a </code>object</code> value.
+     * 
+     * @param 	value  a byte array.
+     * @param 	offset offset of the range.
+     * @param 	length length of the range.
+     * 
+     * @return	a object value that converted from the specified byte range.
+     * 
+     * @throws 	IOException 
+     * 			if an I/O error occurs while converting byte array to object.
+     * @throws 	ClassNotFoundException 
+     * 			if not found the target object class.
+     * @throws  NullPointerException if <code>value</code> is null.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T bytes2Object(byte[] value, int offset, int length) 
+    		throws IOException, ClassNotFoundException {
     	ObjectInputStream input = null;
     	try {
-    		input = new ObjectInputStream(new ByteArrayInputStream(value));
+    		input = new ObjectInputStream(new ByteArrayInputStream(value, offset, length));
 	    	return (T) input.readObject();
     	} finally {
     		if (input != null) {
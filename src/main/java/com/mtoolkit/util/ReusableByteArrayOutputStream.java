@@ -0,0 +1,89 @@
+package com.mtoolkit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A byte array output stream which is reused by its thread, so serializing
+ * does not allocate and grow a new buffer every time.
+ * <p>
+ * {@link #acquire()} returns the reset stream of the current thread, and
+ * {@link #release()} gives it back, dropping its buffer if it has grown larger
+ * than {@link #MAX_RETAINED_SIZE}. A nested acquire, such as serializing from
+ * a custom <code>writeObject</code>, gets a new stream instead.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /** thread owning this stream, null if not reusable */
+    private final Thread _owner;
+    /** acquired by its thread flag */
+    private boolean _acquired;
+
+    /** initial buffer size, in bytes */
+    public static final int DEF_INITIAL_SIZE = 4 * 1024;
+    /** largest buffer kept by a thread after release, in bytes */
+    public static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ReusableByteArrayOutputStream> LOCAL_STREAM =
+        new ThreadLocal<ReusableByteArrayOutputStream>() {
+
+            @Override
+            protected ReusableByteArrayOutputStream initialValue() {
+                return new ReusableByteArrayOutputStream(Thread.currentThread());
+            }
+
+        };
+
+    private ReusableByteArrayOutputStream(Thread owner) {
+        super(DEF_INITIAL_SIZE);
+        _owner = owner;
+    }
+
+    /**
+     * Returns the empty stream of the current thread, or a new stream if it
+     * has been acquired and not released.
+     *
+     * @return an empty stream.
+     */
+    public static ReusableByteArrayOutputStream acquire() {
+        ReusableByteArrayOutputStream stream = LOCAL_STREAM.get();
+        if (stream._acquired) {
+            return new ReusableByteArrayOutputStream(null);
+        }
+        stream._acquired = true;
+        stream.reset();
+        return stream;
+    }
+
+    /**
+     * Gives the stream back to its thread, it must not be used any more.
+     */
+    public void release() {
+        if (_owner == null) {
+            return;
+        }
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[DEF_INITIAL_SIZE];
+        }
+        count = 0;
+        _acquired = false;
+    }
+
+    /**
+     * Copies the written bytes into the buffer from its position.
+     *
+     * @param  buffer target buffer.
+     *
+     * @return number of bytes copied.
+     *
+     * @throws java.nio.BufferOverflowException
+     *         if the buffer has less remaining space, nothing is copied.
+     */
+    public int writeTo(ByteBuffer buffer) {
+        buffer.put(buf, 0, count);
+        return count;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.mtoolkit.cache.decorator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mtoolkit.cache.support.ConcurrentHashMapCache;
+
+/**
+ * Tests of {@link ConcurrentLruCache}.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class ConcurrentLruCacheTest {
+
+    private static final int SIZE = 1024;
+    private static final int CONCURRENCY_LEVEL = 16;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 200000;
+    private static final int KEY_SPACE = SIZE * 8;
+
+    private ConcurrentHashMapCache _backend;
+    private ConcurrentLruCache _cache;
+
+    @Before
+    public void setUp() {
+        _backend = new ConcurrentHashMapCache("lru-test");
+        _cache = new ConcurrentLruCache(_backend, SIZE, CONCURRENCY_LEVEL);
+        _cache.startup();
+    }
+
+    @After
+    public void tearDown() {
+        _cache.shutdown();
+    }
+
+    @Test
+    public void testEvictsEldestKey() {
+        ConcurrentLruCache cache = new ConcurrentLruCache(_backend, 2, 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1L, cache.getEvictionNumber());
+    }
+
+    @Test
+    public void testSizeBoundUnderConcurrentLoad() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        List<Thread> workers = new ArrayList<Thread>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            workers.add(new Thread() {
+
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            String key = "key-" + random.nextInt(KEY_SPACE);
+                            int operation = random.nextInt(10);
+                            if (operation < 5) {
+                                _cache.get(key);
+                            } else if (operation < 9) {
+                                _cache.put(key, key);
+                            } else {
+                                _cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // the backend holds exactly the tracked keys once the load quiesces.
+        assertNull(String.valueOf(failure.get()), failure.get());
+        int backendKeyNumber = countBackendKeys();
+        assertTrue("backend keys exceeded the size: " + backendKeyNumber, backendKeyNumber <= SIZE);
+        assertEquals(_cache.getKeyNumber(), backendKeyNumber);
+        assertTrue(_cache.getEvictionNumber() > 0);
+
+        // the keys put after the load are bounded exactly.
+        for (int i = 0; i < KEY_SPACE; i++) {
+            _cache.put("key-" + i, "value");
+        }
+        assertEquals(SIZE, _cache.getKeyNumber());
+        assertEquals(SIZE, countBackendKeys());
+    }
+
+    @Test
+    public void testSizeIsNotRoundedUp() {
+        ConcurrentLruCache cache = new ConcurrentLruCache(_backend, 3);
+        for (int i = 0; i < 64; i++) {
+            cache.put("key-" + i, "value");
+        }
+        assertEquals(3, cache.getKeyNumber());
+
+        cache = new ConcurrentLruCache(_backend, 100, CONCURRENCY_LEVEL);
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key-" + i, "value");
+        }
+        assertTrue(cache.getKeyNumber() <= 100);
+    }
+
+    private int countBackendKeys() {
+        int present = 0;
+        for (int i = 0; i < KEY_SPACE; i++) {
+            if (_backend.containsKey("key-" + i)) {
+                present++;
+            }
+        }
+        return present;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.mtoolkit.cache.decorator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mtoolkit.cache.Cache;
+import com.mtoolkit.cache.support.ConcurrentHashMapCache;
+
+/**
+ * Tests of {@link TinyLfuCache}, the hit rates are measured on a synthetic
+ * Zipf trace mixed with one-hit-wonder keys.
+ *
+ * @author 	<a href="mailto:xishizhang@gmail.com">ZhangShixi</a>
+ */
+public class TinyLfuCacheTest {
+
+    private static final int SIZE = 500;
+    private static final int KEY_NUMBER = 10000;
+    private static final double ZIPF_EXPONENT = 0.9D;
+    private static final int TRACE_LENGTH = 300000;
+    /** one of every such requests reads a key never read again */
+    private static final int ONE_HIT_WONDER_PERIOD = 3;
+    private static final long SEED = 20121012L;
+
+    @Test
+    public void testRejectsOneHitWonders() {
+        TinyLfuCache cache = new TinyLfuCache(newBackend(), 100);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                read(cache, "hot-" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            read(cache, "scan-" + i);
+        }
+
+        int hotKeys = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot-" + i) != null) {
+                hotKeys++;
+            }
+        }
+        // the scan ages the sketch twice, a few hot keys may lose to it.
+        assertTrue("hot keys kept: " + hotKeys, hotKeys >= 45);
+        assertTrue(cache.getKeyNumber() <= 100);
+        assertTrue(cache.getEvictionNumber() > 0);
+    }
+
+    @Test
+    public void testZipfHitRate() {
+        String[] trace = zipfTrace();
+        double lruHitRate = hitRate(new LruCache(newBackend(), SIZE), trace);
+        double tinyLfuHitRate = hitRate(new TinyLfuCache(newBackend(), SIZE), trace);
+
+        assertTrue("W-TinyLFU hit rate dropped: " + tinyLfuHitRate, tinyLfuHitRate >= 0.33D);
+        assertTrue("W-TinyLFU hit rate " + tinyLfuHitRate + " is not above LRU " + lruHitRate,
+            tinyLfuHitRate >= lruHitRate + 0.10D);
+    }
+
+    // ---- private methods
+    private static Cache newBackend() {
+        return new ConcurrentHashMapCache().startup();
+    }
+
+    private static boolean read(Cache cache, String key) {
+        if (cache.get(key) != null) {
+            return true;
+        }
+        cache.put(key, key);
+        return false;
+    }
+
+    private static double hitRate(Cache cache, String[] trace) {
+        int hits = 0;
+        for (String key : trace) {
+            if (read(cache, key)) {
+                hits++;
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static String[] zipfTrace() {
+        double[] cdf = new double[KEY_NUMBER];
+        double sum = 0D;
+        for (int i = 0; i < KEY_NUMBER; i++) {
+            sum += 1D / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+
+        Random random = new Random(SEED);
+        String[] trace = new String[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            if (i % ONE_HIT_WONDER_PERIOD == 0) {
+                trace[i] = "once-" + i;
+            } else {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                trace[i] = "key-" + (index < 0 ? -index - 1 : index);
+            }
+        }
+        return trace;
+    }
+
+}